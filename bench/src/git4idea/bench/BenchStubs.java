@@ -0,0 +1,89 @@
+package git4idea.bench;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Minimal stand-ins for the IDEA objects GitCommand needs, so its commands can run outside a running IDE.
+ * Anything not answered here returns null/false/0.
+ */
+public class BenchStubs {
+    private BenchStubs() {
+    }
+
+    public static Project project(final String name) {
+        return (Project) Proxy.newProxyInstance(BenchStubs.class.getClassLoader(), new Class[]{Project.class},
+                new Handler() {
+                    protected Object answer(Object proxy, String method) {
+                        if (method.equals("getName")) return name;
+                        return null;
+                    }
+                });
+    }
+
+    public static FilePath filePath(final File file) {
+        return (FilePath) Proxy.newProxyInstance(BenchStubs.class.getClassLoader(), new Class[]{FilePath.class},
+                new Handler() {
+                    protected Object answer(Object proxy, String method) {
+                        if (method.equals("getPath")) return file.getAbsolutePath().replace('\\', '/');
+                        if (method.equals("getName")) return file.getName();
+                        if (method.equals("getIOFile")) return file;
+                        if (method.equals("isDirectory")) return file.isDirectory();
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * @return An indicator that reports itself cancelled once the given time has passed
+     */
+    public static ProgressIndicator progress(final long cancelAfterMillis) {
+        final long start = System.currentTimeMillis();
+        return (ProgressIndicator) Proxy.newProxyInstance(BenchStubs.class.getClassLoader(),
+                new Class[]{ProgressIndicator.class},
+                new Handler() {
+                    protected Object answer(Object proxy, String method) {
+                        if (method.equals("getName")) return "progress";
+                        if (method.equals("isCanceled"))
+                            return System.currentTimeMillis() - start >= cancelAfterMillis;
+                        return null;
+                    }
+                });
+    }
+
+    private abstract static class Handler implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) return proxy == args[0];
+            if (name.equals("hashCode")) return System.identityHashCode(proxy);
+            if (name.equals("toString")) return "stub " + answer(proxy, "getName");
+            Object answer = answer(proxy, name);
+            if (answer != null) return answer;
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) return Boolean.FALSE;
+            if (type == int.class) return 0;
+            if (type == long.class) return 0L;
+            return null;
+        }
+
+        protected abstract Object answer(Object proxy, String method);
+    }
+}
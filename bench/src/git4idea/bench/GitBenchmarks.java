@@ -0,0 +1,43 @@
+package git4idea.bench;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all git4idea benchmarks and writes the results as JSON, so runs can be compared across changes.
+ * Any JMH command line options (e.g. "-p files=50000" or a benchmark regexp) are passed through.
+ * <p/>
+ * Usage: java git4idea.bench.GitBenchmarks [jmh options] (results go to results.json, or -Dbench.out=file)
+ */
+public class GitBenchmarks {
+    private GitBenchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (cmdLine.getIncludes().isEmpty())
+            builder.include("git4idea\\..*Benchmark");
+        Options options = builder
+                .parent(cmdLine)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("bench.out", "results.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,124 @@
+package git4idea.bench;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import git4idea.GitRefCache;
+import git4idea.GitVcsSettings;
+import git4idea.GitVirtualFile;
+import git4idea.commands.GitCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end timings of the GitCommand calls IDEA makes most often, each including the git process it starts,
+ * against a generated repository of the configured size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GitCommandBenchmark {
+    @Param({"1000", "10000"})
+    public int files;
+
+    @Param({"500"})
+    public int commits;
+
+    @Param({"20"})
+    public int branches;
+
+    @Param({"git"})
+    public String git;
+
+    private SyntheticRepository repo;
+    private GitCommand command;
+    private FilePath hotFile;
+    private String head;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repo = SyntheticRepository.create(git, files, commits, branches);
+        String root = repo.getRoot().getCanonicalPath().replace('\\', '/');
+        Project project = BenchStubs.project("bench");
+        GitVcsSettings settings = new GitVcsSettings();
+        settings.GIT_EXECUTABLE = git;
+        command = new GitCommand(project, settings, new GitVirtualFile(project, root));
+        hotFile = BenchStubs.filePath(new File(root, repo.hotPath()));
+        head = repo.git("rev-parse", "HEAD").trim();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GitRefCache.getInstance().clear();
+        repo.delete();
+    }
+
+    @Benchmark
+    public Object cachedFiles() throws Exception {
+        return command.gitCachedFiles();
+    }
+
+    @Benchmark
+    public Object otherFiles() throws Exception {
+        return command.gitOtherFiles();
+    }
+
+    @Benchmark
+    public Object log() throws Exception {
+        return command.log(hotFile);
+    }
+
+    @Benchmark
+    public Object annotate() throws Exception {
+        return command.annotate(hotFile);
+    }
+
+    @Benchmark
+    public Object changesForCommit() throws Exception {
+        return command.getChangesForCommit(head);
+    }
+
+    @Benchmark
+    public Object contents() {
+        return command.getContents(hotFile.getPath(), "HEAD");
+    }
+
+    @Benchmark
+    public Object branchListCached() throws Exception {
+        return command.branchList();
+    }
+
+    @Benchmark
+    public Object branchListCold() throws Exception {
+        GitRefCache.getInstance().clear();
+        return command.branchList();
+    }
+}
@@ -0,0 +1,155 @@
+package git4idea.bench;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitVcsSettings;
+import git4idea.GitVirtualFile;
+import git4idea.commands.GitCommandRunnable;
+import git4idea.commands.GitMultiRootSync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks GitMultiRootSync against real git: N local clones each fetch from their own bare remote, first to
+ * completion, then through a remote that stalls for 30 seconds, cancelled after half a second. The cancelled
+ * sync must return at once, and every fetch must end as cancelled rather than run on in the background.
+ * <p/>
+ * Usage: java git4idea.bench.MultiRootSyncHarness [roots] [git]; exits with 1 if a check fails
+ */
+public class MultiRootSyncHarness {
+    private static final long CANCEL_AFTER_MILLIS = 500;
+    private static final long MAX_CANCEL_MILLIS = 5000;
+    private static final String STALLING_UPLOAD_PACK = "--upload-pack=sleep 30; git upload-pack";
+
+    private final String git;
+    private final Project project = BenchStubs.project("sync");
+    private final List<SyntheticRepository> remotes = new ArrayList<SyntheticRepository>();
+    private final List<SyntheticRepository> locals = new ArrayList<SyntheticRepository>();
+    private int failures = 0;
+
+    private MultiRootSyncHarness(String git) {
+        this.git = git;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int roots = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        MultiRootSyncHarness harness = new MultiRootSyncHarness(args.length > 1 ? args[1] : "git");
+        try {
+            harness.setUp(roots);
+            harness.fetchAll();
+            harness.cancelFetch();
+        } finally {
+            harness.tearDown();
+        }
+        System.out.println(harness.failures == 0 ? "OK" : harness.failures + " check(s) failed");
+        System.exit(harness.failures == 0 ? 0 : 1);
+    }
+
+    private void setUp(int roots) throws IOException {
+        SyntheticRepository source = SyntheticRepository.create(git, 200, 20, 2);
+        remotes.add(source);
+        for (int i = 0; i < roots; i++) {
+            SyntheticRepository remote = new SyntheticRepository(tempDir("remote"), git, 0, 0, 0);
+            source.git("clone", "-q", "--bare", source.getRoot().getPath(), remote.getRoot().getPath());
+            remotes.add(remote);
+            SyntheticRepository local = new SyntheticRepository(tempDir("local"), git, 0, 0, 0);
+            local.git("init", "-q");
+            local.git("remote", "add", "origin", remote.getRoot().getPath());
+            locals.add(local);
+        }
+    }
+
+    private void fetchAll() throws IOException {
+        GitMultiRootSync sync = newSync();
+        for (SyntheticRepository local : locals)
+            sync.addStep(root(local), "fetch", "origin");
+        long start = System.currentTimeMillis();
+        List<VcsException> errors = sync.run(null);
+        System.out.println("fetch of " + locals.size() + " roots: " + (System.currentTimeMillis() - start) + " ms");
+        check(errors.isEmpty(), "fetch reported errors: " + messages(errors));
+        for (int i = 0; i < locals.size(); i++) {
+            String expected = remotes.get(i + 1).git("rev-parse", "refs/heads/master").trim();
+            String fetched = locals.get(i).git("rev-parse", "refs/remotes/origin/master").trim();
+            check(expected.equals(fetched), locals.get(i).getRoot() + " fetched " + fetched + ", expected " + expected);
+        }
+    }
+
+    private void cancelFetch() throws InterruptedException {
+        GitMultiRootSync sync = newSync();
+        List<GitCommandRunnable> steps = new ArrayList<GitCommandRunnable>();
+        for (SyntheticRepository local : locals)
+            steps.add(sync.addStep(root(local), "fetch", STALLING_UPLOAD_PACK, "origin"));
+        long start = System.currentTimeMillis();
+        List<VcsException> errors = sync.run(BenchStubs.progress(CANCEL_AFTER_MILLIS));
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println("cancelled fetch of " + locals.size() + " roots returned after " + elapsed + " ms");
+        check(elapsed < MAX_CANCEL_MILLIS, "cancelled sync took " + elapsed + " ms");
+        check(errors.size() == 1 && errors.get(0).getMessage().startsWith("Cancelled"),
+                "expected a single cancellation error, got: " + messages(errors));
+
+        // the workers see the cancel asynchronously; each step should end well before the remote would answer
+        long deadline = System.currentTimeMillis() + MAX_CANCEL_MILLIS;
+        for (GitCommandRunnable step : steps) {
+            while (step.getException() == null && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            VcsException ex = step.getException();
+            check(ex != null && ex.getMessage().endsWith("cancelled"),
+                    "step did not end as cancelled: " + (ex == null ? "still running" : ex.getMessage()));
+        }
+    }
+
+    private GitMultiRootSync newSync() {
+        GitVcsSettings settings = new GitVcsSettings();
+        settings.GIT_EXECUTABLE = git;
+        settings.SYNC_PARALLELISM = Math.max(1, locals.size());
+        return new GitMultiRootSync(project, settings);
+    }
+
+    private VirtualFile root(SyntheticRepository repo) {
+        return new GitVirtualFile(project, repo.getRoot().getAbsolutePath().replace('\\', '/'));
+    }
+
+    private void tearDown() {
+        for (SyntheticRepository repo : remotes)
+            repo.delete();
+        for (SyntheticRepository repo : locals)
+            repo.delete();
+    }
+
+    private void check(boolean ok, String failure) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + failure);
+        }
+    }
+
+    private static String messages(List<VcsException> errors) {
+        StringBuilder sb = new StringBuilder();
+        for (VcsException e : errors)
+            sb.append(sb.length() == 0 ? "" : "; ").append(e.getMessage());
+        return sb.toString();
+    }
+
+    private static File tempDir(String prefix) throws IOException {
+        File dir = File.createTempFile("git4idea-" + prefix, "");
+        if (!dir.delete() || !dir.mkdirs())
+            throw new IOException("Can't create " + dir);
+        return dir;
+    }
+}
@@ -0,0 +1,221 @@
+package git4idea.bench;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a git repository of a given size on local disk, for benchmarking. History is written in one pass
+ * with 'git fast-import', so even large repositories are created in seconds:
+ * <ul>
+ * <li>an initial commit adding {@code files} files, spread over directories of 100 files</li>
+ * <li>{@code commits - 1} further commits, each modifying a few files; file 0 (the "hot" file) changes in
+ * every one of them, so it has a long history & a fully interleaved annotation</li>
+ * <li>{@code branches} extra branches, pointing at commits spread evenly through the history</li>
+ * </ul>
+ * The working tree is then checked out, with 1% of the files modified & staged and 1% more left untracked.
+ */
+public class SyntheticRepository {
+    private static final int FILES_PER_DIR = 100;
+    private static final int LINES_PER_FILE = 40;
+    private static final int FILES_PER_COMMIT = 5;
+
+    private final File root;
+    private final String git;
+    private final int files;
+    private final int commits;
+    private final int branches;
+    private final Map<Integer, int[]> lineRevisions = new HashMap<Integer, int[]>();
+
+    public SyntheticRepository(File root, String git, int files, int commits, int branches) {
+        this.root = root;
+        this.git = git;
+        this.files = files;
+        this.commits = Math.max(1, commits);
+        this.branches = branches;
+    }
+
+    /**
+     * Create a new repository in a fresh temp directory.
+     */
+    public static SyntheticRepository create(String git, int files, int commits, int branches) throws IOException {
+        File dir = File.createTempFile("git4idea-bench", "");
+        if (!dir.delete() || !dir.mkdirs())
+            throw new IOException("Can't create " + dir);
+        SyntheticRepository repo = new SyntheticRepository(dir, git, files, commits, branches);
+        repo.generate();
+        return repo;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return The path of a file, relative to the root
+     */
+    public String path(int file) {
+        return "dir" + (file / FILES_PER_DIR) + "/file" + file + ".txt";
+    }
+
+    /**
+     * @return The path of the file changed by every commit
+     */
+    public String hotPath() {
+        return path(0);
+    }
+
+    public void generate() throws IOException {
+        git("init", "-q");
+        git("config", "user.name", "Bench");
+        git("config", "user.email", "bench@example.com");
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        long time = 1200000000L;
+        for (int c = 1; c <= commits; c++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("commit refs/heads/master\n");
+            sb.append("mark :").append(c).append('\n');
+            sb.append("committer Bench <bench@example.com> ").append(time + c * 60).append(" +0000\n");
+            String message = "Commit " + c + "\n";
+            sb.append("data ").append(message.length()).append('\n').append(message);
+            if (c > 1)
+                sb.append("from :").append(c - 1).append('\n');
+            write(stream, sb);
+            if (c == 1) {
+                for (int f = 0; f < files; f++)
+                    modify(stream, f, c);
+            } else {
+                modify(stream, 0, c);
+                for (int i = 1; i < FILES_PER_COMMIT && files > 1; i++)
+                    modify(stream, 1 + (c * FILES_PER_COMMIT + i) % (files - 1), c);
+            }
+            write(stream, new StringBuilder("\n"));
+        }
+        lineRevisions.clear();
+        for (int b = 0; b < branches; b++) {
+            int mark = 1 + (int) ((long) b * commits / Math.max(1, branches));
+            write(stream, new StringBuilder("reset refs/heads/branch").append(b).append("\nfrom :").append(mark).append("\n\n"));
+        }
+        run(stream.toByteArray(), git, "fast-import", "--quiet");
+        git("checkout", "-q", "-f", "master");
+
+        int touched = Math.max(1, files / 100);
+        List<String> staged = new ArrayList<String>();
+        staged.add("add");
+        for (int i = 0; i < touched && i < files; i++) {
+            String path = path(files - 1 - i);
+            append(path, "staged change\n");
+            staged.add(path);
+            append("untracked/new" + i + ".txt", "untracked\n");
+        }
+        git(staged.toArray(new String[staged.size()]));
+    }
+
+    private void modify(ByteArrayOutputStream stream, int file, int commit) throws IOException {
+        int[] revs = lineRevisions.get(file);
+        if (revs == null) {
+            revs = new int[LINES_PER_FILE];
+            Arrays.fill(revs, commit);
+            lineRevisions.put(file, revs);
+        } else {
+            revs[commit % LINES_PER_FILE] = commit;  // one line per commit, so blame spreads across the history
+        }
+        StringBuilder content = new StringBuilder();
+        for (int line = 0; line < LINES_PER_FILE; line++)
+            content.append("line ").append(line).append(" of file ").append(file).append(" rev ").append(revs[line]).append('\n');
+        byte[] data = content.toString().getBytes("UTF-8");
+        StringBuilder sb = new StringBuilder();
+        sb.append("M 100644 inline ").append(path(file)).append('\n');
+        sb.append("data ").append(data.length).append('\n');
+        write(stream, sb);
+        stream.write(data);
+    }
+
+    private static void write(ByteArrayOutputStream stream, CharSequence s) throws IOException {
+        stream.write(s.toString().getBytes("UTF-8"));
+    }
+
+    private void append(String path, String text) throws IOException {
+        File f = new File(root, path);
+        f.getParentFile().mkdirs();
+        FileWriter out = new FileWriter(f, true);
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Run git in the repository and return its combined output.
+     */
+    public String git(String... args) throws IOException {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(git);
+        cmd.addAll(Arrays.asList(args));
+        return run(null, cmd.toArray(new String[cmd.size()]));
+    }
+
+    private String run(byte[] input, String... cmd) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(root);
+        pb.redirectErrorStream(true);
+        Process proc = pb.start();
+        OutputStream stdin = new BufferedOutputStream(proc.getOutputStream());
+        if (input != null)
+            stdin.write(input);
+        stdin.close();
+        InputStream in = proc.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[16 * 1024];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            out.write(buf, 0, n);
+        in.close();
+        try {
+            if (proc.waitFor() != 0)
+                throw new IOException(Arrays.asList(cmd) + " failed: " + out.toString("UTF-8"));
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted");
+        }
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Delete the repository from disk.
+     */
+    public void delete() {
+        delete(root);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import git4idea.bench.SyntheticRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of the output parsing alone. The output of each command is captured once from a generated
+ * repository, using the same arguments as GitCommand, so process start-up doesn't drown out the parse cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitOutputParserBenchmark {
+    @Param({"1000", "10000"})
+    public int files;
+
+    @Param({"500"})
+    public int commits;
+
+    @Param({"git"})
+    public String git;
+
+    private String nameStatus;
+    private String others;
+    private String log;
+    private String annotate;
+    private String diffTree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticRepository repo = SyntheticRepository.create(git, files, commits, 0);
+        try {
+            nameStatus = repo.git("diff", "--cached", "--name-status", "--diff-filter=ADMRUX", "--");
+            others = repo.git("ls-files", "--others", "--");
+            log = repo.git("log", "-n25", GitOutputParser.LOG_FORMAT, "--", repo.hotPath());
+            annotate = repo.git("annotate", "-l", "--", repo.hotPath());
+            diffTree = repo.git("diff-tree", "-r", "--root", "--pretty=format:%P", "HEAD");
+        } finally {
+            repo.delete();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        nameStatus = others = log = annotate = diffTree = null;
+    }
+
+    @Benchmark
+    public Object parseNameStatus() {
+        return GitOutputParser.parseNameStatus(nameStatus);
+    }
+
+    @Benchmark
+    public Object parsePaths() {
+        return GitOutputParser.parsePaths(others);
+    }
+
+    @Benchmark
+    public Object parseLog() throws Exception {
+        return GitOutputParser.parseLog(log);
+    }
+
+    @Benchmark
+    public Object parseAnnotate() throws Exception {
+        return GitOutputParser.parseAnnotate(annotate);
+    }
+
+    @Benchmark
+    public Object parseDiffTree() {
+        List<GitOutputParser.TreeChange> changes = new ArrayList<GitOutputParser.TreeChange>();
+        GitOutputParser.parseDiffTree(diffTree, changes);
+        return changes;
+    }
+}
@@ -0,0 +1,114 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes git blob ids in process: the SHA-1 of "blob &lt;length&gt;\0" followed by the content, which is what
+ * "git hash-object" prints for a file with no clean filters or line ending conversion. Each thread reuses its own
+ * digest and read buffer.
+ */
+public class GitBlobHasher {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is not available", e);
+            }
+        }
+    };
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private GitBlobHasher() {
+    }
+
+    /**
+     * @return The blob id of the file's current contents
+     * @throws IOException If the file can't be read, or changes size while being read
+     */
+    @NotNull
+    public static byte[] hash(@NotNull File file) throws IOException {
+        MessageDigest digest = digests.get();
+        ByteBuffer buffer = buffers.get();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            digest.reset();
+            digest.update(header(size));
+            long read = 0;
+            buffer.clear();
+            for (int n; (n = channel.read(buffer)) > 0; buffer.clear()) {
+                buffer.flip();
+                digest.update(buffer);
+                read += n;
+            }
+            if (read != size)
+                throw new IOException(file.getPath() + " changed while it was being read");
+            return digest.digest();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return The blob id of the content
+     */
+    @NotNull
+    public static byte[] hash(@NotNull byte[] content) {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        digest.update(header(content.length));
+        return digest.digest(content);
+    }
+
+    /**
+     * @return The id as 40 lower case hex digits, as git prints it
+     */
+    @NotNull
+    public static String toHex(@NotNull byte[] id) {
+        StringBuilder hex = new StringBuilder(id.length * 2);
+        for (byte b : id) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    @NotNull
+    private static byte[] header(long size) {
+        try {
+            return ("blob " + size + "\0").getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.RuntimeInterruptedException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
@@ -25,11 +26,9 @@ import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.changes.CurrentContentRevision;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.vcsUtil.VcsUtil;
 import git4idea.commands.GitCommand;
 
 import java.util.Collection;
-import java.util.Date;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -151,8 +150,9 @@ public class GitChangeMonitor extends Thread {
                 if (builder == null) return;
                 final GitCommand cmd = new GitCommand(project, settings, root);
                 try {
-                final Set<GitVirtualFile> uncached = cmd.gitUnCachedFiles();
-                final Set<GitVirtualFile> others = cmd.gitOtherFiles();
+                // with lazy staging, the change provider already compares the working tree with HEAD
+                final Set<GitStatusEntry> uncached = settings.LAZY_STAGING ? null : cmd.gitUnCachedFiles();
+                final Set<GitStatusEntry> others = cmd.gitOtherFiles();
                 ApplicationManager.getApplication().invokeLater(
                         new Runnable() {
                             public void run() {
@@ -170,16 +170,16 @@ public class GitChangeMonitor extends Thread {
         }
     }
 
-    private void processChanges(Collection<GitVirtualFile> files) {
+    private void processChanges(Collection<GitStatusEntry> files) {
         if (files == null || files.size() == 0 || builder == null) return;
-        for (GitVirtualFile file : files) {
+        for (GitStatusEntry file : files) {
             if (file == null) continue;
-            ContentRevision beforeRev = new GitContentRevision(file, new GitRevisionNumber(GitRevisionNumber.TIP, new Date(file.getModificationStamp())), project);
-            ContentRevision afterRev = CurrentContentRevision.create(VcsUtil.getFilePath(file.getPath()));
+            FilePath path = file.toFilePath();
+            ContentRevision afterRev = CurrentContentRevision.create(path);
 
             switch (file.getStatus()) {
                 case UNMERGED: {
-                    builder.processChange(new Change(beforeRev, afterRev, FileStatus.MERGED_WITH_CONFLICTS));
+                    builder.processChange(new Change(beforeRevision(path), afterRev, FileStatus.MERGED_WITH_CONFLICTS));
                     break;
                 }
                 case ADDED: {
@@ -187,23 +187,27 @@ public class GitChangeMonitor extends Thread {
                     break;
                 }
                 case DELETED: {
-                    builder.processChange(new Change(beforeRev, null, FileStatus.DELETED));
+                    builder.processChange(new Change(beforeRevision(path), null, FileStatus.DELETED));
                     break;
                 }
                 case COPY:
                 case RENAME:
                 case MODIFIED: {
-                    builder.processChange(new Change(beforeRev, afterRev, FileStatus.MODIFIED));
+                    builder.processChange(new Change(beforeRevision(path), afterRev, FileStatus.MODIFIED));
                     break;
                 }
                 case UNMODIFIED:
                     break;
                 case UNVERSIONED:
-                    builder.processUnversionedFile(file);
+                    builder.processUnversionedFile(file.toVirtualFile(project));
                     break;
                 default:
                     builder.processChange(new Change(null, afterRev, FileStatus.UNKNOWN));
             }
         }
     }
+
+    private ContentRevision beforeRevision(FilePath path) {
+        return new GitContentRevision(path, new GitRevisionNumber(GitRevisionNumber.TIP), project);
+    }
 }
\ No newline at end of file
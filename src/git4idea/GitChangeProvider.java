@@ -19,6 +19,7 @@ package git4idea;
 
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
@@ -28,12 +29,10 @@ import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.changes.CurrentContentRevision;
 import com.intellij.openapi.vcs.changes.VcsDirtyScope;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.vcsUtil.VcsUtil;
 import git4idea.commands.GitCommand;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Collection;
-import java.util.Date;
 import java.util.Set;
 
 /**
@@ -53,8 +52,8 @@ public class GitChangeProvider implements ChangeProvider {
         Collection<VirtualFile> roots = dirtyScope.getAffectedContentRoots();
         for (VirtualFile root : roots) {
             GitCommand command = new GitCommand(project, settings, root);
-            final Set<GitVirtualFile> files = command.gitCachedFiles();
-            for (GitVirtualFile file : files) {
+            final Set<GitStatusEntry> files = settings.LAZY_STAGING ? command.gitWorkTreeFiles() : command.gitCachedFiles();
+            for (GitStatusEntry file : files) {
                 Change c = getChange(file);
                 if (c != null)
                     builder.processChange(c);
@@ -68,16 +67,15 @@ public class GitChangeProvider implements ChangeProvider {
         return false;
     }
 
-    private Change getChange(GitVirtualFile file) {
+    private Change getChange(GitStatusEntry file) {
         if (file == null) return null;
-        ContentRevision beforeRev = new GitContentRevision(file, new GitRevisionNumber(
-                GitRevisionNumber.TIP, new Date(file.getModificationStamp())), project);
-        ContentRevision afterRev = CurrentContentRevision.create(VcsUtil.getFilePath(file.getPath()));
+        FilePath path = file.toFilePath();
+        ContentRevision afterRev = CurrentContentRevision.create(path);
 
         Change c = null;
         switch (file.getStatus()) {
             case UNMERGED: {
-                c = new Change(beforeRev, afterRev, FileStatus.MERGED_WITH_CONFLICTS);
+                c = new Change(beforeRevision(path), afterRev, FileStatus.MERGED_WITH_CONFLICTS);
                 break;
             }
             case ADDED: {
@@ -85,13 +83,13 @@ public class GitChangeProvider implements ChangeProvider {
                 break;
             }
             case DELETED: {
-                c = new Change(beforeRev, null, FileStatus.DELETED);
+                c = new Change(beforeRevision(path), null, FileStatus.DELETED);
                 break;
             }
             case COPY:
             case RENAME:
             case MODIFIED: {
-                c = new Change(beforeRev, afterRev, FileStatus.MODIFIED);
+                c = new Change(beforeRevision(path), afterRev, FileStatus.MODIFIED);
                 break;
             }
             case UNMODIFIED: {
@@ -103,4 +101,8 @@ public class GitChangeProvider implements ChangeProvider {
         }
         return c;
     }
+
+    private ContentRevision beforeRevision(FilePath path) {
+        return new GitContentRevision(path, new GitRevisionNumber(GitRevisionNumber.TIP), project);
+    }
 }
\ No newline at end of file
@@ -26,7 +26,9 @@ import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vcs.changes.LocalChangeList;
 import com.intellij.openapi.vcs.checkin.CheckinEnvironment;
 import com.intellij.openapi.vcs.ui.RefreshableOnComponent;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -110,6 +112,10 @@ public class GitCheckinEnvironment implements CheckinEnvironment {
 
                 List<VcsException> exceptions = new ArrayList<VcsException>();
                 Map<VirtualFile, List<Change>> sortedChanges = sortChangesByVcsRoot(changes);
+                List<Change> allChanges = new ArrayList<Change>();
+                for (LocalChangeList list : ChangeListManager.getInstance(project).getChangeLists())
+                    allChanges.addAll(list.getChanges());
+                Map<VirtualFile, List<Change>> allSortedChanges = sortChangesByVcsRoot(allChanges);
                 
                 if(changeCount == 1)
                     progress.setText2("Commiting change...");
@@ -119,7 +125,11 @@ public class GitCheckinEnvironment implements CheckinEnvironment {
                 for (VirtualFile root : sortedChanges.keySet()) {
                     GitCommand command = new GitCommand(project, settings, root);
                     Set<VirtualFile> files = new HashSet<VirtualFile>();
-                    for (Change change : changes) {
+                    List<Change> rootChanges = sortedChanges.get(root);
+                    // the root has changes outside the selection (possibly staged): commit only the selection
+                    List<Change> known = allSortedChanges.get(root);
+                    boolean onlySelected = known != null && !new HashSet<Change>(rootChanges).containsAll(known);
+                    for (Change change : rootChanges) {
                         if (change.getFileStatus().equals(FileStatus.MODIFIED))
                             files.add(new GitVirtualFile(project, change.getAfterRevision().getFile().getPath(),
                                     GitVirtualFile.Status.MODIFIED));
@@ -131,7 +141,7 @@ public class GitCheckinEnvironment implements CheckinEnvironment {
                                     GitVirtualFile.Status.DELETED));
                     }
                     try {
-                        command.commit(files.toArray(new VirtualFile[files.size()]), message);
+                        command.commit(files.toArray(new VirtualFile[files.size()]), message, onlySelected);
                     }
                     catch (VcsException e) {
                         exceptions.add(e);
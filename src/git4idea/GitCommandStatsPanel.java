@@ -0,0 +1,153 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import git4idea.commands.GitCommandStats;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contents of the "Git Commands" tool window: a table of {@link GitCommandStats}, refreshed every couple of
+ * seconds while it is showing.
+ */
+public class GitCommandStatsPanel extends JPanel {
+    public static final String TOOL_WINDOW_ID = "Git Commands";
+    private static final int REFRESH_MILLIS = 2000;
+    private static final String[] COLUMNS = {
+            "Command", "Count", "Failed", "Total ms", "Mean ms", "p50 ms", "p90 ms", "p99 ms", "Max ms",
+            "Output KB", "Exit codes", "On EDT"
+    };
+
+    private final StatsModel model = new StatsModel();
+    private final Timer timer;
+
+    public GitCommandStatsPanel() {
+        super(new BorderLayout());
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton refresh = new JButton("Refresh");
+        refresh.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                model.refresh();
+            }
+        });
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                GitCommandStats.getInstance().reset();
+                model.refresh();
+            }
+        });
+        buttons.add(refresh);
+        buttons.add(reset);
+        add(buttons, BorderLayout.NORTH);
+
+        timer = new Timer(REFRESH_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (isShowing())
+                    model.refresh();
+            }
+        });
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        model.refresh();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    private static class StatsModel extends AbstractTableModel {
+        private List<Object[]> rows = new ArrayList<Object[]>();
+
+        void refresh() {
+            List<Object[]> newRows = new ArrayList<Object[]>();
+            for (GitCommandStats.Command stats : GitCommandStats.getInstance().getCommands())
+                newRows.add(row(stats));
+            rows = newRows;
+            fireTableDataChanged();
+        }
+
+        @NotNull
+        private static Object[] row(@NotNull GitCommandStats.Command stats) {
+            return new Object[]{
+                    stats.getName(),
+                    stats.getCount(),
+                    stats.getFailures(),
+                    stats.getTotalNanos() / 1000000L,
+                    millis(stats.getMeanNanos()),
+                    millis(stats.getPercentileNanos(50)),
+                    millis(stats.getPercentileNanos(90)),
+                    millis(stats.getPercentileNanos(99)),
+                    millis(stats.getMaxNanos()),
+                    stats.getOutputBytes() / 1024L,
+                    stats.getExitCodes(),
+                    stats.getDispatchThreadCalls()
+            };
+        }
+
+        private static Double millis(long nanos) {
+            return Math.round(nanos / 100000.0) / 10.0;
+        }
+
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 0:
+                case 10:
+                    return String.class;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                case 8:
+                    return Double.class;
+                default:
+                    return Long.class;
+            }
+        }
+
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+    }
+}
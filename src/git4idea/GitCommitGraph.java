@@ -0,0 +1,359 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The commit-graph file git writes on gc (.git/objects/info/commit-graph): for every commit in it, its parents,
+ * its commit time and its generation (one more than that of its highest parent). Generations
+ * let an ancestry walk stop as soon as it is below the commit looked for, so "is A an ancestor of B" is answered
+ * by visiting only the commits in between, without running git.
+ * <p/>
+ * Commits made since the file was last written aren't in it; for those, and for repositories with split
+ * commit-graph chains or no commit-graph at all, the answer is "don't know" (null). What the file says about
+ * the commits it does contain never goes out of date, so a stale graph is still used until a newer one appears.
+ * <p/>
+ * The chunks used are copied onto the heap and the file is closed straight away; like {@link GitPackFile}, the
+ * file is never memory mapped, as on Windows a mapping would keep git from replacing it.
+ */
+public class GitCommitGraph {
+    private static final ConcurrentMap<String, GitCommitGraph> graphs = new ConcurrentHashMap<String, GitCommitGraph>();
+    private static final int SIGNATURE = 0x43475048;    // "CGPH"
+    private static final int CHUNK_FANOUT = 0x4f494446;  // "OIDF"
+    private static final int CHUNK_IDS = 0x4f49444c;     // "OIDL"
+    private static final int CHUNK_DATA = 0x43444154;    // "CDAT"
+    private static final int CHUNK_EDGES = 0x45444745;   // "EDGE"
+    private static final int ID_LENGTH = 20;
+    private static final int DATA_LENGTH = ID_LENGTH + 16;
+    private static final int NO_PARENT = 0x70000000;
+    private static final int EXTRA_EDGES = 0x80000000;
+    private static final int[] NO_PARENTS = new int[0];
+
+    private final File file;
+    private final long stamp;
+    private final ByteBuffer graph;
+    private final int count;
+    private final int fanout;
+    private final int ids;
+    private final int data;
+    private final int edges;
+    private final boolean generations;
+
+    private GitCommitGraph(@NotNull File file, long stamp, @NotNull ByteBuffer graph, int fanout, int ids,
+                           int data, int edges) {
+        this.file = file;
+        this.stamp = stamp;
+        this.graph = graph;
+        this.fanout = fanout;
+        this.ids = ids;
+        this.data = data;
+        this.edges = edges;
+        count = graph.getInt(fanout + 255 * 4);
+        // graphs written by old versions of git have all generations zero, meaning "not computed"
+        generations = count == 0 || generation(0) != 0;
+    }
+
+    /**
+     * Returns the commit-graph of the specified VCS root, re-reading it if git has written a new one.
+     *
+     * @param rootPath The path of the VCS root
+     * @return The graph, or null if the repository has none that can be read
+     */
+    @Nullable
+    public static GitCommitGraph forRoot(@NotNull String rootPath) {
+        GitCommitGraph graph = graphs.get(rootPath);
+        if (graph != null && graph.file.lastModified() == graph.stamp) return graph;
+
+        GitRepositoryFiles files = GitRepositoryFiles.forRoot(new File(rootPath));
+        GitCommitGraph read = files == null ? null : open(new File(files.getObjectsDir(), "info/commit-graph"));
+        if (read != null)
+            graphs.put(rootPath, read);
+        else if (graph != null && !graph.file.isFile())
+            graphs.remove(rootPath);
+        return read != null ? read : graph;
+    }
+
+    /**
+     * @return True if the first commit is an ancestor of (or the same as) the second, null if the graph doesn't
+     *         contain both
+     */
+    @Nullable
+    public Boolean isAncestor(@NotNull String ancestor, @NotNull String descendant) {
+        int a = position(GitObjectDatabase.parseId(ancestor));
+        int d = a < 0 ? -1 : position(GitObjectDatabase.parseId(descendant));
+        if (d < 0) return null;
+        return reaches(d, a);
+    }
+
+    /**
+     * @param commit The commit
+     * @param tips   The branch tips (or other commits) to check
+     * @return Those of the tips that contain the commit, or null if the graph doesn't know the commit
+     */
+    @Nullable
+    public List<String> getContaining(@NotNull String commit, @NotNull Collection<String> tips) {
+        int target = position(GitObjectDatabase.parseId(commit));
+        if (target < 0) return null;
+        List<String> containing = new ArrayList<String>();
+        for (String tip : tips) {
+            int p = position(GitObjectDatabase.parseId(tip));
+            if (p >= 0 && reaches(p, target))
+                containing.add(tip);
+        }
+        return containing;
+    }
+
+    /**
+     * Sort commits so that every commit comes before its ancestors (as "git log --topo-order" does), newest
+     * first among unrelated commits.
+     *
+     * @return The sorted ids, or null if any of them isn't in the graph or the graph has no generation numbers
+     */
+    @Nullable
+    public List<String> sortTopologically(@NotNull Collection<String> commits) {
+        if (!generations) return null;
+        final List<int[]> keyed = new ArrayList<int[]>(commits.size());     // {position, index into ids}
+        final List<String> ids = new ArrayList<String>(commits);
+        for (int i = 0; i < ids.size(); i++) {
+            int p = position(GitObjectDatabase.parseId(ids.get(i)));
+            if (p < 0) return null;
+            keyed.add(new int[]{p, i});
+        }
+        Collections.sort(keyed, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                int byGeneration = generation(b[0]) - generation(a[0]);
+                if (byGeneration != 0) return byGeneration;
+                long at = commitTime(a[0]);
+                long bt = commitTime(b[0]);
+                return at == bt ? 0 : (at < bt ? 1 : -1);
+            }
+        });
+        List<String> sorted = new ArrayList<String>(keyed.size());
+        for (int[] key : keyed)
+            sorted.add(ids.get(key[1]));
+        return sorted;
+    }
+
+    /**
+     * @return The ids of the commit's parents, or null if the graph doesn't contain the commit
+     */
+    @Nullable
+    public List<String> getParents(@NotNull String commit) {
+        int p = position(GitObjectDatabase.parseId(commit));
+        if (p < 0) return null;
+        List<String> parents = new ArrayList<String>(2);
+        for (int parent : parents(p))
+            parents.add(idAt(parent));
+        return parents;
+    }
+
+    /**
+     * @return The number of commits in the graph
+     */
+    public int size() {
+        return count;
+    }
+
+    /* breadth first walk from one commit towards another, never going below the generation of the target */
+    private boolean reaches(int from, int target) {
+        if (from == target) return true;
+        int floor = generations ? generation(target) : 0;
+        if (generations && generation(from) <= floor) return false;
+        BitSet seen = new BitSet();
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        queue.add(from);
+        seen.set(from);
+        while (!queue.isEmpty()) {
+            for (int parent : parents(queue.removeFirst())) {
+                if (parent == target) return true;
+                if (seen.get(parent) || generation(parent) < floor) continue;
+                seen.set(parent);
+                queue.add(parent);
+            }
+        }
+        return false;
+    }
+
+    private int position(@Nullable byte[] id) {
+        if (id == null) return -1;
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0 : graph.getInt(fanout + (first - 1) * 4);
+        int high = graph.getInt(fanout + first * 4) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(mid, id);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private int compareId(int position, @NotNull byte[] id) {
+        int start = ids + position * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int diff = (graph.get(start + i) & 0xff) - (id[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return 0;
+    }
+
+    @NotNull
+    private String idAt(int position) {
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++)
+            id[i] = graph.get(ids + position * ID_LENGTH + i);
+        return GitBlobHasher.toHex(id);
+    }
+
+    @NotNull
+    private int[] parents(int position) {
+        int record = data + position * DATA_LENGTH + ID_LENGTH;
+        int first = graph.getInt(record);
+        if (first == NO_PARENT) return NO_PARENTS;
+        int second = graph.getInt(record + 4);
+        if (second == NO_PARENT) return new int[]{first};
+        if ((second & EXTRA_EDGES) == 0) return new int[]{first, second};
+        if (edges < 0) return new int[]{first};     // damaged: octopus merge without an edge list
+
+        List<Integer> all = new ArrayList<Integer>();
+        all.add(first);
+        int edge = edges + (second & ~EXTRA_EDGES) * 4;
+        int value;
+        do {
+            value = graph.getInt(edge);
+            all.add(value & ~EXTRA_EDGES);
+            edge += 4;
+        } while ((value & EXTRA_EDGES) == 0);
+        int[] result = new int[all.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = all.get(i);
+        return result;
+    }
+
+    /* the top 30 bits of the last 8 bytes of a commit's record; the other 34 are its commit time */
+    private int generation(int position) {
+        return graph.getInt(data + position * DATA_LENGTH + ID_LENGTH + 8) >>> 2;
+    }
+
+    private long commitTime(int position) {
+        int record = data + position * DATA_LENGTH + ID_LENGTH + 8;
+        return ((long) (graph.getInt(record) & 3) << 32) | (graph.getInt(record + 4) & 0xffffffffL);
+    }
+
+    @Nullable
+    private static GitCommitGraph open(@NotNull File file) {
+        if (!file.isFile()) return null;
+        long stamp = file.lastModified();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                ByteBuffer header = ByteBuffer.allocate(8);
+                if (size < 8 || read(channel, header, 0) < 8) return null;
+
+                // header: signature, version 1, hash version 1 (SHA-1), chunk count, base graph count
+                if (header.getInt(0) != SIGNATURE || header.get(4) != 1 || header.get(5) != 1 || header.get(7) != 0)
+                    return null;
+                int chunks = header.get(6) & 0xff;
+                ByteBuffer table = ByteBuffer.allocate((chunks + 1) * 12);  // ends with an entry for the file's end
+                if (read(channel, table, 8) < table.capacity()) return null;
+                long[] offsets = new long[chunks + 1];
+                for (int i = 0; i <= chunks; i++) {
+                    offsets[i] = table.getLong(i * 12 + 4);
+                    if (offsets[i] < 0 || offsets[i] > size) return null;
+                }
+
+                // copy the chunks used into one buffer, back to back
+                long[] starts = new long[]{-1, -1, -1, -1};     // fan-out, ids, data, edges
+                long[] lengths = new long[4];
+                long total = 0;
+                for (int i = 0; i < chunks; i++) {
+                    int kind = chunkKind(table.getInt(i * 12));
+                    if (kind < 0) continue;
+                    long end = size;
+                    for (long offset : offsets) {
+                        if (offset > offsets[i] && offset < end) end = offset;
+                    }
+                    starts[kind] = offsets[i];
+                    lengths[kind] = end - offsets[i];
+                    total += lengths[kind];
+                }
+                if (starts[0] < 0 || starts[1] < 0 || starts[2] < 0 || total > Integer.MAX_VALUE) return null;
+                ByteBuffer graph = ByteBuffer.allocate((int) total);
+                int[] positions = new int[]{-1, -1, -1, -1};
+                for (int kind = 0; kind < 4; kind++) {
+                    if (starts[kind] < 0) continue;
+                    positions[kind] = graph.position();
+                    ByteBuffer chunk = graph.slice();
+                    chunk.limit((int) lengths[kind]);
+                    if (read(channel, chunk, starts[kind]) < lengths[kind]) return null;
+                    graph.position(graph.position() + (int) lengths[kind]);
+                }
+
+                if (lengths[0] < 256 * 4) return null;
+                int count = graph.getInt(positions[0] + 255 * 4);
+                if (count < 0 || (long) count * DATA_LENGTH > lengths[2] || (long) count * ID_LENGTH > lengths[1])
+                    return null;
+                return new GitCommitGraph(file, stamp, graph, positions[0], positions[1], positions[2], positions[3]);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (IndexOutOfBoundsException e) {     // damaged file
+            return null;
+        }
+    }
+
+    /* the chunks used: 0 fan-out, 1 ids, 2 commit data, 3 octopus edges; -1 for the rest */
+    private static int chunkKind(int chunk) {
+        if (chunk == CHUNK_FANOUT) return 0;
+        if (chunk == CHUNK_IDS) return 1;
+        if (chunk == CHUNK_DATA) return 2;
+        if (chunk == CHUNK_EDGES) return 3;
+        return -1;
+    }
+
+    /* positional reads until the buffer is full or the file ends */
+    private static int read(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,665 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable, in-process view of the git configuration that applies to a repository: the system, global and
+ * repository config files (plus anything they include), in git's order of precedence. Parsed configs are cached
+ * per VCS root and re-read only when the modification time or size of one of their files changes.
+ * <p/>
+ * Where the system config lives depends on how git was built, so it is asked once per git executable. If git
+ * can't say, no config is returned and callers fall back to running git.
+ */
+public class GitConfig {
+    private static final ConcurrentMap<String, GitConfig> cache = new ConcurrentHashMap<String, GitConfig>();
+    private static final ConcurrentMap<String, String> systemConfigs = new ConcurrentHashMap<String, String>();
+    private static final String UNKNOWN = "";       // in systemConfigs: git couldn't tell where its system config is
+    /* the value of a key given without "=", as opposed to an empty one; compared by identity */
+    private static final String NO_VALUE = new String("");
+    private static final int MAX_INCLUDE_DEPTH = 10;
+    /* file systems with coarse timestamps can't distinguish changes made this close to the read */
+    private static final long RACY_MILLIS = 2000;
+
+    private final Map<String, List<String>> values;
+    private final List<File> files;
+    private final long[] stamps;
+    private final long[] lengths;
+    private final boolean racy;
+
+    private GitConfig(@NotNull Map<String, List<String>> values, @NotNull List<File> files, long readTime) {
+        this.values = values;
+        this.files = files;
+        stamps = new long[files.size()];
+        lengths = new long[files.size()];
+        boolean r = false;
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = files.get(i).lastModified();
+            lengths[i] = files.get(i).length();
+            if (readTime - stamps[i] < RACY_MILLIS) r = true;
+        }
+        racy = r;
+    }
+
+    /**
+     * Returns the configuration for the specified VCS root, from the cache if none of its files has changed.
+     *
+     * @param rootPath      The path of the VCS root
+     * @param gitExecutable The git executable, asked where the system config is
+     * @return The configuration, or null if the root isn't a readable git repository or the system config can't
+     *         be found
+     */
+    @Nullable
+    public static GitConfig forRoot(@NotNull String rootPath, @NotNull String gitExecutable) {
+        GitConfig config = cache.get(rootPath);
+        if (config != null && !config.isStale()) return config;
+
+        GitRepositoryFiles repo = GitRepositoryFiles.forRoot(new File(rootPath));
+        File system = null;
+        if (System.getenv("GIT_CONFIG_NOSYSTEM") == null) {
+            system = findSystemConfig(gitExecutable);
+            if (system == null) repo = null;
+        }
+        if (repo == null) {
+            cache.remove(rootPath);
+            return null;
+        }
+        config = read(repo, system);
+        cache.put(rootPath, config);
+        return config;
+    }
+
+    /**
+     * Drop the cached configuration of the root owning the specified path, if the path is a config file.
+     *
+     * @param path The path of a changed file
+     */
+    public static void fileChanged(@NotNull String path) {
+        int idx = path.indexOf("/.git/");
+        if (idx >= 0 && path.endsWith("/config"))
+            cache.remove(path.substring(0, idx));
+    }
+
+    /**
+     * Read the full configuration of a repository, lowest precedence first: system, global (XDG then
+     * ~/.gitconfig), repository, then per-worktree config.
+     *
+     * @param repo   The repository
+     * @param system The system config file, or null to leave it out
+     * @return The configuration
+     */
+    @NotNull
+    public static GitConfig read(@NotNull GitRepositoryFiles repo, @Nullable File system) {
+        long readTime = System.currentTimeMillis();
+        Parser parser = new Parser(repo);
+        if (system != null)
+            parser.readFile(system, 0);
+        String home = System.getProperty("user.home");
+        String xdg = System.getenv("XDG_CONFIG_HOME");
+        if (xdg != null && xdg.length() > 0)
+            parser.readFile(new File(xdg, "git/config"), 0);
+        else if (home != null)
+            parser.readFile(new File(home, ".config/git/config"), 0);
+        if (home != null)
+            parser.readFile(new File(home, ".gitconfig"), 0);
+        parser.readFile(repo.getConfigFile(), 0);
+        if (isTrue(parser.last("extensions.worktreeconfig")))
+            parser.readFile(new File(repo.getGitDir(), "config.worktree"), 0);
+        return new GitConfig(parser.values, parser.files, readTime);
+    }
+
+    /**
+     * Returns the system config file of a git executable, asking it the first time. A missing file is named in
+     * the error git gives; an empty one isn't named anywhere, and is reported as unknown.
+     *
+     * @param gitExecutable The git executable
+     * @return The file, which may not exist, or null if git couldn't be run or didn't say
+     */
+    @Nullable
+    static File findSystemConfig(@NotNull String gitExecutable) {
+        String env = System.getenv("GIT_CONFIG_SYSTEM");
+        if (env != null && env.length() > 0) return new File(env);
+        String path = systemConfigs.get(gitExecutable);
+        if (path == null) {
+            path = UNKNOWN;
+            try {
+                ProcessBuilder pb = new ProcessBuilder(gitExecutable, "config", "--system", "--list", "--show-origin", "-z");
+                pb.environment().put("LC_ALL", "C");    // the error naming a missing file must not be translated
+                pb.redirectErrorStream(true);
+                Process process = pb.start();
+                process.getOutputStream().close();
+                String output = new String(readAll(process.getInputStream()), "UTF-8");
+                process.waitFor();
+                if (output.startsWith("file:")) {
+                    int end = output.indexOf('\0');
+                    if (end > 0) path = output.substring("file:".length(), end);
+                } else {
+                    String missing = "unable to read config file '";
+                    int start = output.indexOf(missing);
+                    int end = start < 0 ? -1 : output.indexOf("':", start + missing.length());
+                    if (end > 0) path = output.substring(start + missing.length(), end);
+                }
+            } catch (IOException e) {
+                // git can't be run
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;    // try again next time
+            }
+            systemConfigs.put(gitExecutable, path);
+        }
+        return path.length() == 0 ? null : new File(path);
+    }
+
+    @NotNull
+    private static byte[] readAll(@NotNull InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns true if any file the configuration was read from (or looked for) has changed since.
+     *
+     * @return true if the configuration should be re-read
+     */
+    public boolean isStale() {
+        if (racy) return true;
+        for (int i = 0; i < stamps.length; i++) {
+            File f = files.get(i);
+            if (f.lastModified() != stamps[i] || f.length() != lengths[i]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the effective (last) value of a key.
+     *
+     * @param key The key, e.g. "core.autocrlf" or "remote.origin.url"
+     * @return The value, "" for a key given without a value or with an empty one, or null if the key isn't set
+     */
+    @Nullable
+    public String getString(@NotNull String key) {
+        List<String> all = values.get(normalizeKey(key));
+        return all == null ? null : all.get(all.size() - 1);
+    }
+
+    /**
+     * Returns every value of a multi-valued key, in precedence order.
+     *
+     * @param key The key, e.g. "remote.origin.fetch"
+     * @return The values, empty if the key isn't set
+     */
+    @NotNull
+    public List<String> getAll(@NotNull String key) {
+        List<String> all = values.get(normalizeKey(key));
+        return all == null ? Collections.<String>emptyList() : Collections.unmodifiableList(all);
+    }
+
+    public boolean getBoolean(@NotNull String key, boolean defaultValue) {
+        String value = getString(key);
+        if (value == null) return defaultValue;
+        if (isTrue(value)) return true;
+        if (isFalse(value)) return false;
+        return defaultValue;
+    }
+
+    /**
+     * @return The value, scaled by a k, m or g suffix, or the default if it isn't a number or doesn't fit an int
+     */
+    public int getInt(@NotNull String key, int defaultValue) {
+        String value = getString(key);
+        if (value == null || value.length() == 0) return defaultValue;
+        long scale = 1;
+        char unit = Character.toLowerCase(value.charAt(value.length() - 1));
+        if (unit == 'k') scale = 1024L;
+        else if (unit == 'm') scale = 1024L * 1024;
+        else if (unit == 'g') scale = 1024L * 1024 * 1024;
+        try {
+            long n = Integer.parseInt(scale == 1 ? value : value.substring(0, value.length() - 1)) * scale;
+            return n < Integer.MIN_VALUE || n > Integer.MAX_VALUE ? defaultValue : (int) n;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return The names of all configured remotes, in the order they first appear
+     */
+    @NotNull
+    public List<String> getRemoteNames() {
+        Set<String> names = new LinkedHashSet<String>();
+        for (String key : values.keySet()) {
+            if (!key.startsWith("remote.")) continue;
+            int dot = key.lastIndexOf('.');
+            if (dot > "remote.".length())
+                names.add(key.substring("remote.".length(), dot));
+        }
+        return new ArrayList<String>(names);
+    }
+
+    @Nullable
+    public String getRemoteUrl(@NotNull String remote) {
+        return getString("remote." + remote + ".url");
+    }
+
+    /**
+     * Returns the URL pushes to the remote go to: remote.&lt;name&gt;.pushurl if set, otherwise its url.
+     */
+    @Nullable
+    public String getRemotePushUrl(@NotNull String remote) {
+        String url = getString("remote." + remote + ".pushurl");
+        return url != null ? url : getRemoteUrl(remote);
+    }
+
+    @NotNull
+    public List<String> getRemoteFetchSpecs(@NotNull String remote) {
+        return getAll("remote." + remote + ".fetch");
+    }
+
+    /**
+     * Returns the alias of the configured remote with the specified URL.
+     *
+     * @param url The URL
+     * @return The remote name, or null if no remote has that URL
+     */
+    @Nullable
+    public String findRemoteByUrl(@NotNull String url) {
+        for (String remote : getRemoteNames()) {
+            if (url.equals(getRemoteUrl(remote))) return remote;
+        }
+        return null;
+    }
+
+    /**
+     * @return The remote the branch tracks (branch.&lt;name&gt;.remote), or null if it has no upstream
+     */
+    @Nullable
+    public String getBranchRemote(@NotNull String branch) {
+        return getString("branch." + branch + ".remote");
+    }
+
+    /**
+     * @return The upstream ref on the remote (branch.&lt;name&gt;.merge), e.g. "refs/heads/master"
+     */
+    @Nullable
+    public String getBranchMerge(@NotNull String branch) {
+        return getString("branch." + branch + ".merge");
+    }
+
+    /**
+     * Returns true if pulling into the branch should rebase rather than merge (branch.&lt;name&gt;.rebase,
+     * falling back to pull.rebase).
+     */
+    public boolean isBranchRebase(@NotNull String branch) {
+        String value = getString("branch." + branch + ".rebase");
+        if (value == null) value = getString("pull.rebase");
+        return value != null && !isFalse(value);
+    }
+
+    /**
+     * Returns the remote-tracking branch ("origin/master") the branch's upstream is fetched into.
+     *
+     * @param branch The local branch name
+     * @return The tracking branch, or null if the branch has no upstream or it isn't fetched into a tracking ref
+     */
+    @Nullable
+    public String getTrackingBranch(@NotNull String branch) {
+        String remote = getBranchRemote(branch);
+        String merge = getBranchMerge(branch);
+        if (remote == null || merge == null || remote.equals(".")) return null;
+        String mergeName = merge.startsWith(GitRefSnapshot.HEADS_PREFIX) ?
+                merge.substring(GitRefSnapshot.HEADS_PREFIX.length()) : merge;
+        for (String spec : getRemoteFetchSpecs(remote)) {
+            if (spec.startsWith("+")) spec = spec.substring(1);
+            int colon = spec.indexOf(':');
+            if (colon < 0) continue;
+            String src = spec.substring(0, colon);
+            String dst = spec.substring(colon + 1);
+            String mapped = null;
+            if (src.endsWith("/*") && dst.endsWith("/*") && merge.startsWith(src.substring(0, src.length() - 1)))
+                mapped = dst.substring(0, dst.length() - 1) + merge.substring(src.length() - 1);
+            else if (src.equals(merge))
+                mapped = dst;
+            if (mapped != null && mapped.startsWith(GitRefSnapshot.REMOTES_PREFIX))
+                return mapped.substring(GitRefSnapshot.REMOTES_PREFIX.length());
+        }
+        return remote + "/" + mergeName;
+    }
+
+    @Nullable
+    public String getCore(@NotNull String name) {
+        return getString("core." + name);
+    }
+
+    /**
+     * A key with no "=" at all is true; one with an empty value ("key =") is false, as git has it.
+     */
+    static boolean isTrue(@Nullable String value) {
+        return value != null && (value == NO_VALUE || value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes")
+                || value.equalsIgnoreCase("on") || value.equals("1"));
+    }
+
+    static boolean isFalse(@Nullable String value) {
+        return value != null && (value.length() == 0 && value != NO_VALUE || value.equalsIgnoreCase("false")
+                || value.equalsIgnoreCase("no") || value.equalsIgnoreCase("off") || value.equals("0"));
+    }
+
+    /**
+     * Section & variable names are case-insensitive, subsection names are not.
+     */
+    @NotNull
+    static String normalizeKey(@NotNull String key) {
+        int first = key.indexOf('.');
+        int last = key.lastIndexOf('.');
+        if (first < 0) return key.toLowerCase();
+        if (first == last) return key.toLowerCase();
+        return key.substring(0, first).toLowerCase() + key.substring(first, last + 1) + key.substring(last + 1).toLowerCase();
+    }
+
+    /**
+     * Reads git config files into a flat map of key to values, following include.path & includeIf "gitdir:".
+     */
+    private static class Parser {
+        private final GitRepositoryFiles repo;
+        private final Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+        private final List<File> files = new ArrayList<File>();
+
+        Parser(@NotNull GitRepositoryFiles repo) {
+            this.repo = repo;
+        }
+
+        @Nullable
+        String last(@NotNull String key) {
+            List<String> all = values.get(key);
+            return all == null ? null : all.get(all.size() - 1);
+        }
+
+        void readFile(@NotNull File file, int depth) {
+            files.add(file);    // missing files are stamped too, so creating one invalidates the cache
+            if (depth > MAX_INCLUDE_DEPTH || !file.isFile()) return;
+            String text;
+            try {
+                text = readText(file);
+            } catch (IOException e) {
+                return;
+            }
+            parse(text, file, depth);
+        }
+
+        private void parse(@NotNull String text, @NotNull File file, int depth) {
+            int pos = 0;
+            int len = text.length();
+            String section = null;
+            while (pos < len) {
+                char c = text.charAt(pos);
+                if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                    pos++;
+                } else if (c == '#' || c == ';') {
+                    pos = skipLine(text, pos);
+                } else if (c == '[') {
+                    int end = findSectionEnd(text, pos);
+                    if (end < 0) return;    // malformed; git refuses the whole file
+                    section = parseSectionHeader(text.substring(pos + 1, end));
+                    pos = end + 1;
+                } else {
+                    int nameEnd = pos;
+                    while (nameEnd < len && (Character.isLetterOrDigit(text.charAt(nameEnd)) || text.charAt(nameEnd) == '-'))
+                        nameEnd++;
+                    if (nameEnd == pos) {
+                        pos = skipLine(text, pos);
+                        continue;
+                    }
+                    String name = text.substring(pos, nameEnd).toLowerCase();
+                    pos = nameEnd;
+                    while (pos < len && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t')) pos++;
+                    String value = NO_VALUE;
+                    if (pos < len && text.charAt(pos) == '=') {
+                        StringBuilder sb = new StringBuilder();
+                        pos = parseValue(text, pos + 1, sb);
+                        value = sb.toString();
+                    } else {
+                        pos = skipLine(text, pos);
+                    }
+                    if (section != null)
+                        set(section + "." + name, value, file, depth);
+                }
+            }
+        }
+
+        private void set(@NotNull String key, @NotNull String value, @NotNull File file, int depth) {
+            List<String> all = values.get(key);
+            if (all == null) {
+                all = new ArrayList<String>(1);
+                values.put(key, all);
+            }
+            all.add(value);
+
+            if (key.equals("include.path")) {
+                readFile(resolvePath(value, file), depth + 1);
+            } else if (key.startsWith("includeif.") && key.endsWith(".path")) {
+                String condition = key.substring("includeif.".length(), key.length() - ".path".length());
+                if (conditionMatches(condition, file))
+                    readFile(resolvePath(value, file), depth + 1);
+            }
+        }
+
+        /**
+         * Only the gitdir: & gitdir/i: conditions are evaluated; onbranch: and others never match.
+         */
+        private boolean conditionMatches(@NotNull String condition, @NotNull File file) {
+            boolean ignoreCase = false;
+            String pattern;
+            if (condition.startsWith("gitdir:")) {
+                pattern = condition.substring("gitdir:".length());
+            } else if (condition.startsWith("gitdir/i:")) {
+                pattern = condition.substring("gitdir/i:".length());
+                ignoreCase = true;
+            } else {
+                return false;
+            }
+            if (pattern.startsWith("~/")) {
+                pattern = System.getProperty("user.home") + pattern.substring(1);
+            } else if (pattern.startsWith("./")) {
+                pattern = file.getParentFile().getPath() + pattern.substring(1);
+            } else if (!pattern.startsWith("/") && !(pattern.length() > 1 && pattern.charAt(1) == ':')) {
+                pattern = "**/" + pattern;
+            }
+            if (pattern.endsWith("/")) pattern += "**";
+            String gitDir = repo.getGitDir().getAbsolutePath().replace(File.separatorChar, '/');
+            pattern = pattern.replace(File.separatorChar, '/');
+            if (ignoreCase) {
+                gitDir = gitDir.toLowerCase();
+                pattern = pattern.toLowerCase();
+            }
+            return globMatches(pattern, 0, gitDir, 0);
+        }
+
+        @NotNull
+        private static File resolvePath(@NotNull String path, @NotNull File includingFile) {
+            if (path.startsWith("~/"))
+                return new File(System.getProperty("user.home"), path.substring(2));
+            File f = new File(path);
+            return f.isAbsolute() ? f : new File(includingFile.getParentFile(), path);
+        }
+
+        private static int skipLine(@NotNull String text, int pos) {
+            int nl = text.indexOf('\n', pos);
+            return nl < 0 ? text.length() : nl + 1;
+        }
+
+        private static int findSectionEnd(@NotNull String text, int pos) {
+            boolean quoted = false;
+            for (int i = pos + 1; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n') return -1;
+                if (quoted && c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == ']' && !quoted) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * [section], [section "subsection"] or the deprecated [section.subsection] form.
+         */
+        @NotNull
+        private static String parseSectionHeader(@NotNull String header) {
+            header = header.trim();
+            int quote = header.indexOf('"');
+            if (quote < 0) {
+                return header.toLowerCase();
+            }
+            String section = header.substring(0, quote).trim().toLowerCase();
+            StringBuilder sub = new StringBuilder();
+            for (int i = quote + 1; i < header.length(); i++) {
+                char c = header.charAt(i);
+                if (c == '\\' && i + 1 < header.length()) {
+                    sub.append(header.charAt(++i));
+                } else if (c == '"') {
+                    break;
+                } else {
+                    sub.append(c);
+                }
+            }
+            return section + "." + sub;
+        }
+
+        /**
+         * Parse a value up to the end of its (possibly continued) line, handling quotes, escapes and comments.
+         * Unquoted whitespace at either end is dropped.
+         *
+         * @return The position after the value
+         */
+        private static int parseValue(@NotNull String text, int pos, @NotNull StringBuilder sb) {
+            boolean quoted = false;
+            int trimTo = 0;     // length of sb without trailing unquoted whitespace
+            int len = text.length();
+            while (pos < len) {
+                char c = text.charAt(pos++);
+                if (c == '\n' || c == '\r' && pos < len && text.charAt(pos) == '\n') {
+                    if (c == '\r') pos++;
+                    break;
+                }
+                if (!quoted && (c == '#' || c == ';')) {
+                    pos = skipLine(text, pos - 1);
+                    break;
+                }
+                if (c == '"') {
+                    quoted = !quoted;
+                    trimTo = sb.length();
+                } else if (c == '\\' && pos < len) {
+                    char e = text.charAt(pos++);
+                    switch (e) {
+                        case '\r':
+                            if (pos < len && text.charAt(pos) == '\n') pos++;
+                            continue;
+                        case '\n':
+                            continue;   // line continuation
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'b':
+                            if (sb.length() > 0) sb.setLength(sb.length() - 1);
+                            break;
+                        default:
+                            sb.append(e);
+                    }
+                    trimTo = sb.length();
+                } else if (c == ' ' || c == '\t') {
+                    if (quoted || sb.length() > 0) sb.append(c);
+                    if (quoted) trimTo = sb.length();
+                } else {
+                    sb.append(c);
+                    trimTo = sb.length();
+                }
+            }
+            sb.setLength(trimTo);
+            return pos;
+        }
+
+        /**
+         * Glob match where '*' matches within a path segment and '**' matches across segments.
+         */
+        private static boolean globMatches(@NotNull String pattern, int pi, @NotNull String text, int ti) {
+            while (pi < pattern.length()) {
+                char p = pattern.charAt(pi);
+                if (p == '*') {
+                    boolean doubleStar = pi + 1 < pattern.length() && pattern.charAt(pi + 1) == '*';
+                    int next = pi + (doubleStar ? 2 : 1);
+                    if (doubleStar && next < pattern.length() && pattern.charAt(next) == '/') {
+                        if (globMatches(pattern, next + 1, text, ti)) return true;  // "**/" may match nothing
+                    }
+                    for (int i = ti; i <= text.length(); i++) {
+                        if (globMatches(pattern, next, text, i)) return true;
+                        if (i < text.length() && text.charAt(i) == '/' && !doubleStar) return false;
+                    }
+                    return false;
+                }
+                if (ti >= text.length()) return false;
+                if (p != '?' && p != text.charAt(ti)) return false;
+                if (p == '?' && text.charAt(ti) == '/') return false;
+                pi++;
+                ti++;
+            }
+            return ti == text.length();
+        }
+
+        @NotNull
+        private static String readText(@NotNull File file) throws IOException {
+            Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+                StringBuilder sb = new StringBuilder((int) file.length());
+                char[] buf = new char[4096];
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    sb.append(buf, 0, n);
+                return sb.toString();
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -34,7 +34,6 @@ import org.jetbrains.annotations.Nullable;
  * Git content revision
  */
 public class GitContentRevision extends CurrentContentRevision  {
-    private GitVirtualFile file;
     private GitRevisionNumber revision;
     private Project project;
 
@@ -43,21 +42,28 @@ public class GitContentRevision extends CurrentContentRevision  {
     }
 
     public GitContentRevision(@NotNull GitVirtualFile vfile, @NotNull GitRevisionNumber revision, @NotNull Project project) {
-        super(PeerFactory.getInstance().getVcsContextFactory().createFilePathOn(vfile));
+        this(PeerFactory.getInstance().getVcsContextFactory().createFilePathOn(vfile), revision, project);
+    }
+
+    /**
+     * The content of a path at a revision. Nothing is read, from git or the file system, until it's asked for.
+     */
+    public GitContentRevision(@NotNull FilePath file, @NotNull GitRevisionNumber revision, @NotNull Project project) {
+        super(file);
         this.project = project;
-        this.file = vfile;
         this.revision = revision;
     }
 
     @Override
     @Nullable
     public String getContent()  {
-        if (file == null || revision == null) return super.getContent();
+        if (revision == null) return super.getContent();
 
+        FilePath file = getFile();
         GitCommand command = new GitCommand(
                 project,
                 GitVcsSettings.getInstance(project),
-                GitUtil.getVcsRoot(project,file));
+                GitUtil.getVcsRoot(project, file));
 
         return command.getContents(file.getPath(), revision.getRev());
     }
@@ -76,12 +82,13 @@ public class GitContentRevision extends CurrentContentRevision  {
             return false;
 
         GitContentRevision test = (GitContentRevision) obj;
-        return (file.equals(test.file) && revision.equals(test.revision));
+        return getFile().equals(test.getFile())
+                && (revision == null ? test.revision == null : revision.equals(test.revision));
     }
 
     public int hashCode() {
-        if (file != null && revision != null)
-            return file.hashCode() + revision.hashCode();
+        if (revision != null)
+            return getFile().hashCode() + revision.hashCode();
         return 0;
     }
 }
\ No newline at end of file
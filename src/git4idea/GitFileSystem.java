@@ -20,9 +20,14 @@ package git4idea;
 import com.intellij.openapi.vcs.vfs.VcsFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.project.ProjectManagerAdapter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.io.IOException;
 
@@ -34,25 +39,59 @@ public class GitFileSystem extends VcsFileSystem {
     static final String PROTOCOL = "git";
     static final String PREFIX_REV_GRAPH = "revg";
 
-    // per project, store a cache map of path->vfile mappings
-    private Map<Project, Map<String, VirtualFile>> projects = new HashMap<Project, Map<String, VirtualFile>>();
+    static final int MAX_CACHED_FILES = 4096;
+
+    // path->vfile mappings of all projects, least recently used dropped first; guarded by itself
+    private final Map<String, CachedFile> files = new LinkedHashMap<String, CachedFile>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFile> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
 
     public static GitFileSystem getInstance() {
         return gitfs;
     }
 
     public VirtualFile findFileByPath(@NotNull Project project, @NotNull final String path) {
-        Map<String, VirtualFile> cache = projects.get(project);
-        if (cache == null) {
-            cache = new HashMap<String, VirtualFile>();
-            projects.put(project, cache);
+        synchronized (files) {
+            CachedFile cached = files.get(path);
+            if (cached != null && cached.getProject() == project)
+                return cached.file;
+
+            final GitVirtualFile file = new GitVirtualFile(project, path);
+            files.put(path, new CachedFile(project, file));
+            return file;
         }
+    }
 
-        if (cache.containsKey(path)) return cache.get(path);
+    /**
+     * Drop the cached file for a path, and those of any files below it.
+     *
+     * @param path The path of a deleted or moved file
+     */
+    public void invalidate(@NotNull String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (files) {
+            files.remove(path);
+            for (Iterator<String> it = files.keySet().iterator(); it.hasNext();) {
+                if (it.next().startsWith(prefix))
+                    it.remove();
+            }
+        }
+    }
 
-        final GitVirtualFile file = new GitVirtualFile(project, path);
-        cache.put(path, file);
-        return file;
+    /**
+     * Drop all cached files of a project, so a closed project isn't kept alive by the cache.
+     */
+    void invalidate(@NotNull Project project) {
+        synchronized (files) {
+            for (Iterator<CachedFile> it = files.values().iterator(); it.hasNext();) {
+                Project owner = it.next().getProject();
+                if (owner == null || owner == project)
+                    it.remove();
+            }
+        }
     }
 
     @Override
@@ -72,10 +111,16 @@ public class GitFileSystem extends VcsFileSystem {
 
     @Override
     public VirtualFile refreshAndFindFileByPath(String path) {
-        for (Map<String, VirtualFile> cache : projects.values()) {
-            if (cache.containsKey(path)) return cache.get(path);
+        synchronized (files) {
+            CachedFile cached = files.get(path);
+            if (cached == null) return null;
+            Project project = cached.getProject();
+            if (project == null || project.isDisposed()) {
+                files.remove(path);
+                return null;
+            }
+            return cached.file;
         }
-        return null;
     }
 
     @Override
@@ -90,19 +135,51 @@ public class GitFileSystem extends VcsFileSystem {
 
     @Override
     protected void fireFileDeleted(Object requestor, VirtualFile file, String fileName, VirtualFile parent) {
+        invalidate(file.getPath());
         super.fireFileDeleted(requestor, file, fileName, parent);
     }
 
     @Override
     public void initComponent() {
         super.initComponent();
+        ProjectManager.getInstance().addProjectManagerListener(projectListener);
     }
 
     @Override
     public void disposeComponent() {
+        ProjectManager.getInstance().removeProjectManagerListener(projectListener);
+        synchronized (files) {
+            files.clear();
+        }
         super.disposeComponent();
     }
 
+    private final ProjectManagerAdapter projectListener = new ProjectManagerAdapter() {
+        @Override
+        public void projectClosed(Project project) {
+            invalidate(project);
+        }
+    };
+
+    /**
+     * A cache entry. The project is only weakly referenced by the entry itself; the cached file refers to it
+     * strongly, so entries are also dropped when their project closes.
+     */
+    private static class CachedFile {
+        private final WeakReference<Project> project;
+        final VirtualFile file;
+
+        CachedFile(@NotNull Project project, @NotNull VirtualFile file) {
+            this.project = new WeakReference<Project>(project);
+            this.file = file;
+        }
+
+        @Nullable
+        Project getProject() {
+            return project.get();
+        }
+    }
+
     @Override
     protected void fireBeforeContentsChange(Object requestor, VirtualFile file) {
         super.fireBeforeContentsChange(requestor, file);
@@ -0,0 +1,433 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.util.SystemInfo;
+import git4idea.commands.GitExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable picture of the paths in a repository's index, read directly from .git/index (versions 2 to 4).
+ * Paths are kept as one block of UTF-8 bytes, in the index's own sort order, and looked up by binary search, so
+ * even a very large index takes little memory.
+ * <p/>
+ * Answers whether a file or directory is tracked, and, used with {@link GitBlobHasher}, whether a working tree
+ * file still matches its merged (stage 0) index entry, without running git. Like {@link GitRefSnapshot}, a
+ * picture is re-read once the index file's size or time stamp moves.
+ */
+public class GitIndexReader {
+    private static final ConcurrentMap<String, GitIndexReader> cache = new ConcurrentHashMap<String, GitIndexReader>();
+    private static final ConcurrentMap<String, Boolean> rereading = new ConcurrentHashMap<String, Boolean>();
+    /* file systems with coarse timestamps can't distinguish changes made this close to the read */
+    private static final long RACY_MILLIS = 2000;
+    private static final int SIGNATURE = 0x44495243;   // "DIRC"
+    private static final int ID_LENGTH = 20;
+    private static final int TYPE_MASK = 0170000;
+    private static final int TYPE_FILE = 0100000;
+    private static final int TYPE_DIRECTORY = 0040000;  // a sparse index's collapsed directory
+    private static final int EXT_LINK = 0x6c696e6b;      // "link": a split index, most entries are elsewhere
+    private static final int EXECUTABLE = 0100;
+    private static final int FLAG_EXTENDED = 0x4000;
+    private static final int EXT_SKIP_WORKTREE = 0x4000;
+    private static final int EXT_INTENT_TO_ADD = 0x2000;
+    private static final int STAGE_MASK = 0x3000;
+
+    private final File indexFile;
+    private final long stamp;
+    private final long length;
+    private final boolean racy;
+    private final int count;
+    private final byte[] paths;
+    private final int[] pathStarts;     // count + 1 offsets into paths
+    private final byte[] ids;
+    private final int[] sizes;
+    private final boolean[] executable;
+    private final boolean[] comparable;   // a merged regular file whose content can be checked
+
+    private GitIndexReader(@NotNull File indexFile, long stamp, long length, long readTime, int count,
+                           @NotNull byte[] paths, @NotNull int[] pathStarts, @NotNull byte[] ids,
+                           @NotNull int[] sizes, @NotNull boolean[] executable, @NotNull boolean[] comparable) {
+        this.indexFile = indexFile;
+        this.stamp = stamp;
+        this.length = length;
+        this.racy = readTime - stamp < RACY_MILLIS;
+        this.count = count;
+        this.paths = paths;
+        this.pathStarts = pathStarts;
+        this.ids = ids;
+        this.sizes = sizes;
+        this.executable = executable;
+        this.comparable = comparable;
+    }
+
+    /**
+     * Returns the current picture of the index of the specified VCS root.
+     *
+     * @param rootPath The path of the VCS root
+     * @return The picture, or null if the index can't be read directly (callers should fall back to git)
+     */
+    @Nullable
+    public static GitIndexReader forRoot(@NotNull String rootPath) {
+        GitIndexReader index = cache.get(rootPath);
+        if (index != null && !index.isStale()) return index;
+
+        GitRepositoryFiles files = GitRepositoryFiles.forRoot(new File(rootPath));
+        index = files == null || usesSha256(files) ? null : read(files.getIndexFile());
+        if (index == null)
+            cache.remove(rootPath);
+        else
+            cache.put(rootPath, index);
+        return index;
+    }
+
+    /**
+     * Returns the cached picture of the index of a VCS root if it is still current, without reading anything.
+     * Otherwise a re-read is queued on the background pool, so that later callers find a current picture.
+     *
+     * @param rootPath The path of the VCS root
+     * @return The picture, or null if there is no current one yet
+     */
+    @Nullable
+    public static GitIndexReader getCached(@NotNull final String rootPath) {
+        GitIndexReader index = cache.get(rootPath);
+        if (index != null && !index.isStale()) return index;
+        if (rereading.putIfAbsent(rootPath, Boolean.TRUE) == null) {
+            GitExecutor.getInstance().execute(GitExecutor.Priority.BACKGROUND, rootPath, new Runnable() {
+                public void run() {
+                    try {
+                        forRoot(rootPath);
+                    } finally {
+                        rereading.remove(rootPath);
+                    }
+                }
+            });
+        }
+        return null;
+    }
+
+    /**
+     * Read an index file.
+     *
+     * @return The picture, or null if the file is missing, damaged or of a version that isn't understood, or is
+     *         a split or sparse index, which doesn't list every tracked file itself
+     */
+    @Nullable
+    public static GitIndexReader read(@NotNull File indexFile) {
+        // take the stamp before reading so a concurrent change always makes the picture look stale
+        long stamp = indexFile.lastModified();
+        long length = indexFile.length();
+        long readTime = System.currentTimeMillis();
+        try {
+            ByteBuffer in = readFully(indexFile);
+            if (in == null || in.getInt() != SIGNATURE) return null;
+            int version = in.getInt();
+            if (version < 2 || version > 4) return null;
+            int entries = in.getInt();
+            if (entries < 0) return null;
+
+            PathBuffer names = new PathBuffer(Math.min(entries, 1 << 20) * 32);
+            int[] starts = new int[entries + 1];
+            byte[] ids = new byte[entries * ID_LENGTH];
+            int[] sizes = new int[entries];
+            boolean[] executable = new boolean[entries];
+            boolean[] comparable = new boolean[entries];
+            byte[] previous = new byte[0];
+            byte[] lastKept = null;
+            byte[] id = new byte[ID_LENGTH];
+            int kept = 0;
+            for (int i = 0; i < entries; i++) {
+                skip(in, 24);                               // ctime, mtime, dev, ino
+                int mode = in.getInt();
+                if ((mode & TYPE_MASK) == TYPE_DIRECTORY) return null;     // sparse: the files below aren't listed
+                skip(in, 8);                                // uid, gid
+                int size = in.getInt();
+                in.get(id);
+                int flags = in.getShort() & 0xffff;
+                int extended = 0;
+                int fixed = 62;
+                if ((flags & FLAG_EXTENDED) != 0) {
+                    if (version < 3) return null;
+                    extended = in.getShort() & 0xffff;
+                    fixed += 2;
+                }
+
+                byte[] path;
+                if (version == 4) {                         // prefix compressed, no padding
+                    int strip = readOffset(in);
+                    if (strip > previous.length) return null;
+                    byte[] suffix = readName(in);
+                    path = new byte[previous.length - strip + suffix.length];
+                    System.arraycopy(previous, 0, path, 0, previous.length - strip);
+                    System.arraycopy(suffix, 0, path, previous.length - strip, suffix.length);
+                    previous = path;
+                } else {                                    // NUL padded to a multiple of 8 bytes
+                    path = readName(in);
+                    int padded = (fixed + path.length + 8) & ~7;
+                    skip(in, padded - fixed - path.length - 1);
+                }
+
+                if (lastKept != null && Arrays.equals(path, lastKept))
+                    continue;                               // another stage of a conflicted path
+                names.append(path);
+                starts[kept + 1] = names.size();
+                System.arraycopy(id, 0, ids, kept * ID_LENGTH, ID_LENGTH);
+                sizes[kept] = size;
+                executable[kept] = (mode & EXECUTABLE) != 0;
+                comparable[kept] = (flags & STAGE_MASK) == 0 && (mode & TYPE_MASK) == TYPE_FILE
+                        && (extended & (EXT_SKIP_WORKTREE | EXT_INTENT_TO_ADD)) == 0;
+                lastKept = path;
+                kept++;
+            }
+
+            // extensions, each "<signature> <size> <data>", up to the trailing checksum
+            while (in.remaining() > ID_LENGTH) {
+                if (in.remaining() < 8 + ID_LENGTH) return null;
+                int extension = in.getInt();
+                int extensionSize = in.getInt();
+                if (extension == EXT_LINK) return null;     // entries in sharedindex.* would look untracked
+                if (extensionSize < 0) return null;
+                skip(in, extensionSize);
+            }
+            return new GitIndexReader(indexFile, stamp, length, readTime, kept, names.toByteArray(), starts, ids,
+                    sizes, executable, comparable);
+        } catch (BufferUnderflowException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The whole file, read with one bulk read, or null if it's too large to hold
+     */
+    @Nullable
+    private static ByteBuffer readFully(@NotNull File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long size = in.getChannel().size();
+            if (size > Integer.MAX_VALUE) return null;
+            byte[] data = new byte[(int) size];
+            int read = 0;
+            for (int n; read < data.length && (n = in.read(data, read, data.length - read)) > 0;)
+                read += n;
+            return ByteBuffer.wrap(data, 0, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return True if the index file has changed since it was read, or might have and the time stamps can't tell
+     */
+    public boolean isStale() {
+        return racy || indexFile.lastModified() != stamp || indexFile.length() != length;
+    }
+
+    /**
+     * @param path The path relative to the VCS root, using '/' separators
+     * @return The blob id staged for the path, or null if it isn't a merged regular file in the index
+     */
+    @Nullable
+    public byte[] getId(@NotNull String path) {
+        int i = find(utf8(path));
+        if (i < 0 || !comparable[i]) return null;
+        byte[] id = new byte[ID_LENGTH];
+        System.arraycopy(ids, i * ID_LENGTH, id, 0, ID_LENGTH);
+        return id;
+    }
+
+    /**
+     * Tell whether a working tree file has the content & executable bit staged for it, i.e. whether "git add"
+     * would leave the index as it is. Files whose size differs from the index entry are not hashed.
+     *
+     * @param path The path relative to the VCS root, using '/' separators
+     * @param file The working tree file
+     * @return True if the file matches its index entry; false if it doesn't, isn't in the index, or can't be read
+     */
+    public boolean isUnchanged(@NotNull String path, @NotNull File file) {
+        int i = find(utf8(path));
+        if (i < 0 || !comparable[i] || !file.isFile() || (int) file.length() != sizes[i])
+            return false;
+        if (!SystemInfo.isWindows && file.canExecute() != executable[i])
+            return false;
+        try {
+            byte[] hash = GitBlobHasher.hash(file);
+            for (int b = 0; b < ID_LENGTH; b++) {
+                if (hash[b] != ids[i * ID_LENGTH + b]) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param path The path relative to the VCS root, using '/' separators; "" for the root itself
+     * @return True if the path is in the index (at any stage), or is a directory with a file below it that is
+     */
+    public boolean isTracked(@NotNull String path) {
+        if (path.length() == 0) return count > 0;
+        if (find(utf8(path)) >= 0) return true;
+        byte[] dir = utf8(path + "/");
+        int i = -find(dir) - 1;     // the first path after the directory name: its first file, if any
+        return i < count && startsWith(i, dir);
+    }
+
+    /**
+     * @return The number of paths in the index
+     */
+    public int size() {
+        return count;
+    }
+
+    /* as Arrays.binarySearch: the index of the path, or (-(insertion point) - 1) if it isn't there */
+    private int find(@NotNull byte[] path) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, path);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private boolean startsWith(int entry, @NotNull byte[] prefix) {
+        int start = pathStarts[entry];
+        if (pathStarts[entry + 1] - start < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (paths[start + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /* the index is sorted by the unsigned bytes of the path */
+    private int compare(int entry, @NotNull byte[] path) {
+        int start = pathStarts[entry];
+        int length = pathStarts[entry + 1] - start;
+        int common = Math.min(length, path.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (paths[start + i] & 0xff) - (path[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return length - path.length;
+    }
+
+    /* a NUL terminated name, copied out of the buffer in one go */
+    @NotNull
+    private static byte[] readName(@NotNull ByteBuffer in) throws IOException {
+        byte[] data = in.array();
+        int start = in.arrayOffset() + in.position();
+        int limit = in.arrayOffset() + in.limit();
+        int end = start;
+        while (end < limit && data[end] != 0)
+            end++;
+        if (end == limit) throw new EOFException();
+        in.position(in.position() + end - start + 1);
+        return Arrays.copyOfRange(data, start, end);
+    }
+
+    private static void skip(@NotNull ByteBuffer in, int count) throws IOException {
+        if (count > in.remaining()) throw new EOFException();
+        in.position(in.position() + count);
+    }
+
+    /* the offset encoding of index version 4: big endian base 128, each continued byte adding one */
+    private static int readOffset(@NotNull ByteBuffer in) {
+        int b = in.get() & 0xff;
+        int value = b & 0x7f;
+        while ((b & 0x80) != 0) {
+            b = in.get() & 0xff;
+            value = ((value + 1) << 7) | (b & 0x7f);
+        }
+        return value;
+    }
+
+    /* SHA-256 repositories have longer ids in their index entries; they're left to git */
+    private static boolean usesSha256(@NotNull GitRepositoryFiles files) {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(files.getConfigFile()));
+            for (String line; (line = in.readLine()) != null;) {
+                line = line.trim().toLowerCase();
+                if (line.startsWith("objectformat") && line.contains("sha256")) return true;
+            }
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] utf8(@NotNull String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class PathBuffer {
+        private byte[] bytes;
+        private int size;
+
+        PathBuffer(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void append(@NotNull byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        @NotNull
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.CommandAdapter;
+import com.intellij.openapi.command.CommandEvent;
+import com.intellij.openapi.command.CommandListener;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the renames, moves & deletes IDEA makes to versioned files while a command (a refactoring, a drag &
+ * drop, a delete) runs, and applies them to the index when the command finishes: a single "git update-index
+ * --index-info" per root, whatever the number of files. IDEA moves the files on disk itself; git only has to
+ * catch up with the index.
+ * <p/>
+ * Changes made outside of any command are applied straight away.
+ */
+public class GitIndexUpdateBuffer {
+    private final Project project;
+    private final GitVcsSettings settings;
+    // root -> {old path, new path or null for a delete}, relative to the root, in the order made; guarded by this
+    private final Map<VirtualFile, List<String[]>> pending = new LinkedHashMap<VirtualFile, List<String[]>>();
+    private final CommandListener commandListener = new CommandAdapter() {
+        @Override
+        public void commandFinished(CommandEvent event) {
+            flush();
+        }
+    };
+
+    public GitIndexUpdateBuffer(@NotNull Project project, @NotNull GitVcsSettings settings) {
+        this.project = project;
+        this.settings = settings;
+        CommandProcessor.getInstance().addCommandListener(commandListener);
+    }
+
+    /**
+     * Record a file or directory moving or being renamed.
+     *
+     * @param root    The VCS root of the old path
+     * @param newRoot The VCS root of the new path, or null if it isn't under one
+     */
+    public void move(@NotNull VirtualFile root, @NotNull String oldPath, @Nullable VirtualFile newRoot,
+                     @NotNull String newPath) {
+        if (!root.equals(newRoot)) {    // leaving the repository: as far as git is concerned, it's gone
+            delete(root, oldPath);
+            return;
+        }
+        record(root, new String[]{relativePath(root, oldPath), relativePath(root, newPath)});
+    }
+
+    /**
+     * Record a file or directory being deleted.
+     */
+    public void delete(@NotNull VirtualFile root, @NotNull String path) {
+        record(root, new String[]{relativePath(root, path), null});
+    }
+
+    private void record(@NotNull VirtualFile root, @NotNull String[] op) {
+        synchronized (this) {
+            List<String[]> ops = pending.get(root);
+            if (ops == null) {
+                ops = new ArrayList<String[]>();
+                pending.put(root, ops);
+            }
+            ops.add(op);
+        }
+        if (CommandProcessor.getInstance().getCurrentCommand() == null)
+            flush();
+    }
+
+    /**
+     * Apply everything recorded so far, on the git worker pool.
+     */
+    public void flush() {
+        Map<VirtualFile, List<String[]>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            batch = new LinkedHashMap<VirtualFile, List<String[]>>(pending);
+            pending.clear();
+        }
+        for (final Map.Entry<VirtualFile, List<String[]>> entry : batch.entrySet()) {
+            final VirtualFile root = entry.getKey();
+            GitExecutor.getInstance().execute(GitExecutor.Priority.INTERACTIVE, root.getPath(), new Runnable() {
+                public void run() {
+                    try {
+                        new GitCommand(project, settings, root).updateIndex(entry.getValue());
+                    } catch (final VcsException e) {
+                        ApplicationManager.getApplication().invokeLater(new Runnable() {
+                            public void run() {
+                                GitVcs.getInstance(project).showErrors(Collections.singletonList(e), "Index update");
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    public void dispose() {
+        CommandProcessor.getInstance().removeCommandListener(commandListener);
+        flush();
+    }
+
+    @NotNull
+    private static String relativePath(@NotNull VirtualFile root, @NotNull String path) {
+        String rootPath = root.getPath();
+        return path.startsWith(rootPath + "/") ? path.substring(rootPath.length() + 1) : path;
+    }
+}
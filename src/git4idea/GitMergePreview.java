@@ -0,0 +1,109 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The predicted outcome of merging a commit into HEAD, worked out by a tree-only merge ("git merge-tree
+ * --write-tree") that leaves the working tree & index alone. Predictions are cached by the pair of commits
+ * merged, which never change, so asking again for the same merge is free.
+ */
+public class GitMergePreview {
+    private static final int MAX_CACHED = 32;
+    private static final Map<String, GitMergePreview> cache = new LinkedHashMap<String, GitMergePreview>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GitMergePreview> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private final String head;
+    private final String other;
+    private final List<String> conflicts;
+    private final Map<String, GitVirtualFile.Status> changes;
+
+    public GitMergePreview(@NotNull String head, @NotNull String other, @NotNull List<String> conflicts,
+                           @NotNull Map<String, GitVirtualFile.Status> changes) {
+        this.head = head;
+        this.other = other;
+        this.conflicts = Collections.unmodifiableList(conflicts);
+        this.changes = Collections.unmodifiableMap(changes);
+    }
+
+    /**
+     * @return The cached prediction for merging a commit into another, or null if there is none
+     */
+    public static GitMergePreview getCached(@NotNull String root, @NotNull String head, @NotNull String other) {
+        synchronized (cache) {
+            return cache.get(key(root, head, other));
+        }
+    }
+
+    public static void cache(@NotNull String root, @NotNull GitMergePreview preview) {
+        synchronized (cache) {
+            cache.put(key(root, preview.head, preview.other), preview);
+        }
+    }
+
+    private static String key(@NotNull String root, @NotNull String head, @NotNull String other) {
+        return root + '\0' + head + '\0' + other;
+    }
+
+    @NotNull
+    public String getHead() {
+        return head;
+    }
+
+    @NotNull
+    public String getOther() {
+        return other;
+    }
+
+    public boolean hasConflicts() {
+        return !conflicts.isEmpty();
+    }
+
+    /**
+     * @return The paths predicted to conflict, relative to the VCS root
+     */
+    @NotNull
+    public List<String> getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return The paths the merge would change in the working tree, relative to the VCS root; conflicted
+     *         paths are included
+     */
+    @NotNull
+    public Map<String, GitVirtualFile.Status> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return A one line summary, e.g. for the version control console
+     */
+    @NotNull
+    public String getSummary() {
+        String summary = changes.size() + " file" + (changes.size() == 1 ? "" : "s") + " would change";
+        if (conflicts.isEmpty())
+            return summary + ", no conflicts predicted";
+        return summary + ", " + conflicts.size() + " predicted to conflict";
+    }
+}
@@ -0,0 +1,160 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.merge.MergeData;
+import com.intellij.openapi.vcs.merge.MergeProvider;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitExecutor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Supplies the base, ours & theirs versions of conflicted files to IDEA's merge tool. The first file asked for
+ * in a root loads the versions of every conflicted file in that root at once: one "ls-files -u" lists the
+ * index stages, and one "cat-file --batch" reads all their blobs.
+ */
+public class GitMergeProvider implements MergeProvider {
+    private static final byte[] NONE = new byte[0];
+    private final Project project;
+    private final GitVcsSettings settings;
+    // root path -> relative path -> {base, ours, theirs}; guarded by itself
+    private final Map<String, Map<String, byte[][]>> conflicts = new HashMap<String, Map<String, byte[][]>>();
+
+    public GitMergeProvider(@NotNull Project project, @NotNull GitVcsSettings settings) {
+        this.project = project;
+        this.settings = settings;
+    }
+
+    /**
+     * Load the versions of all conflicted files under a root, replacing any loaded before.
+     *
+     * @param root The VCS root
+     * @return The relative paths of the conflicted files
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Set<String> load(@NotNull VirtualFile root) throws VcsException {
+        GitCommand command = new GitCommand(project, settings, root);
+        Map<String, String[]> entries = command.unmergedEntries();
+        Set<String> ids = new HashSet<String>();
+        for (String[] stages : entries.values()) {
+            for (String id : stages) {
+                if (id != null) ids.add(id);
+            }
+        }
+        Map<String, byte[]> blobs = command.readBlobs(ids);
+
+        Map<String, byte[][]> versions = new HashMap<String, byte[][]>();
+        for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+            byte[][] contents = new byte[3][];
+            for (int stage = 0; stage < 3; stage++) {
+                String id = entry.getValue()[stage];
+                byte[] blob = id == null ? null : blobs.get(id);
+                contents[stage] = blob == null ? NONE : blob;
+            }
+            versions.put(entry.getKey(), contents);
+        }
+        synchronized (conflicts) {
+            conflicts.put(root.getPath(), versions);
+        }
+        return new HashSet<String>(versions.keySet());
+    }
+
+    /**
+     * @return Those of the files that have unresolved conflicts, loading their versions
+     */
+    @NotNull
+    public List<VirtualFile> findConflicts(@NotNull VirtualFile root, @NotNull List<VirtualFile> files)
+            throws VcsException {
+        Set<String> paths = load(root);
+        GitCommand command = new GitCommand(project, settings, root);
+        List<VirtualFile> conflicted = new ArrayList<VirtualFile>();
+        for (VirtualFile file : files) {
+            if (paths.contains(command.getRelativeFilePath(file, root)))
+                conflicted.add(file);
+        }
+        return conflicted;
+    }
+
+    @NotNull
+    public MergeData loadRevisions(VirtualFile file) throws VcsException {
+        VirtualFile root = GitUtil.getVcsRoot(project, file);
+        String path = new GitCommand(project, settings, root).getRelativeFilePath(file, root);
+        byte[][] versions = getVersions(root, path);
+        if (versions == null) {     // not loaded yet, or the conflicts changed since
+            load(root);
+            versions = getVersions(root, path);
+            if (versions == null)
+                throw new VcsException(file.getPath() + " has no merge conflicts");
+        }
+
+        MergeData data = new MergeData();
+        data.ORIGINAL = versions[0];
+        data.CURRENT = versions[1];
+        data.LAST = versions[2];
+        return data;
+    }
+
+    /**
+     * Mark a file resolved by staging it. Called by the merge dialog on the event dispatch thread, so the "git add"
+     * is queued on the git worker pool; work queued for the root later, e.g. a commit, runs after it.
+     */
+    public void conflictResolvedForFile(final VirtualFile file) {
+        VirtualFile root = GitUtil.getVcsRoot(project, file);
+        final GitCommand command = new GitCommand(project, settings, root);
+        GitExecutor.getInstance().execute(GitExecutor.Priority.INTERACTIVE, root.getPath(), new Runnable() {
+            public void run() {
+                try {
+                    command.add(new VirtualFile[]{file});
+                } catch (final VcsException e) {
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        public void run() {
+                            GitVcs.getInstance(project).showErrors(Collections.singletonList(e), "Resolve");
+                        }
+                    });
+                }
+            }
+        });
+        synchronized (conflicts) {
+            Map<String, byte[][]> versions = conflicts.get(root.getPath());
+            if (versions != null) {
+                versions.remove(command.getRelativeFilePath(file, root));
+                if (versions.isEmpty())
+                    conflicts.remove(root.getPath());
+            }
+        }
+    }
+
+    public boolean isBinary(VirtualFile file) {
+        return file.getFileType().isBinary();
+    }
+
+    private byte[][] getVersions(@NotNull VirtualFile root, @NotNull String path) {
+        synchronized (conflicts) {
+            Map<String, byte[][]> versions = conflicts.get(root.getPath());
+            return versions == null ? null : versions.get(path);
+        }
+    }
+}
@@ -0,0 +1,582 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads objects straight from a repository's object database: loose objects, and the packs under objects/pack
+ * (see {@link GitPackFile}). Deltas are resolved in process, and the bases they're built on are kept in a small
+ * cache shared by all repositories, since one base usually serves a whole run of history.
+ * <p/>
+ * Anything out of the ordinary - alternates, SHA-256 repositories, very large objects, damaged data - makes a
+ * read return null, and the caller falls back to git.
+ */
+public class GitObjectDatabase {
+    private static final ConcurrentMap<String, GitObjectDatabase> databases = new ConcurrentHashMap<String, GitObjectDatabase>();
+    private static final int ID_LENGTH = 20;
+    private static final int MAX_OBJECT_SIZE = 64 * 1024 * 1024;      // larger objects are left to git
+    private static final int MAX_CHAIN = 10000;
+    private static final int MAX_POOLED_INFLATERS = 8;
+    private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+    private static final BaseCache bases = new BaseCache(16 * 1024 * 1024);
+
+    private final File objectsDir;
+    private final File packDir;
+    private volatile List<GitPackFile> packs = new ArrayList<GitPackFile>();
+    private volatile long packDirStamp = Long.MIN_VALUE;
+
+    private GitObjectDatabase(@NotNull File objectsDir) {
+        this.objectsDir = objectsDir;
+        packDir = new File(objectsDir, "pack");
+    }
+
+    /**
+     * @param rootPath The path of the VCS root
+     * @return The object database of the root's repository, or null if it can't be read directly
+     */
+    @Nullable
+    public static GitObjectDatabase forRoot(@NotNull String rootPath) {
+        GitObjectDatabase db = databases.get(rootPath);
+        if (db != null) return db;
+
+        GitRepositoryFiles files = GitRepositoryFiles.forRoot(new File(rootPath));
+        if (files == null || !files.getObjectsDir().isDirectory() || usesSha256(files.getConfigFile()))
+            return null;
+        db = new GitObjectDatabase(files.getObjectsDir());
+        GitObjectDatabase raced = databases.putIfAbsent(rootPath, db);
+        return raced == null ? db : raced;
+    }
+
+    /**
+     * Read a file as of a commit, as "git show &lt;commit&gt;:&lt;path&gt;" would.
+     *
+     * @param commitId The id of a commit, or of a tag pointing at one
+     * @param path     The path relative to the root, using '/' separators
+     * @return The contents, or null if they couldn't be read here (including when the path isn't in the commit)
+     */
+    @Nullable
+    public byte[] readFile(@NotNull String commitId, @NotNull String path) {
+        byte[] id = parseId(commitId);
+        if (id == null) return null;
+        GitObject object = read(id);
+        for (int depth = 0; object != null && object.type == GitPackFile.OBJ_TAG && depth < 10; depth++)
+            object = read(headerId(object.data, "object "));
+        if (object == null || object.type != GitPackFile.OBJ_COMMIT) return null;
+
+        object = read(headerId(object.data, "tree "));
+        for (String name : path.split("/")) {
+            if (name.length() == 0) continue;
+            if (object == null || object.type != GitPackFile.OBJ_TREE) return null;
+            object = read(treeEntry(object.data, name));
+        }
+        return object != null && object.type == GitPackFile.OBJ_BLOB ? object.data : null;
+    }
+
+    /**
+     * @param id The object id, 20 bytes
+     * @return The object, or null if it isn't in this database or can't be read
+     */
+    @Nullable
+    public GitObject read(@Nullable byte[] id) {
+        if (id == null) return null;
+        try {
+            GitObject object = readPacked(id, packs());
+            if (object != null) return object;
+            object = readLoose(id);
+            if (object != null) return object;
+            List<GitPackFile> current = packs;
+            List<GitPackFile> rescanned = packs();
+            return rescanned == current ? null : readPacked(id, rescanned);     // repacked meanwhile?
+        } catch (IOException e) {
+            return null;
+        } catch (DataFormatException e) {
+            return null;
+        } catch (IllegalArgumentException e) {      // damaged pack
+            return null;
+        }
+    }
+
+    @Nullable
+    private GitObject readPacked(@NotNull byte[] id, @NotNull List<GitPackFile> packs)
+            throws IOException, DataFormatException {
+        for (GitPackFile pack : packs) {
+            long offset = pack.findOffset(id);
+            if (offset >= 0)
+                return readPacked(pack, offset);
+        }
+        return null;
+    }
+
+    /* follows the delta chain down to its base, then applies the deltas on the way back up */
+    @Nullable
+    private GitObject readPacked(@NotNull GitPackFile pack, long offset) throws IOException, DataFormatException {
+        GitPackFile.Cursor data = pack.cursor();
+        List<Long> deltas = new ArrayList<Long>();
+        GitObject base = null;
+        while (base == null) {
+            base = bases.get(pack, offset);
+            if (base != null) break;
+            if (deltas.size() > MAX_CHAIN || offset < 0 || offset >= pack.length()) return null;
+
+            data.seek(offset);
+            int c = data.get();
+            int type = (c >> 4) & 7;
+            long size = c & 0x0f;
+            for (int shift = 4; (c & 0x80) != 0; shift += 7) {
+                c = data.get();
+                size += (long) (c & 0x7f) << shift;
+            }
+            if (size > MAX_OBJECT_SIZE) return null;
+
+            if (type == GitPackFile.OBJ_OFS_DELTA) {
+                c = data.get();
+                long distance = c & 0x7f;
+                while ((c & 0x80) != 0) {
+                    c = data.get();
+                    distance = ((distance + 1) << 7) | (c & 0x7f);
+                }
+                deltas.add(offset);
+                offset -= distance;
+            } else if (type == GitPackFile.OBJ_REF_DELTA) {
+                byte[] baseId = new byte[ID_LENGTH];
+                data.get(baseId);
+                deltas.add(offset);
+                offset = pack.findOffset(baseId);
+                if (offset < 0) return null;        // base in another pack: a thin pack, never kept on disk
+            } else if (type >= GitPackFile.OBJ_COMMIT && type <= GitPackFile.OBJ_TAG) {
+                base = new GitObject(type, inflate(data, (int) size));
+            } else {
+                return null;
+            }
+        }
+
+        long baseOffset = offset;
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            bases.put(pack, baseOffset, base);
+            long deltaOffset = deltas.get(i);
+            base = new GitObject(base.type, applyDelta(base.data, inflateDelta(data, deltaOffset)));
+            baseOffset = deltaOffset;
+        }
+        return base;
+    }
+
+    @NotNull
+    private static byte[] inflateDelta(@NotNull GitPackFile.Cursor data, long offset)
+            throws IOException, DataFormatException {
+        data.seek(offset);
+        int c = data.get();
+        int type = (c >> 4) & 7;
+        long size = c & 0x0f;
+        for (int shift = 4; (c & 0x80) != 0; shift += 7) {
+            c = data.get();
+            size += (long) (c & 0x7f) << shift;
+        }
+        if (type == GitPackFile.OBJ_OFS_DELTA) {
+            do {
+                c = data.get();
+            } while ((c & 0x80) != 0);
+        } else {
+            data.skip(ID_LENGTH);
+        }
+        return inflate(data, (int) size);
+    }
+
+    @Nullable
+    private GitObject readLoose(@NotNull byte[] id) throws IOException, DataFormatException {
+        String hex = GitBlobHasher.toHex(id);
+        File file = new File(new File(objectsDir, hex.substring(0, 2)), hex.substring(2));
+        if (!file.isFile() || file.length() > MAX_OBJECT_SIZE) return null;
+
+        byte[] compressed = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            for (int n; read < compressed.length && (n = in.read(compressed, read, compressed.length - read)) > 0;)
+                read += n;
+            if (read != compressed.length) return null;
+        } finally {
+            in.close();
+        }
+
+        // "<type> <size>\0" then the content, all deflated together
+        Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] header = new byte[32];
+            int length = 0;
+            while (length < header.length) {
+                if (inflater.inflate(header, length, 1) == 0) return null;
+                if (header[length] == 0) break;
+                length++;
+            }
+            if (length == header.length) return null;
+            String text = new String(header, 0, length, "US-ASCII");
+            int space = text.indexOf(' ');
+            if (space < 0) return null;
+            int type = typeOf(text.substring(0, space));
+            long size = Long.parseLong(text.substring(space + 1));
+            if (type < 0 || size > MAX_OBJECT_SIZE) return null;
+
+            byte[] content = new byte[(int) size];
+            int done = 0;
+            while (done < content.length) {
+                int n = inflater.inflate(content, done, content.length - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    return null;
+                done += n;
+            }
+            return new GitObject(type, content);
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /* inflates exactly size bytes of zlib data, starting at the cursor's position */
+    @NotNull
+    private static byte[] inflate(@NotNull GitPackFile.Cursor data, int size) throws IOException, DataFormatException {
+        byte[] out = new byte[size];
+        if (size == 0) return out;
+        byte[] chunk = new byte[Math.min(8192, Math.max(64, size))];
+        Inflater inflater = acquireInflater();
+        try {
+            int done = 0;
+            while (done < size) {
+                if (inflater.needsInput()) {
+                    int n = data.read(chunk, 0, chunk.length);
+                    if (n < 0) throw new DataFormatException("truncated pack");
+                    inflater.setInput(chunk, 0, n);
+                }
+                int n = inflater.inflate(out, done, size - done);
+                if (n == 0 && (inflater.finished() || inflater.needsDictionary()))
+                    throw new DataFormatException("object shorter than its header says");
+                done += n;
+            }
+            return out;
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    @NotNull
+    private static byte[] applyDelta(@NotNull byte[] base, @NotNull byte[] delta) throws DataFormatException {
+        int[] pos = new int[1];
+        long baseSize = readSize(delta, pos);
+        long resultSize = readSize(delta, pos);
+        if (baseSize != base.length || resultSize > MAX_OBJECT_SIZE)
+            throw new DataFormatException("delta doesn't fit its base");
+
+        byte[] result = new byte[(int) resultSize];
+        int out = 0;
+        int p = pos[0];
+        try {
+            while (p < delta.length) {
+                int cmd = delta[p++] & 0xff;
+                if ((cmd & 0x80) != 0) {            // copy from the base
+                    int copyOffset = 0;
+                    int copySize = 0;
+                    for (int bit = 0; bit < 4; bit++) {
+                        if ((cmd & (1 << bit)) != 0)
+                            copyOffset |= (delta[p++] & 0xff) << (bit * 8);
+                    }
+                    for (int bit = 0; bit < 3; bit++) {
+                        if ((cmd & (0x10 << bit)) != 0)
+                            copySize |= (delta[p++] & 0xff) << (bit * 8);
+                    }
+                    if (copySize == 0) copySize = 0x10000;
+                    System.arraycopy(base, copyOffset, result, out, copySize);
+                    out += copySize;
+                } else if (cmd != 0) {              // insert the next cmd bytes of the delta
+                    System.arraycopy(delta, p, result, out, cmd);
+                    p += cmd;
+                    out += cmd;
+                } else {
+                    throw new DataFormatException("reserved delta opcode");
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new DataFormatException("damaged delta");
+        }
+        if (out != result.length)
+            throw new DataFormatException("delta result has the wrong size");
+        return result;
+    }
+
+    private static long readSize(@NotNull byte[] delta, @NotNull int[] pos) {
+        long size = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = delta[pos[0]++] & 0xff;
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return size;
+    }
+
+    /* the packs currently in objects/pack, re-listed when the directory changes */
+    @NotNull
+    private List<GitPackFile> packs() {
+        long stamp = packDir.lastModified();
+        if (stamp == packDirStamp) return packs;
+        synchronized (this) {
+            if (stamp == packDirStamp) return packs;
+            Map<String, GitPackFile> open = new LinkedHashMap<String, GitPackFile>();
+            for (GitPackFile pack : packs)
+                open.put(pack.getFile().getName(), pack);
+            List<GitPackFile> list = new ArrayList<GitPackFile>();
+            File[] files = packDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.getName().endsWith(".idx")) continue;
+                    String packName = file.getName().substring(0, file.getName().length() - 4) + ".pack";
+                    GitPackFile pack = open.get(packName);
+                    if (pack != null && pack.isCurrent())
+                        open.remove(packName);
+                    else
+                        pack = GitPackFile.open(file);
+                    if (pack != null) list.add(pack);
+                }
+            }
+            packs = list;
+            packDirStamp = stamp;
+            for (GitPackFile gone : open.values()) {
+                gone.close();       // repacked away or rewritten: let git delete it (Windows won't while it's open)
+                bases.remove(gone);
+            }
+            return list;
+        }
+    }
+
+    @NotNull
+    private static Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater == null ? new Inflater() : inflater;
+    }
+
+    private static void releaseInflater(@NotNull Inflater inflater) {
+        inflater.reset();
+        if (inflaters.size() < MAX_POOLED_INFLATERS)
+            inflaters.offer(inflater);
+        else
+            inflater.end();
+    }
+
+    private static int typeOf(@NotNull String name) {
+        if ("blob".equals(name)) return GitPackFile.OBJ_BLOB;
+        if ("tree".equals(name)) return GitPackFile.OBJ_TREE;
+        if ("commit".equals(name)) return GitPackFile.OBJ_COMMIT;
+        if ("tag".equals(name)) return GitPackFile.OBJ_TAG;
+        return -1;
+    }
+
+    /* the id on a "<key><40 hex digits>" header line of a commit or tag */
+    @Nullable
+    private static byte[] headerId(@NotNull byte[] data, @NotNull String key) {
+        int p = 0;
+        while (p < data.length && data[p] != '\n') {
+            int end = p;
+            while (end < data.length && data[end] != '\n') end++;
+            if (end - p == key.length() + 40 && startsWith(data, p, key))
+                return parseId(latin1(data, p + key.length(), 40));
+            p = end + 1;
+        }
+        return null;
+    }
+
+    /* the id of a tree's entry: "<mode> <name>\0<20 byte id>" */
+    @Nullable
+    private static byte[] treeEntry(@NotNull byte[] tree, @NotNull String name) {
+        byte[] wanted;
+        try {
+            wanted = name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+        int p = 0;
+        while (p < tree.length) {
+            int space = p;
+            while (space < tree.length && tree[space] != ' ') space++;
+            int nul = space + 1;
+            while (nul < tree.length && tree[nul] != 0) nul++;
+            if (nul + 1 + ID_LENGTH > tree.length) return null;
+            boolean gitlink = nul - p > 0 && startsWith(tree, p, "160000 ");
+            if (!gitlink && nul - space - 1 == wanted.length && startsWith(tree, space + 1, wanted)) {
+                byte[] id = new byte[ID_LENGTH];
+                System.arraycopy(tree, nul + 1, id, 0, ID_LENGTH);
+                return id;
+            }
+            p = nul + 1 + ID_LENGTH;
+        }
+        return null;
+    }
+
+    /**
+     * @return The 20 byte id, or null if the text isn't 40 hex digits
+     */
+    @Nullable
+    public static byte[] parseId(@Nullable String hex) {
+        if (hex == null || hex.length() != 40) return null;
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) return null;
+            id[i] = (byte) ((high << 4) | low);
+        }
+        return id;
+    }
+
+    private static boolean startsWith(@NotNull byte[] data, int offset, @NotNull String prefix) {
+        if (offset + prefix.length() > data.length) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[offset + i] != (byte) prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(@NotNull byte[] data, int offset, @NotNull byte[] prefix) {
+        if (offset + prefix.length > data.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    @NotNull
+    private static String latin1(@NotNull byte[] data, int offset, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) (data[offset + i] & 0xff);
+        return new String(chars);
+    }
+
+    /* SHA-256 repositories have 32 byte ids throughout; they're left to git */
+    private static boolean usesSha256(@NotNull File config) {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(config));
+            for (String line; (line = in.readLine()) != null;) {
+                line = line.trim().toLowerCase();
+                if (line.startsWith("objectformat") && line.contains("sha256")) return true;
+            }
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * An object read from the database: its type and its (inflated, undeltified) content.
+     */
+    public static class GitObject {
+        public final int type;
+        public final byte[] data;
+
+        GitObject(int type, @NotNull byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /*
+     * least recently used delta bases, bounded by their total size. Entries are keyed by the pack instance rather
+     * than its path: a pack rewritten in place is reopened as a new instance, and must not see the old one's bases.
+     */
+    private static class BaseCache {
+        private final long limit;
+        private long size;
+        private final LinkedHashMap<Key, GitObject> entries = new LinkedHashMap<Key, GitObject>(64, 0.75f, true);
+
+        BaseCache(long limit) {
+            this.limit = limit;
+        }
+
+        @Nullable
+        synchronized GitObject get(@NotNull GitPackFile pack, long offset) {
+            return entries.get(new Key(pack, offset));
+        }
+
+        synchronized void put(@NotNull GitPackFile pack, long offset, @NotNull GitObject object) {
+            if (object.data.length > limit / 4) return;
+            GitObject old = entries.put(new Key(pack, offset), object);
+            if (old != null) size -= old.data.length;
+            size += object.data.length;
+            for (Iterator<GitObject> it = entries.values().iterator(); size > limit && it.hasNext();) {
+                size -= it.next().data.length;
+                it.remove();
+            }
+        }
+
+        /**
+         * Drop the bases read from a pack that has been closed.
+         */
+        synchronized void remove(@NotNull GitPackFile pack) {
+            for (Iterator<Map.Entry<Key, GitObject>> it = entries.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Key, GitObject> entry = it.next();
+                if (entry.getKey().pack == pack) {
+                    size -= entry.getValue().data.length;
+                    it.remove();
+                }
+            }
+        }
+
+        private static class Key {
+            final GitPackFile pack;
+            final long offset;
+
+            Key(@NotNull GitPackFile pack, long offset) {
+                this.pack = pack;
+                this.offset = offset;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) return false;
+                Key other = (Key) o;
+                return pack == other.pack && offset == other.offset;
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * System.identityHashCode(pack) + (int) (offset ^ (offset >>> 32));
+            }
+        }
+    }
+}
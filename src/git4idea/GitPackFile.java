@@ -0,0 +1,314 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A pack file and its index (version 1 or 2), read through file channels with positional reads. Finding an object
+ * binary searches the slice of the sorted id table that the index's fan-out table gives for the id's first byte.
+ * Reading an object is left to {@link GitObjectDatabase}, which inflates it and resolves deltas.
+ * <p/>
+ * The files are not memory mapped: a mapping can't be released on demand, and on Windows it would keep "git gc"
+ * from deleting the pack. Instead the pack is {@link #close() closed} once it disappears from the pack directory.
+ */
+public class GitPackFile {
+    static final int OBJ_COMMIT = 1;
+    static final int OBJ_TREE = 2;
+    static final int OBJ_BLOB = 3;
+    static final int OBJ_TAG = 4;
+    static final int OBJ_OFS_DELTA = 6;
+    static final int OBJ_REF_DELTA = 7;
+
+    private static final int ID_LENGTH = 20;
+    private static final int IDX_V2_MAGIC = 0xff744f63;   // "\377tOc"
+    private static final int PACK_SIGNATURE = 0x5041434b; // "PACK"
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int CURSOR_BUFFER = 8192;
+
+    private final File idxFile;
+    private final File packFile;
+    private final int[] fanout;
+    private final int version;
+    private final int idTable;
+    private final int count;
+    private final long length;
+    private final long stamp;
+    private FileChannel idx;        // guarded by this
+    private FileChannel pack;       // guarded by this
+    private boolean closed;         // guarded by this
+
+    private GitPackFile(@NotNull File idxFile, @NotNull File packFile, @NotNull FileChannel idx,
+                        @NotNull FileChannel pack, @NotNull int[] fanout, int version, long length, long stamp) {
+        this.idxFile = idxFile;
+        this.packFile = packFile;
+        this.idx = idx;
+        this.pack = pack;
+        this.fanout = fanout;
+        this.version = version;
+        this.length = length;
+        this.stamp = stamp;
+        idTable = version == 2 ? 8 + FANOUT_SIZE : FANOUT_SIZE;
+        count = fanout[255];
+    }
+
+    /**
+     * Open a pack & its index.
+     *
+     * @param idxFile The .idx file; the .pack file is expected next to it
+     * @return The pack, or null if either file is missing or not in a format that's understood
+     */
+    @Nullable
+    public static GitPackFile open(@NotNull File idxFile) {
+        String name = idxFile.getName();
+        if (!name.endsWith(".idx")) return null;
+        File packFile = new File(idxFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        FileChannel idx = null;
+        FileChannel pack = null;
+        long stamp = packFile.lastModified();
+        try {
+            idx = openChannel(idxFile);
+            pack = openChannel(packFile);
+            if (idx == null || pack == null) return null;
+            ByteBuffer header = ByteBuffer.allocate(12);
+            if (read(pack, header, 0) < 12 || header.getInt(0) != PACK_SIGNATURE) return null;
+            int packVersion = header.getInt(4);
+            if (packVersion != 2 && packVersion != 3) return null;
+
+            ByteBuffer start = ByteBuffer.allocate(8 + FANOUT_SIZE);
+            int read = read(idx, start, 0);
+            int version = read >= 8 && start.getInt(0) == IDX_V2_MAGIC ? start.getInt(4) : 1;
+            if (version != 1 && version != 2) return null;
+            int fanoutStart = version == 2 ? 8 : 0;
+            if (read < fanoutStart + FANOUT_SIZE) return null;
+            int[] fanout = new int[256];
+            for (int i = 0; i < 256; i++)
+                fanout[i] = start.getInt(fanoutStart + i * 4);
+
+            GitPackFile file = new GitPackFile(idxFile, packFile, idx, pack, fanout, version, pack.size(), stamp);
+            idx = null;
+            pack = null;
+            return file;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(idx);
+            closeQuietly(pack);
+        }
+    }
+
+    @NotNull
+    public File getFile() {
+        return packFile;
+    }
+
+    /**
+     * @return The size of the pack file in bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return True if the pack file on disk is still the one that was opened
+     */
+    public boolean isCurrent() {
+        return packFile.lastModified() == stamp && packFile.length() == length;
+    }
+
+    /**
+     * @param id The object id, 20 bytes
+     * @return The offset of the object in the pack, or -1 if the pack doesn't contain it
+     * @throws IOException If the index can't be read, e.g. because the pack has been closed
+     */
+    public long findOffset(@NotNull byte[] id) throws IOException {
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0 : fanout[first - 1];
+        int high = fanout[first] - 1;
+        ByteBuffer entry = ByteBuffer.allocate(ID_LENGTH);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(entry, mid, id);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return offsetAt(mid);
+        }
+        return -1;
+    }
+
+    /**
+     * @return A reader of the pack data; each caller gets its own
+     */
+    @NotNull
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Release the files. Reads already under way, or made later, fail with an IOException.
+     */
+    public synchronized void close() {
+        closed = true;
+        closeQuietly(idx);
+        closeQuietly(pack);
+    }
+
+    private int compareId(@NotNull ByteBuffer entry, int index, @NotNull byte[] id) throws IOException {
+        long start = version == 2 ? idTable + (long) index * ID_LENGTH : idTable + (long) index * 24 + 4;
+        readIdx(entry, start);
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int diff = (entry.get(i) & 0xff) - (id[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return 0;
+    }
+
+    private long offsetAt(int index) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(8);
+        if (version == 1) {
+            readIdx(value, FANOUT_SIZE + (long) index * 24, 4);
+            return value.getInt(0) & 0xffffffffL;
+        }
+        long offsets = idTable + (long) count * (ID_LENGTH + 4);
+        readIdx(value, offsets + (long) index * 4, 4);
+        int offset = value.getInt(0);
+        if ((offset & 0x80000000) == 0)
+            return offset;
+        readIdx(value, offsets + (long) count * 4 + (long) (offset & 0x7fffffff) * 8, 8);  // 64 bit offset table
+        return value.getLong(0);
+    }
+
+    private void readIdx(@NotNull ByteBuffer buffer, long position) throws IOException {
+        readIdx(buffer, position, buffer.capacity());
+    }
+
+    private void readIdx(@NotNull ByteBuffer buffer, long position, int size) throws IOException {
+        buffer.clear();
+        buffer.limit(size);
+        if (read(channel(false), buffer, position) < size) throw new EOFException(idxFile.getPath());
+    }
+
+    /* the channel, reopened if an interrupted read closed it; only close() closes a pack for good */
+    @NotNull
+    private synchronized FileChannel channel(boolean ofPack) throws IOException {
+        if (closed) throw new ClosedChannelException();
+        if (ofPack) {
+            if (!pack.isOpen()) pack = reopen(packFile);
+            return pack;
+        }
+        if (!idx.isOpen()) idx = reopen(idxFile);
+        return idx;
+    }
+
+    @NotNull
+    private static FileChannel reopen(@NotNull File file) throws IOException {
+        FileChannel channel = openChannel(file);
+        if (channel == null) throw new ClosedChannelException();
+        return channel;
+    }
+
+    @Nullable
+    private static FileChannel openChannel(@NotNull File file) throws IOException {
+        if (!file.isFile()) return null;
+        return new RandomAccessFile(file, "r").getChannel();
+    }
+
+    /* reads until the buffer is full or the file ends; positional reads don't disturb other readers */
+    private static int read(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static void closeQuietly(@Nullable FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Reads the pack sequentially from a position, a buffer at a time.
+     */
+    class Cursor {
+        private final ByteBuffer buffer = ByteBuffer.allocate(CURSOR_BUFFER);
+        private long next;      // the pack offset of the byte after the buffered ones
+
+        Cursor() {
+            buffer.limit(0);
+        }
+
+        void seek(long offset) {
+            next = offset;
+            buffer.clear();
+            buffer.limit(0);
+        }
+
+        long position() {
+            return next - buffer.remaining();
+        }
+
+        int get() throws IOException {
+            if (!buffer.hasRemaining() && fill() <= 0) throw new EOFException(packFile.getPath());
+            return buffer.get() & 0xff;
+        }
+
+        void get(@NotNull byte[] bytes) throws IOException {
+            for (int done = 0; done < bytes.length;) {
+                int n = read(bytes, done, bytes.length - done);
+                if (n < 0) throw new EOFException(packFile.getPath());
+                done += n;
+            }
+        }
+
+        /**
+         * @return The number of bytes read, at least one, or -1 at the end of the pack
+         */
+        int read(@NotNull byte[] bytes, int offset, int size) throws IOException {
+            if (!buffer.hasRemaining() && fill() <= 0) return -1;
+            int n = Math.min(size, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+
+        void skip(int size) {
+            seek(position() + size);
+        }
+
+        private int fill() throws IOException {
+            buffer.clear();
+            int n = next < length ? channel(true).read(buffer, next) : -1;
+            buffer.flip();
+            if (n > 0) next += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Application-wide cache of {@link GitRefSnapshot}s, one per VCS root. Snapshots are re-read when the VFS
+ * reports a change under a .git directory, or when their file stamps show the refs changed behind our back
+ * (e.g. git run from a shell).
+ */
+public class GitRefCache {
+    private static final GitRefCache INSTANCE = new GitRefCache();
+    private static final String GIT_DIR_SEGMENT = "/.git/";
+    private final ConcurrentMap<String, GitRefSnapshot> snapshots = new ConcurrentHashMap<String, GitRefSnapshot>();
+
+    private GitRefCache() {
+    }
+
+    @NotNull
+    public static GitRefCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the current ref snapshot for the specified VCS root.
+     *
+     * @param root The VCS root
+     * @return The snapshot, or null if the refs can't be read from disk (callers should fall back to git)
+     */
+    @Nullable
+    public GitRefSnapshot getSnapshot(@NotNull VirtualFile root) {
+        return getSnapshot(root.getPath());
+    }
+
+    @Nullable
+    public GitRefSnapshot getSnapshot(@NotNull String rootPath) {
+        GitRefSnapshot snapshot = snapshots.get(rootPath);
+        if (snapshot != null && !snapshot.isStale()) return snapshot;
+
+        GitRepositoryFiles files = GitRepositoryFiles.forRoot(new File(rootPath));
+        snapshot = files == null ? null : GitRefSnapshot.read(files);
+        if (snapshot == null)
+            snapshots.remove(rootPath);
+        else
+            snapshots.put(rootPath, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Drop the snapshot for the specified root, e.g. after running a command that moves refs.
+     *
+     * @param root The VCS root
+     */
+    public void invalidate(@NotNull VirtualFile root) {
+        snapshots.remove(root.getPath());
+    }
+
+    /**
+     * Bring the snapshot of a root up to date after a command that moved only the specified refs, re-reading just
+     * those rather than every ref. Nothing is read if the root has no snapshot yet.
+     *
+     * @param root     The VCS root
+     * @param refNames The full names of the refs that changed
+     */
+    public void refsUpdated(@NotNull VirtualFile root, @NotNull Collection<String> refNames) {
+        String rootPath = root.getPath();
+        GitRefSnapshot snapshot = snapshots.get(rootPath);
+        if (snapshot == null) return;
+        GitRepositoryFiles files = GitRepositoryFiles.forRoot(new File(rootPath));
+        GitRefSnapshot updated = files == null ? null : snapshot.update(files, refNames);
+        if (updated == null)
+            snapshots.remove(rootPath, snapshot);
+        else
+            snapshots.replace(rootPath, snapshot, updated);
+    }
+
+    /**
+     * Called for VFS events; drops the snapshot of the root whose .git directory contains the path.
+     *
+     * @param path The path of the changed file
+     */
+    public void fileChanged(@NotNull String path) {
+        int idx = path.indexOf(GIT_DIR_SEGMENT);
+        if (idx < 0 && path.endsWith("/.git")) idx = path.length() - 5;
+        if (idx >= 0)
+            snapshots.remove(path.substring(0, idx));
+    }
+
+    public void clear() {
+        snapshots.clear();
+    }
+}
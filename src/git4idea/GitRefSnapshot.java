@@ -0,0 +1,336 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An immutable picture of a repository's refs (HEAD, refs/heads, refs/remotes & refs/tags), read directly from
+ * the loose ref files and packed-refs. The snapshot remembers the modification times of the files & directories
+ * it was built from, so {@link #isStale()} can tell cheaply whether it needs to be re-read.
+ */
+public class GitRefSnapshot {
+    public static final String HEADS_PREFIX = "refs/heads/";
+    public static final String REMOTES_PREFIX = "refs/remotes/";
+    public static final String TAGS_PREFIX = "refs/tags/";
+    private static final String SYMREF_PREFIX = "ref: ";
+    /* file systems with coarse timestamps can't distinguish changes made this close to the read */
+    private static final long RACY_MILLIS = 2000;
+
+    private final String headRef;
+    private final String headRevision;
+    private final Map<String, String> refs;
+    private final Map<String, String> symbolicRefs;
+    private final File[] stampFiles;
+    private final long[] stamps;
+    private final boolean racy;
+
+    private GitRefSnapshot(@Nullable String headRef, @Nullable String headRevision, @NotNull Map<String, String> refs,
+                           @NotNull Map<String, String> symbolicRefs, @NotNull List<File> stampFiles,
+                           @NotNull long[] stamps, long readTime) {
+        this.headRef = headRef;
+        this.headRevision = headRevision;
+        this.refs = Collections.unmodifiableMap(refs);
+        this.symbolicRefs = Collections.unmodifiableMap(symbolicRefs);
+        this.stampFiles = stampFiles.toArray(new File[stampFiles.size()]);
+        this.stamps = stamps;
+        boolean r = false;
+        for (long stamp : stamps)
+            if (readTime - stamp < RACY_MILLIS) r = true;
+        this.racy = r;
+    }
+
+    /**
+     * Read the refs of the specified repository.
+     *
+     * @param files The repository to read
+     * @return The snapshot, or null if the repository layout isn't one that can be read directly
+     */
+    @Nullable
+    public static GitRefSnapshot read(@NotNull GitRepositoryFiles files) {
+        long readTime = System.currentTimeMillis();
+        List<File> stampFiles = new ArrayList<File>();
+        stampFiles.add(files.getHeadFile());
+        stampFiles.add(files.getPackedRefsFile());
+        stampFiles.add(files.getRefsDir());
+
+        // take the stamps before reading so a concurrent change always makes the snapshot look stale
+        File refsDir = files.getRefsDir();
+        if (!refsDir.isDirectory()) return null;    // e.g. reftable storage
+        collectDirs(refsDir, stampFiles);
+        long[] stamps = new long[stampFiles.size()];
+        for (int i = 0; i < stamps.length; i++)
+            stamps[i] = stampFiles.get(i).lastModified();
+
+        String head = GitRepositoryFiles.readFirstLine(files.getHeadFile());
+        if (head == null) return null;
+        head = head.trim();
+
+        Map<String, String> refs = new HashMap<String, String>();
+        Map<String, String> symbolicRefs = new HashMap<String, String>();
+        try {
+            readPackedRefs(files.getPackedRefsFile(), refs, null);
+        } catch (IOException e) {
+            return null;
+        }
+        readLooseRefs(refsDir, "refs/", refs, symbolicRefs);
+
+        String headRef = null;
+        String headRevision;
+        if (head.startsWith(SYMREF_PREFIX)) {
+            headRef = head.substring(SYMREF_PREFIX.length()).trim();
+            headRevision = refs.get(headRef);
+        } else {
+            headRevision = head;
+        }
+        return new GitRefSnapshot(headRef, headRevision, refs, symbolicRefs, stampFiles, stamps, readTime);
+    }
+
+    /**
+     * Re-read just the specified refs, for when a command is known to have moved those and nothing else (e.g. the
+     * refs a fetch reported). Every other ref is taken from this snapshot as it is.
+     *
+     * @param files    The repository this snapshot was read from
+     * @param refNames The full names of the refs that changed; names of refs that don't exist are allowed
+     * @return The updated snapshot, or null if it has to be read afresh (e.g. HEAD moved too)
+     */
+    @Nullable
+    public GitRefSnapshot update(@NotNull GitRepositoryFiles files, @NotNull Collection<String> refNames) {
+        long readTime = System.currentTimeMillis();
+        File headFile = files.getHeadFile();
+        File refsDir = files.getRefsDir();
+        if (headFile.lastModified() != stamps[0] || !refsDir.isDirectory()) return null;
+        List<File> newStampFiles = new ArrayList<File>();
+        newStampFiles.add(headFile);
+        newStampFiles.add(files.getPackedRefsFile());
+        newStampFiles.add(refsDir);
+        collectDirs(refsDir, newStampFiles);
+        long[] newStamps = new long[newStampFiles.size()];
+        for (int i = 0; i < newStamps.length; i++)
+            newStamps[i] = newStampFiles.get(i).lastModified();
+
+        Map<String, String> newRefs = new HashMap<String, String>(refs);
+        Map<String, String> newSymbolicRefs = new HashMap<String, String>(symbolicRefs);
+        Set<String> packed = new HashSet<String>();     // refs with no loose file: look them up in packed-refs
+        for (String refName : refNames) {
+            if (!refName.startsWith("refs/")) continue;
+            newRefs.remove(refName);
+            newSymbolicRefs.remove(refName);
+            String value = GitRepositoryFiles.readFirstLine(new File(refsDir, refName.substring("refs/".length())));
+            value = value == null ? "" : value.trim();
+            if (value.startsWith(SYMREF_PREFIX))
+                newSymbolicRefs.put(refName, value.substring(SYMREF_PREFIX.length()).trim());
+            else if (value.length() >= 40)
+                newRefs.put(refName, value);
+            else
+                packed.add(refName);
+        }
+        if (!packed.isEmpty()) {
+            try {
+                readPackedRefs(files.getPackedRefsFile(), newRefs, packed);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        String newHeadRevision = headRef == null ? headRevision : newRefs.get(headRef);
+        return new GitRefSnapshot(headRef, newHeadRevision, newRefs, newSymbolicRefs, newStampFiles, newStamps,
+                readTime);
+    }
+
+    /**
+     * Returns true if any of the files or directories this snapshot was read from has changed since, or if
+     * the snapshot was taken too soon after a change to be sure it saw it.
+     *
+     * @return true if the snapshot should be re-read
+     */
+    public boolean isStale() {
+        return racy || isChanged();
+    }
+
+    /**
+     * @return true if any of the files or directories this snapshot was read from has a new time stamp
+     */
+    public boolean isChanged() {
+        for (int i = 0; i < stampFiles.length; i++) {
+            if (stampFiles[i].lastModified() != stamps[i]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the snapshot was taken too soon after a change to its files to be sure it saw it
+     */
+    public boolean isRacy() {
+        return racy;
+    }
+
+    /**
+     * @return The full name of the ref HEAD points to (e.g. "refs/heads/master"), null if HEAD is detached
+     */
+    @Nullable
+    public String getHeadRef() {
+        return headRef;
+    }
+
+    /**
+     * @return The commit HEAD resolves to, null on an unborn branch
+     */
+    @Nullable
+    public String getHeadRevision() {
+        return headRevision;
+    }
+
+    public boolean isDetached() {
+        return headRef == null;
+    }
+
+    /**
+     * @return The short name of the checked out branch, null if HEAD is detached
+     */
+    @Nullable
+    public String getCurrentBranch() {
+        if (headRef == null) return null;
+        return headRef.startsWith(HEADS_PREFIX) ? headRef.substring(HEADS_PREFIX.length()) : headRef;
+    }
+
+    /**
+     * @return The short names of all local branches, sorted
+     */
+    @NotNull
+    public List<String> getLocalBranches() {
+        return shortNames(HEADS_PREFIX);
+    }
+
+    /**
+     * @return The short names ("origin/master") of all remote-tracking branches, sorted. Symbolic refs such as
+     *         origin/HEAD are left out.
+     */
+    @NotNull
+    public List<String> getRemoteBranches() {
+        return shortNames(REMOTES_PREFIX);
+    }
+
+    /**
+     * @return The names of all tags, sorted
+     */
+    @NotNull
+    public List<String> getTags() {
+        return shortNames(TAGS_PREFIX);
+    }
+
+    /**
+     * Resolve a full ref name to a commit (or tag object) id.
+     *
+     * @param refName The full ref name, e.g. "refs/remotes/origin/master"
+     * @return The object id, or null if there is no such ref
+     */
+    @Nullable
+    public String resolve(@NotNull String refName) {
+        for (int depth = 0; depth < 5; depth++) {
+            String target = symbolicRefs.get(refName);
+            if (target == null) return refs.get(refName);
+            refName = target;
+        }
+        return null;
+    }
+
+    @NotNull
+    public Map<String, String> getRefs() {
+        return refs;
+    }
+
+    @NotNull
+    private List<String> shortNames(@NotNull String prefix) {
+        List<String> names = new ArrayList<String>();
+        for (String ref : refs.keySet()) {
+            if (ref.startsWith(prefix))
+                names.add(ref.substring(prefix.length()));
+        }
+        Collections.sort(names);
+        return Collections.unmodifiableList(names);
+    }
+
+    private static void collectDirs(@NotNull File dir, @NotNull List<File> dirs) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                dirs.add(child);
+                collectDirs(child, dirs);
+            }
+        }
+    }
+
+    private static void readPackedRefs(@NotNull File packedRefs, @NotNull Map<String, String> refs,
+                                       @Nullable Set<String> only) throws IOException {
+        if (!packedRefs.isFile()) return;
+        BufferedReader in = new BufferedReader(new FileReader(packedRefs));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#' || line.charAt(0) == '^')
+                    continue;   // header, or the peeled commit of the preceding annotated tag
+                int sp = line.indexOf(' ');
+                if (sp <= 0) continue;
+                String refName = line.substring(sp + 1).trim();
+                if (only == null || only.contains(refName))
+                    refs.put(refName, line.substring(0, sp));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readLooseRefs(@NotNull File dir, @NotNull String prefix, @NotNull Map<String, String> refs,
+                                      @NotNull Map<String, String> symbolicRefs) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        Map<String, File> sorted = new TreeMap<String, File>();
+        for (File child : children)
+            sorted.put(child.getName(), child);
+        for (Map.Entry<String, File> entry : sorted.entrySet()) {
+            String name = entry.getKey();
+            File child = entry.getValue();
+            if (child.isDirectory()) {
+                readLooseRefs(child, prefix + name + "/", refs, symbolicRefs);
+                continue;
+            }
+            if (name.endsWith(".lock")) continue;
+            String value = GitRepositoryFiles.readFirstLine(child);
+            if (value == null) continue;
+            value = value.trim();
+            String refName = prefix + name;
+            if (value.startsWith(SYMREF_PREFIX)) {
+                symbolicRefs.put(refName, value.substring(SYMREF_PREFIX.length()).trim());
+                refs.remove(refName);
+            } else if (value.length() >= 40) {
+                refs.put(refName, value);   // loose refs override packed ones
+            }
+        }
+    }
+}
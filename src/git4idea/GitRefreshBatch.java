@@ -0,0 +1,146 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FileStatusManager;
+import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Collects the files touched by a bulk git operation and notifies IDEA about all of them at once: a single VFS
+ * refresh, then the dirty-scope updates, so a 5000 file revert causes one change list recalculation, not 5000.
+ * Files are marked dirty one by one; only a directory whose touched files extend into its subdirectories is
+ * marked dirty recursively, in their place.
+ */
+public class GitRefreshBatch {
+    private final Project project;
+    private final Set<File> files = new LinkedHashSet<File>();
+
+    public GitRefreshBatch(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public void add(@NotNull File file) {
+        files.add(file);
+    }
+
+    public void add(@NotNull VirtualFile file) {
+        files.add(new File(file.getPath()));
+    }
+
+    public void addAll(@NotNull Collection<File> touched) {
+        files.addAll(touched);
+    }
+
+    public void addAll(@NotNull VirtualFile[] touched) {
+        for (VirtualFile file : touched) {
+            if (file != null) add(file);
+        }
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * Refresh the collected files and mark them dirty, then start a new batch. May be called from any thread;
+     * the VFS refresh itself always runs on the event dispatch thread.
+     */
+    public void flush() {
+        if (files.isEmpty()) return;
+        final List<File> batch = new ArrayList<File>(files);
+        files.clear();
+
+        Application application = ApplicationManager.getApplication();
+        if (application.isDispatchThread()) {
+            LocalFileSystem.getInstance().refreshIoFiles(batch);
+        } else {
+            application.invokeAndWait(new Runnable() {
+                public void run() {
+                    LocalFileSystem.getInstance().refreshIoFiles(batch);
+                }
+            }, ModalityState.defaultModalityState());
+        }
+
+        VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
+        for (Map.Entry<String, List<File>> entry : groupByParent(batch).entrySet()) {
+            String dir = entry.getKey();
+            List<File> group = entry.getValue();
+            boolean spansSubdirectories = false;
+            for (File file : group) {
+                if (!dir.equals(file.getParent())) spansSubdirectories = true;
+            }
+            if (spansSubdirectories) {
+                mgr.dirDirtyRecursively(VcsUtil.getFilePath(dir));
+            } else {
+                for (File file : group)
+                    mgr.fileDirty(VcsUtil.getFilePath(file.getPath()));
+            }
+        }
+        FileStatusManager.getInstance(project).fileStatusesChanged();
+    }
+
+    /**
+     * Groups the files by parent directory. The groups of the subdirectories of a directory with several touched
+     * files are folded into its group, which is then marked recursively.
+     */
+    @NotNull
+    private static Map<String, List<File>> groupByParent(@NotNull List<File> batch) {
+        Map<String, List<File>> byParent = new HashMap<String, List<File>>();
+        for (File file : batch) {
+            String parent = file.getParent();
+            if (parent == null) parent = file.getPath();
+            List<File> siblings = byParent.get(parent);
+            if (siblings == null) {
+                siblings = new ArrayList<File>();
+                byParent.put(parent, siblings);
+            }
+            siblings.add(file);
+        }
+
+        // sorted so that every directory's subdirectories directly follow it
+        Map<String, List<File>> groups = new TreeMap<String, List<File>>(new Comparator<String>() {
+            public int compare(String o1, String o2) {
+                return o1.replace(File.separatorChar, '\0').compareTo(o2.replace(File.separatorChar, '\0'));
+            }
+        });
+        groups.putAll(byParent);
+        String recursive = null;
+        for (String dir : new ArrayList<String>(groups.keySet())) {
+            if (recursive != null && dir.startsWith(recursive + File.separator)) {
+                groups.get(recursive).addAll(groups.remove(dir));
+            } else {
+                recursive = groups.get(dir).size() > 1 ? dir : null;
+            }
+        }
+        return groups;
+    }
+}
@@ -17,14 +17,9 @@ package git4idea;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vcs.VcsException;
-import com.intellij.openapi.ui.Messages;
 import com.intellij.psi.PsiElement;
 import com.intellij.refactoring.listeners.RefactoringElementListener;
 import com.intellij.vcsUtil.VcsUtil;
-import git4idea.commands.GitCommand;
-
-import java.io.File;
 
 /**
  * Listens for renames and moves.
@@ -41,21 +36,8 @@ public class GitRenameListener implements RefactoringElementListener {
     }
 
     public void elementRenamed(PsiElement newElement) {
-        if(newElement == null) return;
-        // IDEA has already moved the file at this point...
-        GitCommand cmd = new GitCommand(project, GitVcsSettings.getInstance(project), vcsRoot);
-        VirtualFile newFile = newElement.getContainingFile().getVirtualFile();
-        File newLoc = new File(newFile.getPath());
-        File oldLoc = new File(originalFilename);
-        try {
-            if(newLoc.exists() && !oldLoc.exists()) // file already moved in local fs
-                newLoc.renameTo(oldLoc);  // move back, let Git do the move
-            cmd.move(new GitVirtualFile(project,originalFilename), newFile);
-        } catch (SecurityException se) {
-            Messages.showErrorDialog(project, se.getMessage(), "Unable to rename file, permission denied.");
-        } catch (VcsException ve) {
-            Messages.showErrorDialog(project, ve.getMessage(), "Error during rename ('git mv')");
-        }
+        // implemented in GitVirtualFileAdapter: the file's VFS rename is recorded and applied to the index
+        // with the rest of the refactoring's changes
     }
 
     public void elementMoved(PsiElement newElement) {
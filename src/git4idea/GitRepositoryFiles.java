@@ -0,0 +1,150 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Locates the files inside a repository's .git directory, so repository state can be read straight from disk
+ * instead of forking git. Handles plain repositories as well as "gitdir:" link files (submodules, linked
+ * worktrees) and the shared "commondir" of linked worktrees.
+ */
+public class GitRepositoryFiles {
+    private final File workTree;
+    private final File gitDir;
+    private final File commonDir;
+
+    private GitRepositoryFiles(@NotNull File workTree, @NotNull File gitDir, @NotNull File commonDir) {
+        this.workTree = workTree;
+        this.gitDir = gitDir;
+        this.commonDir = commonDir;
+    }
+
+    /**
+     * Locate the repository files for the specified working tree root.
+     *
+     * @param workTree The VCS root
+     * @return The repository files, or null if the root has no readable .git directory
+     */
+    @Nullable
+    public static GitRepositoryFiles forRoot(@NotNull File workTree) {
+        File dotGit = new File(workTree, ".git");
+        File gitDir;
+        if (dotGit.isDirectory()) {
+            gitDir = dotGit;
+        } else if (dotGit.isFile()) {
+            String link = readFirstLine(dotGit);
+            if (link == null || !link.startsWith("gitdir:")) return null;
+            gitDir = resolve(workTree, link.substring("gitdir:".length()).trim());
+            if (!gitDir.isDirectory()) return null;
+        } else {
+            return null;
+        }
+
+        File commonDir = gitDir;
+        File commonLink = new File(gitDir, "commondir");
+        if (commonLink.isFile()) {
+            String common = readFirstLine(commonLink);
+            if (common != null && common.trim().length() > 0)
+                commonDir = resolve(gitDir, common.trim());
+        }
+        return new GitRepositoryFiles(workTree, gitDir, commonDir);
+    }
+
+    @NotNull
+    public File getWorkTree() {
+        return workTree;
+    }
+
+    /**
+     * @return The per-worktree git directory (HEAD, index, MERGE_HEAD, ...)
+     */
+    @NotNull
+    public File getGitDir() {
+        return gitDir;
+    }
+
+    /**
+     * @return The git directory shared by all worktrees (refs, objects, config, ...)
+     */
+    @NotNull
+    public File getCommonDir() {
+        return commonDir;
+    }
+
+    @NotNull
+    public File getHeadFile() {
+        return new File(gitDir, "HEAD");
+    }
+
+    @NotNull
+    public File getIndexFile() {
+        return new File(gitDir, "index");
+    }
+
+    @NotNull
+    public File getRefsDir() {
+        return new File(commonDir, "refs");
+    }
+
+    @NotNull
+    public File getPackedRefsFile() {
+        return new File(commonDir, "packed-refs");
+    }
+
+    @NotNull
+    public File getConfigFile() {
+        return new File(commonDir, "config");
+    }
+
+    @NotNull
+    public File getObjectsDir() {
+        return new File(commonDir, "objects");
+    }
+
+    /**
+     * Returns the first line of a small text file, null if it can't be read.
+     *
+     * @param file The file to read
+     * @return The first line, without the line terminator
+     */
+    @Nullable
+    @SuppressWarnings({"EmptyCatchBlock"})
+    public static String readFirstLine(@NotNull File file) {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(file));
+            return in.readLine();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static File resolve(@NotNull File base, @NotNull String path) {
+        File f = new File(path);
+        if (!f.isAbsolute())
+            f = new File(base, path);
+        return f;
+    }
+}
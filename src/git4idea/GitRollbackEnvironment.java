@@ -20,7 +20,6 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
-import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.rollback.RollbackEnvironment;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -53,21 +52,19 @@ public class GitRollbackEnvironment implements RollbackEnvironment {
     public List<VcsException> rollbackModifiedWithoutCheckout(@NotNull List<VirtualFile> files) {
        List<VcsException> exceptions = new LinkedList<VcsException>();
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, files);
+        GitRefreshBatch refresh = new GitRefreshBatch(project);
         for (VirtualFile root : roots.keySet()) {
             GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), root);
             List<VirtualFile> rfiles = roots.get(root);
+            VirtualFile[] vfiles = rfiles.toArray(new VirtualFile[rfiles.size()]);
             try {
-                command.revert(rfiles.toArray(new VirtualFile[rfiles.size()]));
+                refresh.addAll(command.revert(vfiles));
             } catch (VcsException e) {
+                refresh.addAll(vfiles);
                 exceptions.add(e);
             }
         }
-
-        VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
-        for (VirtualFile file : files) {
-            mgr.fileDirty(file);
-            file.refresh(true, true);
-        }
+        refresh.flush();
 
         return exceptions;
     }
@@ -0,0 +1,94 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.vcs.VcsRoot;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable index of a project's VCS roots: a trie keyed by path segment. Finding the root of a path walks
+ * the path once and picks the deepest root containing it, so files in a repository nested inside another
+ * resolve to the inner one.
+ */
+public class GitRootIndex {
+    private final Node top = new Node();
+    private final VirtualFile firstRoot;
+
+    public GitRootIndex(@NotNull VcsRoot[] roots) {
+        VirtualFile first = null;
+        for (VcsRoot root : roots) {
+            if (root == null || root.path == null) continue;
+            if (first == null) first = root.path;
+            Node node = top;
+            String path = root.path.getPath();
+            for (int start = 0; start < path.length();) {
+                int end = segmentEnd(path, start);
+                if (end > start) {
+                    String segment = path.substring(start, end);
+                    Node child = node.children.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(segment, child);
+                    }
+                    node = child;
+                }
+                start = end + 1;
+            }
+            if (node.root == null) node.root = root.path;
+        }
+        firstRoot = first;
+    }
+
+    /**
+     * @param path A file path, using '/' separators
+     * @return The deepest root containing the path, or null if no root does
+     */
+    @Nullable
+    public VirtualFile getRoot(@NotNull String path) {
+        Node node = top;
+        VirtualFile found = node.root;
+        for (int start = 0; start < path.length();) {
+            int end = segmentEnd(path, start);
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                if (node == null) break;
+                if (node.root != null) found = node.root;
+            }
+            start = end + 1;
+        }
+        return found;
+    }
+
+    /**
+     * @return The first root configured, or null if there are none
+     */
+    @Nullable
+    public VirtualFile getFirstRoot() {
+        return firstRoot;
+    }
+
+    private static int segmentEnd(@NotNull String path, int start) {
+        int slash = path.indexOf('/', start);
+        return slash < 0 ? path.length() : slash;
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<String, Node>(4);
+        VirtualFile root;
+    }
+}
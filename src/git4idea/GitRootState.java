@@ -0,0 +1,94 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An immutable snapshot of the state of one VCS root, as maintained in the background by {@link GitRootStates}.
+ * All queries are answered from memory, so they are safe to use from AnAction.update(). Whether a file is
+ * tracked is looked up in the {@link GitIndexReader} picture of the index the snapshot was taken with; if the
+ * index couldn't be read, a file is reported as neither tracked nor untracked.
+ */
+public class GitRootState {
+    private final String rootPath;
+    private final int stashCount;
+    private final String currentBranch;
+    private final GitIndexReader index;
+    private final boolean merging;
+    private final long timestamp;
+
+    public GitRootState(@NotNull String rootPath, int stashCount, @Nullable String currentBranch,
+                        @Nullable GitIndexReader index, boolean merging) {
+        this.rootPath = rootPath.endsWith("/") ? rootPath.substring(0, rootPath.length() - 1) : rootPath;
+        this.stashCount = stashCount;
+        this.currentBranch = currentBranch;
+        this.index = index;
+        this.merging = merging;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    @NotNull
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public int getStashCount() {
+        return stashCount;
+    }
+
+    /**
+     * @return The current branch, or null if HEAD is detached or unborn
+     */
+    @Nullable
+    public String getCurrentBranch() {
+        return currentBranch;
+    }
+
+    public boolean isMergeInProgress() {
+        return merging;
+    }
+
+    /**
+     * @return When the snapshot was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return True if the file is known to be in the index; a directory is tracked if any file below it is
+     */
+    public boolean isTracked(@NotNull VirtualFile file) {
+        String path = relativePath(file.getPath());
+        return path != null && index != null && index.isTracked(path);
+    }
+
+    /**
+     * @return True if the file is known not to be in the index (it may be ignored); a directory is untracked if
+     *         no file below it is tracked
+     */
+    public boolean isUntracked(@NotNull VirtualFile file) {
+        String path = relativePath(file.getPath());
+        return path != null && index != null && !index.isTracked(path);
+    }
+
+    @Nullable
+    private String relativePath(@NotNull String path) {
+        if (path.equals(rootPath)) return "";
+        if (!path.startsWith(rootPath) || path.charAt(rootPath.length()) != '/') return null;
+        return path.substring(rootPath.length() + 1);
+    }
+}
@@ -0,0 +1,250 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitExecutor;
+import git4idea.commands.GitSingleFlight;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link GitRootState} snapshot of every VCS root up to date on the git worker pool, so actions can
+ * decide whether they are enabled without running git on the event dispatch thread.
+ * <p/>
+ * A root is recomputed shortly after its repository changes (a git write command, or a file changing under its
+ * .git directory), with bursts of changes folded into a single refresh; edits to the working tree alone don't
+ * count. A refresh reads the repository files directly: the branch from {@link GitRefCache}, the stash count from
+ * the stash reflog, a merge from MERGE_HEAD and the tracked files from {@link GitIndexReader}. Until the first
+ * snapshot of a root is ready, {@link #getState} returns null and callers should assume the action may apply.
+ * <p/>
+ * git run from a shell isn't seen until the VFS next looks under .git, so each snapshot also keeps the time
+ * stamps of the files it was computed from. A snapshot whose index, refs or MERGE_HEAD have changed since is
+ * not handed out; it is recomputed instead.
+ */
+public class GitRootStates implements GitSingleFlight.Listener {
+    private static final long REFRESH_DELAY_MILLIS = 500;
+    private static final String STASH_REF = "refs/stash";
+
+    private final Project project;
+    private final GitVcsSettings settings;
+    private final ConcurrentMap<String, GitRootState> states = new ConcurrentHashMap<String, GitRootState>();
+    private final ConcurrentMap<String, Source> sources = new ConcurrentHashMap<String, Source>();
+    private final ConcurrentMap<String, VirtualFile> pending = new ConcurrentHashMap<String, VirtualFile>();
+    private final ConcurrentMap<String, VirtualFile> roots = new ConcurrentHashMap<String, VirtualFile>();
+    private final ScheduledExecutorService executor;
+    private volatile boolean disposed = false;
+
+    public GitRootStates(@NotNull Project project, @NotNull GitVcsSettings settings) {
+        this.project = project;
+        this.settings = settings;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GitRootStates");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        GitSingleFlight.getInstance().addListener(this);
+    }
+
+    /**
+     * Returns the latest snapshot of the root containing a file. Never blocks; schedules a refresh if the root
+     * has not been seen before, or if the repository files the snapshot was computed from have changed.
+     *
+     * @param file A file or directory in the project
+     * @return The snapshot, or null if none is available or the latest is out of date
+     */
+    @Nullable
+    public GitRootState getState(@NotNull VirtualFile file) {
+        VirtualFile root = VcsUtil.getVcsRootFor(project, file);
+        if (root == null) return null;
+        GitRootState state = states.get(root.getPath());
+        if (state == null) {
+            if (roots.putIfAbsent(root.getPath(), root) == null)
+                schedule(root);
+            return null;
+        }
+        Source source = sources.get(root.getPath());
+        if (source != null && source.isChanged()) {
+            roots.put(root.getPath(), root);
+            schedule(root);
+            return null;
+        }
+        return state;
+    }
+
+    /**
+     * Recompute a root's snapshot soon.
+     */
+    public void refresh(@NotNull VirtualFile root) {
+        roots.put(root.getPath(), root);
+        schedule(root);
+    }
+
+    public void invalidated(@NotNull String rootPath) {
+        VirtualFile root = roots.get(rootPath);
+        if (root != null)
+            schedule(root);
+    }
+
+    public void dispose() {
+        disposed = true;
+        GitSingleFlight.getInstance().removeListener(this);
+        executor.shutdownNow();
+        states.clear();
+        sources.clear();
+        roots.clear();
+    }
+
+    private void schedule(@NotNull final VirtualFile root) {
+        if (executor.isShutdown() || pending.putIfAbsent(root.getPath(), root) != null)
+            return;  // a refresh is already on its way
+        executor.schedule(new Runnable() {
+            public void run() {
+                GitExecutor.getInstance().execute(GitExecutor.Priority.BACKGROUND, root.getPath(), new Runnable() {
+                    public void run() {
+                        pending.remove(root.getPath());
+                        compute(root);
+                    }
+                });
+            }
+        }, REFRESH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void compute(@NotNull VirtualFile root) {
+        if (disposed) return;
+        if (!root.isValid()) {
+            states.remove(root.getPath());
+            sources.remove(root.getPath());
+            roots.remove(root.getPath());
+            return;
+        }
+        GitRepositoryFiles files = GitRepositoryFiles.forRoot(new File(root.getPath()));
+        GitRefSnapshot refs = files == null ? null : GitRefCache.getInstance().getSnapshot(root);
+        Source source = files == null ? null : new Source(files, refs);   // stamped before anything else is read
+        int stashCount;
+        String branch;
+        if (refs != null) {
+            // every stash is an entry in the reflog of refs/stash
+            stashCount = refs.resolve(STASH_REF) == null ? 0
+                    : Math.max(1, countLines(new File(files.getCommonDir(), "logs/" + STASH_REF)));
+            branch = refs.getHeadRevision() == null ? null : refs.getCurrentBranch();
+        } else {    // refs that can't be read directly, e.g. reftable storage
+            GitCommand command = new GitCommand(project, settings, root);
+            try {
+                String[] stashes = command.stashList();
+                stashCount = stashes == null ? 0 : stashes.length;
+                branch = command.currentBranch();
+                if (branch != null && branch.startsWith("(")) branch = null;   // "(no branch)"
+            } catch (VcsException e) {  // keep the previous snapshot; the next invalidation tries again
+                return;
+            }
+        }
+        boolean merging = source != null && source.merging;
+        GitIndexReader index = GitIndexReader.forRoot(root.getPath());
+        if (disposed) return;
+        if (source == null)
+            sources.remove(root.getPath());
+        else
+            sources.put(root.getPath(), source);
+        states.put(root.getPath(), new GitRootState(root.getPath(), stashCount, branch, index, merging));
+        if (source != null && source.isRacy())
+            schedule(root);     // a change made within the time stamp granularity may not show; look again later
+    }
+
+    private static int countLines(@NotNull File file) {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(file));
+            int lines = 0;
+            while (in.readLine() != null)
+                lines++;
+            return lines;
+        } catch (IOException e) {
+            return 0;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * The repository files a snapshot was computed from, with their time stamps and lengths when it was.
+     */
+    private static class Source {
+        /* file systems with coarse timestamps can't distinguish changes made this close to the read */
+        private static final long RACY_MILLIS = 2000;
+
+        final boolean merging;
+        private final GitRefSnapshot refs;      // null if the refs had to be read with git
+        private final File[] files;
+        private final long[] stamps;
+        private final long[] lengths;
+        private final long time = System.currentTimeMillis();
+
+        Source(@NotNull GitRepositoryFiles repository, @Nullable GitRefSnapshot refs) {
+            this.refs = refs;
+            files = new File[]{repository.getIndexFile(), repository.getHeadFile(),
+                    new File(repository.getGitDir(), "MERGE_HEAD")};
+            stamps = new long[files.length];
+            lengths = new long[files.length];
+            for (int i = 0; i < files.length; i++) {
+                stamps[i] = files[i].lastModified();
+                lengths[i] = files[i].length();
+            }
+            merging = stamps[2] != 0;
+        }
+
+        boolean isChanged() {
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].lastModified() != stamps[i] || files[i].length() != lengths[i]) return true;
+            }
+            return refs != null && refs.isChanged();
+        }
+
+        boolean isRacy() {
+            for (long stamp : stamps) {
+                if (time - stamp < RACY_MILLIS) return true;
+            }
+            return refs != null && refs.isRacy();
+        }
+    }
+
+    /**
+     * @return The snapshots of all roots seen so far
+     */
+    @NotNull
+    public Map<String, GitRootState> getStates() {
+        return states;
+    }
+}
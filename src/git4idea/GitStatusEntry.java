@@ -0,0 +1,107 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.vcsUtil.VcsUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * One file reported by a git status query. Status sets can hold many thousands of these, so an entry only keeps
+ * its root (one string shared by all entries of a query), its path relative to the root as UTF-8 bytes and its
+ * status; it does not touch the file system. Use {@link #toVirtualFile} or {@link #toFilePath} when IDEA needs a file.
+ */
+public final class GitStatusEntry {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final GitVirtualFile.Status[] STATUSES = GitVirtualFile.Status.values();
+
+    private final String root;
+    private final byte[] path;
+    private final byte status;
+
+    /**
+     * @param root         The VCS root path as returned by {@link #rootPath}; pass the same string for every entry
+     *                     of a query
+     * @param relativePath The path relative to the root, as git reports it
+     * @param status       The file status
+     */
+    public GitStatusEntry(@NotNull String root, @NotNull String relativePath, @NotNull GitVirtualFile.Status status) {
+        this.root = root;
+        this.path = relativePath.getBytes(UTF8);
+        this.status = (byte) status.ordinal();
+    }
+
+    /**
+     * @param root A VCS root path, using '/' separators
+     * @return The path without any trailing '/', as entries keep it
+     */
+    @NotNull
+    public static String rootPath(@NotNull String root) {
+        return root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+    }
+
+    @NotNull
+    public String getRoot() {
+        return root;
+    }
+
+    @NotNull
+    public String getRelativePath() {
+        return new String(path, UTF8);
+    }
+
+    /**
+     * @return The absolute path, using '/' separators
+     */
+    @NotNull
+    public String getPath() {
+        return root + "/" + getRelativePath();
+    }
+
+    @NotNull
+    public GitVirtualFile.Status getStatus() {
+        return STATUSES[status];
+    }
+
+    @NotNull
+    public GitVirtualFile toVirtualFile(@NotNull Project project) {
+        return new GitVirtualFile(project, getPath(), getStatus());
+    }
+
+    @NotNull
+    public FilePath toFilePath() {
+        return VcsUtil.getFilePath(getPath());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof GitStatusEntry)) return false;
+        GitStatusEntry that = (GitStatusEntry) obj;
+        return status == that.status && root.equals(that.root) && Arrays.equals(path, that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * root.hashCode() + Arrays.hashCode(path);
+    }
+
+    @Override
+    public String toString() {
+        return getStatus() + " " + getPath();
+    }
+}
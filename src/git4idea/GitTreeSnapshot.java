@@ -0,0 +1,96 @@
+package git4idea;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Authors: Mark Scott
+ */
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import git4idea.commands.GitCommand;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The HEAD commit of a VCS root and the paths that differ from it (staged or not), taken before a git operation
+ * that rewrites the working tree: checkout, stash, merge, pull.
+ * <p/>
+ * Afterwards, {@link #refreshChanges} works out which paths the operation can have touched - those that differ
+ * between the old and new HEAD, plus those that differed from HEAD before or after - and refreshes and marks
+ * dirty just those, instead of leaving IDEA to rescan the whole root.
+ */
+public class GitTreeSnapshot {
+    private final String head;
+    private final Set<String> dirty;
+
+    private GitTreeSnapshot(@NotNull String head, @NotNull Set<String> dirty) {
+        this.head = head;
+        this.dirty = dirty;
+    }
+
+    /**
+     * @return The snapshot, or null if it can't be taken (e.g. no commits yet)
+     */
+    @Nullable
+    public static GitTreeSnapshot take(@NotNull Project project, @NotNull GitVcsSettings settings,
+                                       @NotNull VirtualFile root) {
+        GitCommand command = new GitCommand(project, settings, root);
+        try {
+            String head = command.headRevision();
+            return head == null ? null : new GitTreeSnapshot(head, command.dirtyPaths());
+        } catch (VcsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Refresh and mark dirty the files an operation changed.
+     *
+     * @param before The snapshot taken before the operation; if null, the whole root is refreshed
+     */
+    public static void refreshChanges(@NotNull Project project, @NotNull GitVcsSettings settings,
+                                      @NotNull VirtualFile root, @Nullable GitTreeSnapshot before) {
+        Set<String> changed = before == null ? null : before.changedPaths(project, settings, root);
+        if (changed == null) {
+            root.refresh(true, true);
+            VcsDirtyScopeManager.getInstance(project).dirDirtyRecursively(VcsUtil.getFilePath(root.getPath()));
+            return;
+        }
+
+        GitRefreshBatch refresh = new GitRefreshBatch(project);
+        for (String path : changed)
+            refresh.add(new File(root.getPath(), path));
+        refresh.flush();
+    }
+
+    @Nullable
+    private Set<String> changedPaths(@NotNull Project project, @NotNull GitVcsSettings settings,
+                                     @NotNull VirtualFile root) {
+        GitCommand command = new GitCommand(project, settings, root);
+        try {
+            String newHead = command.headRevision();
+            if (newHead == null) return null;
+            Set<String> changed = new HashSet<String>(dirty);
+            changed.addAll(command.dirtyPaths());
+            if (!newHead.equals(head))
+                changed.addAll(command.changedPaths(head, newHead));
+            return changed;
+        } catch (VcsException e) {
+            return null;
+        }
+    }
+}
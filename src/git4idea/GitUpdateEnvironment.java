@@ -12,18 +12,30 @@ package git4idea;
 * Copyright 2008 MQSoftware
 * Authors: Mark Scott
 */
+import com.intellij.openapi.vcs.update.FileGroup;
 import com.intellij.openapi.vcs.update.UpdateEnvironment;
 import com.intellij.openapi.vcs.update.UpdatedFiles;
 import com.intellij.openapi.vcs.update.UpdateSession;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitMultiRootSync;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Git update environment implementation
@@ -44,10 +56,102 @@ public class GitUpdateEnvironment implements UpdateEnvironment {
         //unused
     }
 
+    /**
+     * Fetch the upstream of each root's current branch and merge it in (or rebase onto it, if the branch is
+     * configured to), running the roots in parallel. The files each root's HEAD moved over, and any left with
+     * conflicts, are reported in the update groups and refreshed.
+     */
     @Override
     @NotNull
     public UpdateSession updateDirectories(@NotNull FilePath[] contentRoots, UpdatedFiles updatedFiles, ProgressIndicator progressIndicator) throws ProcessCanceledException {
-          return new GitUpdateSession(null);
+        List<VcsException> exceptions = new ArrayList<VcsException>();
+        Set<VirtualFile> roots = new LinkedHashSet<VirtualFile>();
+        for (FilePath path : contentRoots)
+            roots.add(GitUtil.getVcsRoot(project, path));
+
+        GitMultiRootSync sync = new GitMultiRootSync(project, settings);
+        Map<VirtualFile, String> heads = new LinkedHashMap<VirtualFile, String>();
+        for (VirtualFile root : roots) {
+            try {
+                GitCommand command = new GitCommand(project, settings, root);
+                String branch = command.currentBranch();
+                if (branch == null || branch.startsWith("(")) {     // "(no branch)"
+                    exceptions.add(new VcsException(root.getPath() + ": HEAD is detached; check out a branch to update it"));
+                    continue;
+                }
+                GitConfig config = GitConfig.forRoot(root.getPath(), settings.GIT_EXECUTABLE);
+                String remote = config == null ? null : config.getBranchRemote(branch);
+                boolean local = ".".equals(remote);     // tracks a branch of this repository: nothing to fetch
+                String upstream = config == null ? null :
+                        local ? config.getBranchMerge(branch) : config.getTrackingBranch(branch);
+                if (upstream == null) {
+                    exceptions.add(new VcsException(root.getPath() + ": branch " + branch + " has no upstream to update from"));
+                    continue;
+                }
+                if (!local)
+                    sync.addStep(root, GitCommand.FETCH_CMD, command.fetchArgs(remote, settings.FETCH_PRUNE));
+                sync.addStep(root, config.isBranchRebase(branch) ? GitCommand.REBASE_CMD : GitCommand.MERGE_CMD, upstream);
+                heads.put(root, command.headRevision());
+            } catch (VcsException e) {
+                exceptions.add(e);
+            }
+        }
+
+        if (!sync.isEmpty())
+            exceptions.addAll(sync.run());
+
+        GitRefreshBatch refresh = new GitRefreshBatch(project);
+        for (Map.Entry<VirtualFile, String> entry : heads.entrySet()) {
+            try {
+                collectUpdatedFiles(entry.getKey(), entry.getValue(), updatedFiles, refresh);
+            } catch (VcsException e) {
+                exceptions.add(e);
+            }
+        }
+        refresh.flush();
+        return new GitUpdateSession(exceptions);
+    }
+
+    /**
+     * Fill the update groups with the files changed in a root since the update started.
+     *
+     * @param root   The VCS root
+     * @param before HEAD before the update, or null if there was no commit yet
+     */
+    private void collectUpdatedFiles(@NotNull VirtualFile root, @Nullable String before,
+                                     @NotNull UpdatedFiles updatedFiles, @NotNull GitRefreshBatch refresh)
+            throws VcsException {
+        GitCommand command = new GitCommand(project, settings, root);
+        String after = command.headRevision();
+        Map<String, GitVirtualFile.Status> changed = new LinkedHashMap<String, GitVirtualFile.Status>();
+        if (before != null && after != null && !before.equals(after))
+            changed.putAll(command.changedFiles(before, after));
+
+        // a merge or rebase stopped by conflicts leaves the rest of its changes staged
+        Set<String> conflicts = command.unmergedPaths();
+        if (!conflicts.isEmpty() && after != null)
+            changed.putAll(command.stagedFiles());
+
+        for (Map.Entry<String, GitVirtualFile.Status> entry : changed.entrySet()) {
+            File file = new File(root.getPath(), entry.getKey());
+            String groupId;
+            if (conflicts.contains(entry.getKey()))
+                groupId = FileGroup.MERGED_WITH_CONFLICT_ID;
+            else if (entry.getValue() == GitVirtualFile.Status.ADDED)
+                groupId = FileGroup.CREATED_ID;
+            else if (entry.getValue() == GitVirtualFile.Status.DELETED)
+                groupId = FileGroup.REMOVED_FROM_REPOSITORY_ID;
+            else
+                groupId = FileGroup.UPDATED_ID;
+            updatedFiles.getGroupById(groupId).add(file.getPath());
+            refresh.add(file);
+        }
+        for (String path : conflicts) {
+            if (changed.containsKey(path)) continue;
+            File file = new File(root.getPath(), path);
+            updatedFiles.getGroupById(FileGroup.MERGED_WITH_CONFLICT_ID).add(file.getPath());
+            refresh.add(file);
+        }
     }
 
     @Override
@@ -20,7 +20,6 @@ package git4idea;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
-import com.intellij.openapi.vcs.VcsRoot;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
 import org.jetbrains.annotations.NotNull;
@@ -38,27 +37,42 @@ public class GitUtil {
 
     @NotNull
     public static VirtualFile getVcsRoot(@NotNull final Project project, @NotNull final FilePath filePath) {
-        VirtualFile vfile = VcsUtil.getVcsRootFor(project, filePath);
+        VirtualFile vfile = getRootIndex(project).getRoot(filePath.getPath());
+        if (vfile == null)
+            vfile = VcsUtil.getVcsRootFor(project, filePath);
         if (vfile == null)
             vfile = GitFileSystem.getInstance().findFileByPath(project, filePath.getPath());
 
         return vfile;
     }
 
+    /**
+     * Returns the VCS root of a file: the deepest root containing it, or if there is none, the first root
+     * configured in the project.
+     *
+     * @throws IllegalStateException If the project has no VCS roots at all
+     */
     @NotNull
     public static VirtualFile getVcsRoot(@NotNull final Project project, @NotNull final VirtualFile virtualFile) {
-        String vpath = virtualFile.getPath();
-        ProjectLevelVcsManager mgr = ProjectLevelVcsManager.getInstance(project);
-        VcsRoot[] vroots = mgr.getAllVcsRoots();
-        for (VcsRoot vroot : vroots) {
-            if (vroot == null) continue;
-            String rootpath = vroot.path.getPath();
-            if (vpath.startsWith(rootpath))
-                return vroot.path;
-        }
+        return getVcsRoot(getRootIndex(project), virtualFile);
+    }
 
-        // best guess....
-        return vroots[0].path;
+    @NotNull
+    private static VirtualFile getVcsRoot(@NotNull GitRootIndex index, @NotNull VirtualFile virtualFile) {
+        VirtualFile root = index.getRoot(virtualFile.getPath());
+        if (root == null)
+            root = index.getFirstRoot(); // best guess....
+        if (root == null)
+            throw new IllegalStateException("No VCS root for " + virtualFile.getPath() + ": none are configured");
+        return root;
+    }
+
+    @NotNull
+    private static GitRootIndex getRootIndex(@NotNull Project project) {
+        GitVcs vcs = GitVcs.getInstance(project);
+        if (vcs != null)
+            return vcs.getRootIndex();
+        return new GitRootIndex(ProjectLevelVcsManager.getInstance(project).getAllVcsRoots());
     }
 
     @NotNull
@@ -66,9 +80,10 @@ public class GitUtil {
             @NotNull Project project,
             @NotNull List<VirtualFile> virtualFiles) {
         Map<VirtualFile, List<VirtualFile>> result = new HashMap<VirtualFile, List<VirtualFile>>();
+        GitRootIndex index = getRootIndex(project);
 
         for (VirtualFile file : virtualFiles) {
-            final VirtualFile vcsRoot = getVcsRoot(project, file);
+            final VirtualFile vcsRoot = getVcsRoot(index, file);
             assert vcsRoot != null;
 
             List<VirtualFile> files = result.get(vcsRoot);
@@ -32,6 +32,7 @@ import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsConfiguration;
 import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.VcsListener;
 import com.intellij.openapi.vcs.VcsShowConfirmationOption;
 import com.intellij.openapi.vcs.changes.ChangeProvider;
 import com.intellij.openapi.vcs.checkin.CheckinEnvironment;
@@ -44,6 +45,8 @@ import com.intellij.openapi.vcs.update.UpdateEnvironment;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.wm.ToolWindowAnchor;
+import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.refactoring.listeners.RefactoringElementListenerProvider;
 import com.intellij.refactoring.listeners.RefactoringListenerManager;
 import org.jetbrains.annotations.NotNull;
@@ -76,6 +79,17 @@ public class GitVcs extends AbstractVcs implements Disposable {
     private RevisionSelector revSelector;
     private GitVirtualFileAdapter gitFileAdapter;
     private RefactoringElementListenerProvider renameListenerProvider;
+    private GitRootStates rootStates;
+    private GitMergeProvider mergeProvider;
+    private final Object rootIndexLock = new Object();
+    private volatile GitRootIndex rootIndex;  // rebuilt on first use after the root mappings change
+    private boolean active;                   // guarded by rootIndexLock; only cache while the listener is registered
+    private int mappingGeneration;            // guarded by rootIndexLock; bumped when a cached index goes out of date
+    private final VcsListener rootMappingListener = new VcsListener() {
+        public void directoryMappingChanged() {
+            invalidateRootIndex(null);
+        }
+    };
 
     public static GitVcs getInstance(@NotNull Project project) {
         return (GitVcs) ProjectLevelVcsManager.getInstance(project).findVcsByName(GIT);
@@ -111,6 +125,7 @@ public class GitVcs extends AbstractVcs implements Disposable {
         ((GitCheckinEnvironment) checkinEnvironment).setProject(myProject);
         ((GitCheckinEnvironment) checkinEnvironment).setSettings(settings);
         renameListenerProvider = new GitRefactoringListenerProvider();
+        mergeProvider = new GitMergeProvider(myProject, settings);
     }
 
     @Override
@@ -213,9 +228,14 @@ public class GitVcs extends AbstractVcs implements Disposable {
             }
         };
         gitFileAdapter = new GitVirtualFileAdapter(this, myProject);
+        rootStates = new GitRootStates(myProject, settings);
+        vcsManager.addVcsListener(rootMappingListener);
+        invalidateRootIndex(Boolean.TRUE);
         VirtualFileManager.getInstance().addVirtualFileListener(gitFileAdapter, activationDisposable);
         LocalFileSystem.getInstance().registerAuxiliaryFileOperationsHandler(gitFileAdapter);
         RefactoringListenerManager.getInstance(myProject).addListenerProvider(renameListenerProvider);
+        ToolWindowManager.getInstance(myProject).registerToolWindow(GitCommandStatsPanel.TOOL_WINDOW_ID,
+                new GitCommandStatsPanel(), ToolWindowAnchor.BOTTOM);
 //        GitChangeMonitor mon = GitChangeMonitor.getInstance();
 //        mon.setProject(myProject);
 //        mon.setGitVcsSettings(settings);
@@ -228,6 +248,12 @@ public class GitVcs extends AbstractVcs implements Disposable {
         LocalFileSystem.getInstance().unregisterAuxiliaryFileOperationsHandler(gitFileAdapter);
         RefactoringListenerManager.getInstance(myProject).removeListenerProvider(renameListenerProvider);
         VirtualFileManager.getInstance().removeVirtualFileListener(gitFileAdapter);
+        gitFileAdapter.dispose();
+        ToolWindowManager.getInstance(myProject).unregisterToolWindow(GitCommandStatsPanel.TOOL_WINDOW_ID);
+        rootStates.dispose();
+        rootStates = null;
+        vcsManager.removeVcsListener(rootMappingListener);
+        invalidateRootIndex(Boolean.FALSE);
         assert activationDisposable != null;
         Disposer.dispose(activationDisposable);
         activationDisposable = null;
@@ -255,6 +281,12 @@ public class GitVcs extends AbstractVcs implements Disposable {
         return changeProvider;
     }
 
+    @Override
+    @NotNull
+    public GitMergeProvider getMergeProvider() {
+        return mergeProvider;
+    }
+
     public void showErrors(@NotNull java.util.List<VcsException> list, @NotNull String action) {
         if (list.size() > 0) {
             StringBuffer buffer = new StringBuffer();
@@ -294,6 +326,60 @@ public class GitVcs extends AbstractVcs implements Disposable {
         return gitFileAdapter;
     }
 
+    /**
+     * @return The index of the project's current VCS roots. While the VCS is inactive nothing tells us when the
+     *         mappings change, so a fresh index is built for each call and not kept.
+     */
+    @NotNull
+    public GitRootIndex getRootIndex() {
+        GitRootIndex index = rootIndex;
+        if (index == null) {
+            int generation;
+            synchronized (rootIndexLock) {
+                generation = mappingGeneration;
+            }
+            index = new GitRootIndex(vcsManager.getAllVcsRoots());
+            synchronized (rootIndexLock) {
+                if (active && generation == mappingGeneration)   // else the mappings changed while building
+                    rootIndex = index;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Drop the cached root index, and any index being built from the old mappings.
+     *
+     * @param active Whether to cache indexes from now on, or null to leave that as it is
+     */
+    private void invalidateRootIndex(@Nullable Boolean active) {
+        synchronized (rootIndexLock) {
+            if (active != null) this.active = active;
+            mappingGeneration++;
+            rootIndex = null;
+        }
+    }
+
+    /**
+     * @return The background-maintained root snapshots, or null while the VCS is inactive
+     */
+    @Nullable
+    public GitRootStates getRootStates() {
+        return rootStates;
+    }
+
+    /**
+     * Returns the latest snapshot of the root containing a file, without running git.
+     *
+     * @param file A file under a Git root
+     * @return The snapshot, or null if none is available (yet)
+     */
+    @Nullable
+    public GitRootState getRootState(@NotNull VirtualFile file) {
+        GitRootStates states = rootStates;
+        return states == null ? null : states.getState(file);
+    }
+
     /**
      * Returns true if the specified file path is located under a directory which is managed by this VCS.
      * This method is called only for directories which are mapped to this VCS in the project configuration.
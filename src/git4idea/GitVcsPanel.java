@@ -37,6 +37,10 @@ public class GitVcsPanel {
     private JButton testButton;
     private JComponent panel;
     private TextFieldWithBrowseButton gitField;
+    private JSpinner parallelismSpinner;
+    private JCheckBox pruneCheckBox;
+    private JSpinner slowCommandSpinner;
+    private JCheckBox lazyStagingCheckBox;
     private Project project;
 
     public GitVcsPanel(@NotNull Project project) {
@@ -53,6 +57,8 @@ public class GitVcsPanel {
                 "Select path to git executable",
                 project,
                 new FileChooserDescriptor(true, false, false, false, false, false));
+        parallelismSpinner.setModel(new SpinnerNumberModel(GitVcsSettings.DEFAULT_SYNC_PARALLELISM, 1, 32, 1));
+        slowCommandSpinner.setModel(new SpinnerNumberModel(GitVcsSettings.DEFAULT_SLOW_COMMAND_MILLIS, 0, 600000, 500));
     }
 
     private void testConnection() {
@@ -79,13 +85,25 @@ public class GitVcsPanel {
 
     public void load(@NotNull GitVcsSettings settings) {
         gitField.setText(settings.GIT_EXECUTABLE);
+        parallelismSpinner.setValue(settings.SYNC_PARALLELISM);
+        pruneCheckBox.setSelected(settings.FETCH_PRUNE);
+        slowCommandSpinner.setValue(settings.SLOW_COMMAND_MILLIS);
+        lazyStagingCheckBox.setSelected(settings.LAZY_STAGING);
     }
 
     public boolean isModified(@NotNull GitVcsSettings settings) {
-        return !settings.GIT_EXECUTABLE.equals(gitField.getText());
+        return !settings.GIT_EXECUTABLE.equals(gitField.getText())
+                || settings.SYNC_PARALLELISM != (Integer) parallelismSpinner.getValue()
+                || settings.FETCH_PRUNE != pruneCheckBox.isSelected()
+                || settings.SLOW_COMMAND_MILLIS != (Integer) slowCommandSpinner.getValue()
+                || settings.LAZY_STAGING != lazyStagingCheckBox.isSelected();
     }
 
     public void save(@NotNull GitVcsSettings settings) {
         settings.GIT_EXECUTABLE = gitField.getText();
+        settings.SYNC_PARALLELISM = (Integer) parallelismSpinner.getValue();
+        settings.FETCH_PRUNE = pruneCheckBox.isSelected();
+        settings.SLOW_COMMAND_MILLIS = (Integer) slowCommandSpinner.getValue();
+        settings.LAZY_STAGING = lazyStagingCheckBox.isSelected();
     }
 }
\ No newline at end of file
@@ -43,7 +43,15 @@ public class GitVcsSettings implements PersistentStateComponent<GitVcsSettings>
     public static final String DEFAULT_LOCAL_GIT_EXEC = "/usr/local/bin/git";
     public static final String DEFAULT_UNIX_GIT_EXEC = "/usr/bin/git";
     public static final String DEFAULT_GIT_EXEC = "git";
+    public static final int DEFAULT_SYNC_PARALLELISM = 4;  // max roots fetched/pulled/pushed at once
+    public static final int DEFAULT_SLOW_COMMAND_MILLIS = 3000;  // git commands slower than this are logged
+    public static final int DEFAULT_QUERY_CACHE_MILLIS = 1000;  // how long read-only git output is reused
     public String GIT_EXECUTABLE = defaultGit();
+    public int SYNC_PARALLELISM = DEFAULT_SYNC_PARALLELISM;
+    public boolean FETCH_PRUNE = false;
+    public int SLOW_COMMAND_MILLIS = DEFAULT_SLOW_COMMAND_MILLIS;  // 0 = never
+    public int QUERY_CACHE_MILLIS = DEFAULT_QUERY_CACHE_MILLIS;  // 0 = only share queries still running
+    public boolean LAZY_STAGING = false;  // saves leave the index alone; changes are staged when committed
 
     @Override
     public GitVcsSettings getState() {
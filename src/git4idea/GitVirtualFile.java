@@ -37,7 +37,7 @@ import java.io.OutputStream;
 public class GitVirtualFile extends VirtualFile {
     private final Project project;
     private final String path;
-    private final String URL;
+    private String URL;  // built on first use
     private File file;
     private Status status;
     private static String fileSep = System.getProperty("os.name").startsWith("Windows") ? "\\" : "/";
@@ -53,7 +53,6 @@ public class GitVirtualFile extends VirtualFile {
         String p = path.replace("/", fileSep);
         this.file = new File(p);
         this.path = this.file.getAbsolutePath().replace("\\", "/");
-        this.URL = "file://" + this.path;
     }
 
     @NotNull
@@ -85,6 +84,8 @@ public class GitVirtualFile extends VirtualFile {
     @Override
     @NotNull
     public String getUrl() {
+        if (URL == null)
+            URL = "file://" + path;
         return URL;
     }
 
@@ -177,13 +178,16 @@ public class GitVirtualFile extends VirtualFile {
         if (!(obj instanceof VirtualFile))
             return false;
 
-        VirtualFile that = (VirtualFile) obj;
-        return this == that || getUrl().equals(that.getUrl());
+        if (this == obj)
+            return true;
+        if (obj instanceof GitVirtualFile)
+            return path.equals(((GitVirtualFile) obj).path);
+        return getUrl().equals(((VirtualFile) obj).getUrl());
     }
 
     public int hashCode() {
         if (path == null) return -1;
-        return getUrl().hashCode();
+        return path.hashCode();
     }
 
     public String toString() {
@@ -14,6 +14,7 @@ package git4idea;
  *
  */
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcsHelper;
 import com.intellij.openapi.vcs.VcsException;
@@ -29,6 +30,8 @@ import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
 import com.intellij.vcsUtil.VcsRunnable;
 import com.intellij.vcsUtil.VcsUtil;
 import git4idea.commands.GitCommand;
+import git4idea.commands.GitExecutor;
+import git4idea.commands.GitSingleFlight;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -36,6 +39,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -50,12 +54,18 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
     private static final String ADD_MESSAGE = "Add file(s) to Git?\n{0}";
     private static final String DEL_TITLE = "Delete file";
     private static final String DEL_MESSAGE = "Delete file(s) in Git?\n{0}";
-    private Set<String> ignoreFiles = new HashSet<String>();
-    private Set<String> knownFiles = new HashSet<String>();
+    private Set<String> ignoreFiles = Collections.synchronizedSet(new HashSet<String>());
+    private Set<String> knownFiles = Collections.synchronizedSet(new HashSet<String>());
+    private final GitIndexUpdateBuffer indexBuffer;
 
     public GitVirtualFileAdapter(@NotNull GitVcs vcs, @NotNull Project project) {
         this.vcs = vcs;
         this.project = project;
+        indexBuffer = new GitIndexUpdateBuffer(project, vcs.getSettings());
+    }
+
+    public void dispose() {
+        indexBuffer.dispose();
     }
 
     @Override
@@ -64,29 +74,36 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
 
     @Override
     public void contentsChanged(@NotNull VirtualFileEvent event) {  // keep Git repo in sync
+        repositoryFileChanged(event.getFile().getPath());
         if (event.isFromRefresh())
             return;
 
         final VirtualFile file = event.getFile();
-        if (!isFileProcessable(file))
+        if (vcs.getSettings().LAZY_STAGING) {   // staged when committed
+            statusChange(file);
             return;
-
-        VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
-        if(vcsRoot == null) return;
-        GitCommand command = new GitCommand(project, vcs.getSettings(), vcsRoot);
-        try {
-            command.add(new VirtualFile[]{event.getFile()});
-        }
-        catch (VcsException e) {
-            List<VcsException> es = new ArrayList<VcsException>();
-            es.add(e);
-            GitVcs.getInstance(project).showErrors(es, "Error syncing changes to Git index!");
         }
-        statusChange(file);
+        final VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
+        if(vcsRoot == null) return;
+        inBackground(vcsRoot, new Runnable() {
+            public void run() {
+                if (!isFileProcessable(file))
+                    return;
+                GitCommand command = new GitCommand(project, vcs.getSettings(), vcsRoot);
+                try {
+                    command.add(new VirtualFile[]{file});
+                }
+                catch (VcsException e) {
+                    showError(e, "Error syncing changes to Git index!");
+                }
+                statusChange(file);
+            }
+        });
     }
 
     @Override
     public void fileCreated(@NotNull VirtualFileEvent event) {
+        repositoryFileChanged(event.getFile().getPath());
         if (event.isFromRefresh())
             return;
 
@@ -118,20 +135,24 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
             ignoreFile(file, false);
         }
 
-        VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
-        if (filesToAdd != null && filesToAdd.size() > 0 && vcsRoot != null) {
-            GitCommand command = new GitCommand(project, vcs.getSettings(), vcsRoot);
-            try {
-                command.add(filesToAdd.toArray(new VirtualFile[filesToAdd.size()]));
-            }
-            catch (VcsException e) {
-                List<VcsException> es = new ArrayList<VcsException>();
-                es.add(e);
-                GitVcs.getInstance(project).showErrors(es, "Error adding file");
-            }
+        final VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
+        if (vcsRoot == null) {
+            statusChange(file);
+            return;
         }
-
-        statusChange(file);
+        final VirtualFile[] added = filesToAdd.toArray(new VirtualFile[filesToAdd.size()]);
+        inBackground(vcsRoot, new Runnable() {
+            public void run() {
+                GitCommand command = new GitCommand(project, vcs.getSettings(), vcsRoot);
+                try {
+                    command.add(added);
+                }
+                catch (VcsException e) {
+                    showError(e, "Error adding file");
+                }
+                statusChange(file);
+            }
+        });
     }
 
     @Override
@@ -166,22 +187,17 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
                 return;
         }
 
-        VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
-        if (filesToDelete != null && filesToDelete.size() > 0 && vcsRoot != null) {
-            GitCommand command = new GitCommand(project, vcs.getSettings(), vcsRoot);
-            try {
-                command.delete(filesToDelete.toArray(new VirtualFile[filesToDelete.size()]));
-            }
-            catch (VcsException e) {
-                List<VcsException> es = new ArrayList<VcsException>();
-                es.add(e);
-                GitVcs.getInstance(project).showErrors(es, "Error deleting file");
-            }
+        final VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
+        if (filesToDelete != null && vcsRoot != null) {
+            for (VirtualFile deleted : filesToDelete)
+                indexBuffer.delete(vcsRoot, deleted.getPath());
         }
     }
 
     @Override
     public void fileDeleted(@NotNull VirtualFileEvent event) {
+        repositoryFileChanged(event.getFile().getPath());
+        GitFileSystem.getInstance().invalidate(event.getFile().getPath());
         statusChange(event.getFile());
     }
 
@@ -194,36 +210,66 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
         if (!isFileProcessable(file))
             return;
 
+        // IDEA moves the file on disk; the index catches up when the command is over
         VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
         if(vcsRoot == null) return;
-        GitCommand command = new GitCommand(project, vcs.getSettings(), vcsRoot);
-        try {
-            String oldPath = event.getOldParent().getPath();
-            String newPath = event.getNewParent().getPath();
-            String fileName = event.getFileName();
-            VirtualFile ovf = new GitVirtualFile(project, oldPath + "/" + fileName, GitVirtualFile.Status.DELETED);
-            VirtualFile nvf = new GitVirtualFile(project, newPath + "/" + fileName, GitVirtualFile.Status.ADDED);
-            command.move(ovf, nvf);
-        }
-        catch (VcsException e) {
-            List<VcsException> es = new ArrayList<VcsException>();
-            es.add(e);
-            GitVcs.getInstance(project).showErrors(es, "Error moving file");
-        }
+        String fileName = event.getFileName();
+        indexBuffer.move(vcsRoot, event.getOldParent().getPath() + "/" + fileName,
+                VcsUtil.getVcsRootFor(project, event.getNewParent()), event.getNewParent().getPath() + "/" + fileName);
     }
 
     @Override
     public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+        repositoryFileChanged(event.getNewParent().getPath() + "/" + event.getFileName());
+        GitFileSystem.getInstance().invalidate(event.getOldParent().getPath() + "/" + event.getFileName());
         statusChange(event.getOldParent());
         statusChange(event.getNewParent());
     }
 
+    /**
+     * Run git work for a root on the git worker pool rather than in the listener, which is called on the event
+     * dispatch thread. Work for a root runs in the order it was queued.
+     */
+    private static void inBackground(@NotNull VirtualFile vcsRoot, @NotNull Runnable work) {
+        GitExecutor.getInstance().execute(GitExecutor.Priority.INTERACTIVE, vcsRoot.getPath(), work);
+    }
+
+    private void showError(@NotNull final VcsException e, @NotNull final String action) {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                List<VcsException> es = new ArrayList<VcsException>();
+                es.add(e);
+                GitVcs.getInstance(project).showErrors(es, action);
+            }
+        });
+    }
+
+    /**
+     * Drop cached repository state (refs, config) when something under a .git directory changes, and cached
+     * query output when anything in a root does.
+     */
+    private static void repositoryFileChanged(@NotNull String path) {
+        GitRefCache.getInstance().fileChanged(path);
+        GitConfig.fileChanged(path);
+        GitSingleFlight.getInstance().fileChanged(path);
+    }
+
     @Override
     public void propertyChanged(@NotNull VirtualFilePropertyEvent event) {  // do nothing
     }
 
     @Override
     public void beforePropertyChange(@NotNull VirtualFilePropertyEvent event) {
+        if (event.isFromRefresh() || !VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+            return;
+
+        final VirtualFile file = event.getFile();
+        VirtualFile parent = file.getParent();
+        if (parent == null || !isFileProcessable(file))
+            return;
+        VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
+        if (vcsRoot == null) return;
+        indexBuffer.move(vcsRoot, file.getPath(), vcsRoot, parent.getPath() + "/" + event.getNewValue());
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -233,7 +279,7 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
     }
 
     public boolean move(VirtualFile file, VirtualFile toDir) throws IOException {
-        return true;
+        return false;   // let IDEA move it; see beforeFileMovement()
     }
 
     @Nullable
@@ -332,6 +378,10 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
             return false;
         }
 
+        GitRootState state = vcs.getRootState(file);
+        if (state != null && (state.isTracked(file) || state.isUntracked(file)))
+            return state.isTracked(file);   // answered from memory; not cached, as the snapshot tracks later changes
+
         GitCommand command = new GitCommand(project, vcs.getSettings(), vcsRoot);
         try {
             if(command.status(file)) {
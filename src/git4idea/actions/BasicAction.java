@@ -16,16 +16,20 @@ package git4idea.actions;
  *
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
+import git4idea.GitRefreshBatch;
 import git4idea.GitVcs;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -55,11 +59,9 @@ public abstract class BasicAction extends AnAction {
         }
 
         String actionName = getActionName(vcs);
-        AbstractVcsHelper helper = AbstractVcsHelper.getInstance(project);
+        final AbstractVcsHelper helper = AbstractVcsHelper.getInstance(project);
 
-        //Runs the runnable inside the vcs transaction (if needed), collects all exceptions, commits/rollbacks transaction and returns all exceptions together.
-        List<VcsException> exceptions = helper.runTransactionRunnable(
-                vcs, new TransactionRunnable() {
+        final TransactionRunnable transaction = new TransactionRunnable() {
             public void run(List<VcsException> exceptions) {
                 final VirtualFile[] affectedFiles = collectAffectedFiles(project, vFiles);
                 //noinspection unchecked
@@ -69,10 +71,22 @@ public abstract class BasicAction extends AnAction {
                 catch (VcsException e) {
                     exceptions.add(e);
                 }
-                refreshFiles(project, affectedFiles);
+                if (!acceptsDirectories())
+                    refreshFiles(project, affectedFiles);
             }
 
-        }, null);
+        };
+        //Runs the runnable inside the vcs transaction (if needed), collects all exceptions, commits/rollbacks transaction and returns all exceptions together.
+        final List<VcsException> exceptions = new ArrayList<VcsException>();
+        if (runInBackground()) {
+            ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+                public void run() {
+                    exceptions.addAll(helper.runTransactionRunnable(vcs, transaction, null));
+                }
+            }, actionName + "...", false, project);
+        } else {
+            exceptions.addAll(helper.runTransactionRunnable(vcs, transaction, null));
+        }
         vcs.showErrors(exceptions, actionName);
     }
 
@@ -91,13 +105,26 @@ public abstract class BasicAction extends AnAction {
 
     }
 
+    /**
+     * Refresh the files a git command reported touching, in a single batch, and mark them dirty. Used by
+     * actions that pass directories to git and so don't know the affected files up front.
+     *
+     * @param project The project
+     * @param files   The files git touched
+     */
+    protected static void refreshTouched(@NotNull Project project, @NotNull Collection<File> files) {
+        GitRefreshBatch refresh = new GitRefreshBatch(project);
+        refresh.addAll(files);
+        refresh.flush();
+    }
+
     protected abstract void perform(@NotNull Project project, GitVcs mksVcs, @NotNull List<VcsException> exceptions,
                                     @NotNull VirtualFile[] affectedFiles) throws VcsException;
 
     /**
      * given a list of action-target files, returns ALL the files that should be
      * subject to the action Does not keep directories, but recursively adds
-     * directory contents
+     * directory contents, unless the action {@link #acceptsDirectories() accepts directories}
      *
      * @param project the project subject of the action
      * @param files   the root selection
@@ -111,7 +138,10 @@ public abstract class BasicAction extends AnAction {
             if (!file.isDirectory() && projectLevelVcsManager.getVcsFor(file) instanceof GitVcs) {
                 affectedFiles.add(file);
             } else if (file.isDirectory() && isRecursive()) {
-                addChildren(project, affectedFiles, file);
+                if (!acceptsDirectories())
+                    addChildren(project, affectedFiles, file);
+                else if (projectLevelVcsManager.getVcsFor(file) instanceof GitVcs)
+                    affectedFiles.add(file);
             }
 
         }
@@ -146,6 +176,28 @@ public abstract class BasicAction extends AnAction {
         return true;
     }
 
+    /**
+     * Returns true if the action hands selected directories straight to git as pathspecs, rather than having
+     * them expanded into their files. Such actions refresh the files git reports via
+     * {@link #refreshTouched(Project, Collection)}.
+     *
+     * @return true to receive directories in perform()
+     */
+    protected boolean acceptsDirectories() {
+        return false;
+    }
+
+    /**
+     * Returns true if perform() only runs git & shows no UI, so it can run on a pooled thread under a modal
+     * progress indicator instead of blocking the event dispatch thread. Such actions must
+     * {@link #acceptsDirectories() accept directories}, as the per-file refresh needs the dispatch thread.
+     *
+     * @return true to run perform() off the event dispatch thread
+     */
+    protected boolean runInBackground() {
+        return false;
+    }
+
     protected boolean appliesTo(@NotNull Project project, @NotNull VirtualFile file) {
         return !file.isDirectory();
     }
@@ -185,6 +237,8 @@ public abstract class BasicAction extends AnAction {
     protected abstract boolean isEnabled(@NotNull Project project, @NotNull GitVcs mksvcs, @NotNull VirtualFile... vFiles);
 
     protected void saveAll() {
+        if (!ApplicationManager.getApplication().isDispatchThread())
+            return;  // running in the background; actionPerformed() has already saved everything
         ApplicationManager.getApplication().runWriteAction(
                 new Runnable() {
                     public void run() {
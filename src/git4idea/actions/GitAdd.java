@@ -16,17 +16,20 @@ package git4idea.actions;
  *
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
+import git4idea.GitRefreshBatch;
+import git4idea.GitRootState;
 import git4idea.GitUtil;
 import git4idea.GitVcs;
 import git4idea.GitVcsSettings;
 import git4idea.commands.GitCommand;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.*;
-import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -45,19 +48,25 @@ public class GitAdd extends BasicAction {
 
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, affectedFiles);
 
+        List<File> added = new ArrayList<File>();
         for (VirtualFile root : roots.keySet()) {
             GitCommand command = new GitCommand(project, vcs.getSettings(), root);
             List<VirtualFile> list = roots.get(root);
             VirtualFile[] vfiles = list.toArray(new VirtualFile[list.size()]);
-            command.add(vfiles);
+            added.addAll(command.add(vfiles));
             vcs.getFileAdapter().ignoreFiles(vfiles, false);
         }
+        refreshTouched(project, added);
+    }
 
-        VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
-        for (VirtualFile file : affectedFiles) {
-            mgr.fileDirty(file);
-            file.refresh(true, true);
-        }
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
+    @Override
+    protected boolean runInBackground() {
+        return true;
     }
 
     /** Add the specified files to the project.
@@ -68,6 +77,8 @@ public class GitAdd extends BasicAction {
      */
     public static void addFiles(@NotNull Project project, @NotNull VirtualFile[] files) throws VcsException {
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, files);
+        GitRefreshBatch refresh = new GitRefreshBatch(project);
+        refresh.addAll(files);
         for (VirtualFile root : roots.keySet()) {
             GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), root);
             List<VirtualFile> list = roots.get(root);
@@ -77,12 +88,7 @@ public class GitAdd extends BasicAction {
             GitVcs vcs = (GitVcs) VcsUtil.getVcsFor(project, vfiles[0]);
             vcs.getFileAdapter().ignoreFiles(vfiles, false);
         }
-
-        VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
-        for (VirtualFile file : files) {
-            mgr.fileDirty(file);
-            file.refresh(true, true);
-        }
+        refresh.flush();
     }
 
     @Override
@@ -93,9 +99,11 @@ public class GitAdd extends BasicAction {
 
     @Override
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
-        for (VirtualFile file : vFiles)
-            return !vcs.getFileAdapter().isFileProcessable(file);
-        
+        for (VirtualFile file : vFiles) {
+            GitRootState state = vcs.getRootState(file);
+            return state == null || !state.isTracked(file);
+        }
+
         return true;
     }
 }
\ No newline at end of file
@@ -81,6 +81,7 @@ public class GitCheckout extends BasicAction {
             GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
             cmdr.setCommand(GitCommand.CHECKOUT_CMD);
             cmdr.setArgs(args);
+            cmdr.setRefreshChanges(true);
 
             ProgressManager manager = ProgressManager.getInstance();
             //TODO: make this async so the git command output can be seen in the version control window as it happens...
@@ -98,6 +99,17 @@ public class GitCheckout extends BasicAction {
         return "Checkout";
     }
 
+    /* works on every root, not the selection; the tree snapshot refreshes whatever git changed */
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
+    @Override
+    protected boolean isRecursive() {
+        return false;
+    }
+
     @Override
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
         return true;
@@ -21,15 +21,17 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
-import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitRefreshBatch;
+import git4idea.GitRootState;
 import git4idea.GitUtil;
 import git4idea.GitVcs;
 import git4idea.GitVcsSettings;
-import git4idea.GitVirtualFileAdapter;
 import git4idea.commands.GitCommand;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -47,35 +49,37 @@ public class GitDelete extends BasicAction {
 
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, affectedFiles);
 
+        List<File> deleted = new ArrayList<File>();
         for (VirtualFile root : roots.keySet()) {
             GitCommand command = new GitCommand(project, vcs.getSettings(), root);
             List<VirtualFile> list = roots.get(root);
             VirtualFile[] vfiles = list.toArray(new VirtualFile[list.size()]);
-            command.delete(vfiles);
+            deleted.addAll(command.delete(vfiles));
         }
+        refreshTouched(project, deleted);
+    }
 
-        VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
-        for (VirtualFile file : affectedFiles) {
-            mgr.fileDirty(file);
-            file.refresh(true, true);
-        }
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
 
+    @Override
+    protected boolean runInBackground() {
+        return true;
     }
 
     public static void deleteFiles(@NotNull Project project, @NotNull VirtualFile[] files) throws VcsException {
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, files);
+        GitRefreshBatch refresh = new GitRefreshBatch(project);
+        refresh.addAll(files);
         for (VirtualFile root : roots.keySet()) {
             GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), root);
             List<VirtualFile> list = roots.get(root);
             VirtualFile[] vfiles = list.toArray(new VirtualFile[list.size()]);
             command.delete(vfiles);
         }
-
-        VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
-        for (VirtualFile file : files) {
-            mgr.fileDirty(file);
-            file.refresh(true, true);
-        }
+        refresh.flush();
     }
 
     @Override
@@ -86,9 +90,10 @@ public class GitDelete extends BasicAction {
 
     @Override
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
-        GitVirtualFileAdapter fa = vcs.getFileAdapter();
-        for (VirtualFile file : vFiles)
-            return fa.isFileProcessable(file);
+        for (VirtualFile file : vFiles) {
+            GitRootState state = vcs.getRootState(file);
+            return state == null || !state.isUntracked(file);
+        }
 
         return true;
     }
@@ -23,56 +23,108 @@ import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.progress.ProgressManager;
+import git4idea.GitRefCache;
 import git4idea.GitVcs;
-import git4idea.GitBranch;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitCommandRunnable;
+import git4idea.commands.GitMultiRootSync;
+import git4idea.commands.GitRefUpdate;
+import git4idea.commands.GitSingleFlight;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Git "fetch" action
  */
 public class GitFetch extends BasicAction {
     @Override
-    protected void perform(@NotNull Project project, GitVcs vcs, @NotNull List<VcsException> exceptions,
+    protected void perform(@NotNull Project project, GitVcs vcs, @NotNull final List<VcsException> exceptions,
                            @NotNull VirtualFile[] affectedFiles) throws VcsException {
         saveAll();
+        fetchAll(project, vcs, exceptions, "Enter remote repository URL to fetch (empty for default):", "Fetch URL");
+    }
 
+    /**
+     * Fetch branches & tags for all Git roots of the project, one transfer per root, running the roots in
+     * parallel.
+     *
+     * @param project    The project
+     * @param vcs        The Git VCS
+     * @param exceptions Collects the errors of all roots
+     * @param message    The URL prompt message
+     * @param title      The URL prompt title
+     * @return The refs updated in each root that was fetched without errors
+     * @throws VcsException If an error occurs preparing the fetch
+     */
+    @NotNull
+    static Map<VirtualFile, List<GitRefUpdate>> fetchAll(@NotNull Project project, @NotNull GitVcs vcs,
+                                                         @NotNull final List<VcsException> exceptions,
+                                                         @NotNull String message, @NotNull String title)
+            throws VcsException {
         final VirtualFile[] roots = ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(vcs);
-        for (VirtualFile root : roots) {
+        final GitMultiRootSync sync = new GitMultiRootSync(project, vcs.getSettings());
+        Map<VirtualFile, GitCommandRunnable> fetches = new LinkedHashMap<VirtualFile, GitCommandRunnable>();
+        for (VirtualFile root : roots) {   // ask for every root's URL before starting any network I/O
+            String repoURL = askRepoURL(project, vcs, root, message, title);
+            if (repoURL == null) continue;
             GitCommand command = new GitCommand(project, vcs.getSettings(), root);
+            GitCommandRunnable cmdr = sync.addStep(root, GitCommand.FETCH_CMD,
+                    command.fetchArgs(repoURL, vcs.getSettings().FETCH_PRUNE));
+            cmdr.saveOutput(true);
+            cmdr.setInvalidateCaches(false);    // only the refs fetch reports are dropped, below
+            fetches.put(root, cmdr);
+        }
 
-            String initialValue = null;
-            List<GitBranch> rbranches = command.branchList(true);
-            if (rbranches != null && rbranches.size() > 0) {
-                initialValue = command.remoteRepoURL(rbranches.get(0));
-            }
-            String repoURL = Messages.showInputDialog(project,
-                    "Enter remote repository URL to fetch (empty for default):",
-                    "Fetch URL", Messages.getQuestionIcon(), initialValue, null);
-
-            GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
-            cmdr.setCommand(GitCommand.FETCH_CMD);
-            cmdr.setArgs(new String[]{repoURL});
-
-            ProgressManager manager = ProgressManager.getInstance();
-            manager.runProcessWithProgressSynchronously(cmdr, "Fetching from " + repoURL, false, project);
+        Map<VirtualFile, List<GitRefUpdate>> updates = new LinkedHashMap<VirtualFile, List<GitRefUpdate>>();
+        if (sync.isEmpty()) return updates;
 
-            VcsException ex = cmdr.getException();
-            if (ex != null) {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git fetch'");
-                return;
+        ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+            public void run() {
+                exceptions.addAll(sync.run());
             }
+        }, "Fetching " + fetches.size() + " roots", true, project);
 
-            cmdr.setArgs(new String[] { "--tags", repoURL });
-            manager.runProcessWithProgressSynchronously(cmdr, "Updating tags from " + repoURL, false, project);
-            ex = cmdr.getException();
-            if(ex != null)  {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git fetch --tags'");
-                return;
+        for (Map.Entry<VirtualFile, GitCommandRunnable> entry : fetches.entrySet()) {
+            VirtualFile root = entry.getKey();
+            GitCommandRunnable cmdr = entry.getValue();
+            if (cmdr.getException() != null) {  // a failed or cancelled fetch may have moved some refs
+                GitRefCache.getInstance().invalidate(root);
+                GitSingleFlight.getInstance().invalidate(root.getPath());
+                continue;
+            }
+            List<GitRefUpdate> rootUpdates = GitRefUpdate.parseFetchOutput(cmdr.getOutput());
+            List<String> changedRefs = new ArrayList<String>();
+            int changed = 0;
+            for (GitRefUpdate update : rootUpdates) {
+                if (!update.isChanged() || update.getLocalRef().equals("FETCH_HEAD")) continue;
+                changed++;
+                changedRefs.addAll(update.getFullLocalRefs());
             }
+            if (changed > 0) {
+                GitRefCache.getInstance().refsUpdated(root, changedRefs);
+                GitSingleFlight.getInstance().invalidate(root.getPath());
+            }
+            vcs.showMessages(root.getPath() + ": " + changed + " refs updated");
+            updates.put(root, rootUpdates);
         }
+        return updates;
+    }
+
+    /**
+     * Prompt for the remote repository URL to use for the specified root.
+     *
+     * @return The URL, an empty string for the default remote or null if the user cancelled
+     */
+    static String askRepoURL(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile root,
+                             @NotNull String message, @NotNull String title) throws VcsException {
+        GitCommand command = new GitCommand(project, vcs.getSettings(), root);
+
+        String initialValue = command.defaultRemoteURL();
+        return Messages.showInputDialog(project, message + "\n" + root.getPath(), title,
+                Messages.getQuestionIcon(), initialValue, null);
     }
 
     @Override
@@ -81,6 +133,17 @@ public class GitFetch extends BasicAction {
         return "Fetch";
     }
 
+    /* fetch only moves refs, so there are no files to refresh afterwards */
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
+    @Override
+    protected boolean isRecursive() {
+        return false;
+    }
+
     @Override
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
         return true;
@@ -17,6 +17,7 @@ package git4idea.actions;
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
 import git4idea.GitBranch;
+import git4idea.GitMergePreview;
 import git4idea.GitVcs;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitCommandRunnable;
@@ -35,6 +36,8 @@ import java.util.List;
  * Git "merge" action
  */
 public class GitMerge extends BasicAction {
+    private static final int MAX_LISTED_CONFLICTS = 15;
+
     @Override
     protected void perform(@NotNull Project project, GitVcs vcs, @NotNull List<VcsException> exceptions,
                            @NotNull VirtualFile[] affectedFiles) throws VcsException {
@@ -64,10 +67,13 @@ public class GitMerge extends BasicAction {
                 return;
 
             selectedBranch = branches.get(branchNum);
-            
+            if (!confirmMerge(project, vcs, root, selectedBranch.getName()))
+                return;
+
             GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
             cmdr.setCommand(GitCommand.MERGE_CMD);
             cmdr.setArgs(new String[] { selectedBranch.getName() });
+            cmdr.setRefreshChanges(true);
 
             ProgressManager manager = ProgressManager.getInstance();
             //TODO: make this async so the git command output can be seen in the version control window as it happens...
@@ -81,12 +87,59 @@ public class GitMerge extends BasicAction {
         }
     }
 
+    /**
+     * Preview a merge with a tree-only merge, and ask before going ahead with one predicted to conflict.
+     *
+     * @return True if the merge should go ahead
+     */
+    static boolean confirmMerge(@NotNull final Project project, @NotNull final GitVcs vcs,
+                                @NotNull final VirtualFile root, @NotNull final String branch) {
+        final GitMergePreview[] preview = new GitMergePreview[1];
+        ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+            public void run() {
+                try {
+                    preview[0] = new GitCommand(project, vcs.getSettings(), root).previewMerge(branch);
+                } catch (VcsException e) {  // no prediction: merge as before
+                    vcs.showMessages("Merge preview failed: " + e.getMessage());
+                }
+            }
+        }, "Previewing merge of " + branch, true, project);
+        if (preview[0] == null)
+            return true;
+
+        vcs.showMessages("Merge preview of " + branch + ": " + preview[0].getSummary());
+        if (!preview[0].hasConflicts())
+            return true;
+
+        StringBuilder message = new StringBuilder();
+        message.append("Merging ").append(branch).append(" into ").append(root.getPresentableUrl())
+                .append(" is predicted to conflict in:\n");
+        List<String> conflicts = preview[0].getConflicts();
+        for (int i = 0; i < conflicts.size() && i < MAX_LISTED_CONFLICTS; i++)
+            message.append("    ").append(conflicts.get(i)).append("\n");
+        if (conflicts.size() > MAX_LISTED_CONFLICTS)
+            message.append("    ... and ").append(conflicts.size() - MAX_LISTED_CONFLICTS).append(" more\n");
+        message.append("\n").append(preview[0].getSummary()).append(". Merge anyway?");
+        return Messages.showYesNoDialog(project, message.toString(), "Merge Preview", Messages.getWarningIcon()) == 0;
+    }
+
     @Override
     @NotNull
     protected String getActionName(@NotNull AbstractVcs abstractvcs) {
         return "Merge";
     }
 
+    /* works on every root, not the selection; the tree snapshot refreshes whatever git changed */
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
+    @Override
+    protected boolean isRecursive() {
+        return false;
+    }
+
     @Override
     @SuppressWarnings({"EmptyCatchBlock"})
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
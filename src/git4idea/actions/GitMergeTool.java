@@ -16,31 +16,29 @@ package git4idea.actions;
  *
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
+import git4idea.GitMergeProvider;
 import git4idea.GitVcs;
 import git4idea.GitUtil;
-import git4idea.commands.GitCommand;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.AbstractVcsHelper;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Git merge tool for resolving conflicts
  *
- * You'll need to add a stanza something like the following in your .git/config file for the affected repository. The
- * mergetool must point to a Git supported merge tool.  Note that on MS-Windwos when using the Cygwin version of git,
- * you need to specifiy a valid Cygwin path to the actual merge tool since it will be called from within a Cygwin
- * environment.
- *
- * [mergetool "kdiff3"]
- *    path = /cygdrive/c/Program Files/KDiff3/kdiff3.exe
- * [merge]
- *    tool = kdiff3
+ * Opens IDEA's own merge dialog on the selected files that have conflicts, with the base, ours & theirs versions
+ * supplied by {@link GitMergeProvider}. Files merged in the dialog are staged as resolved. No external merge tool
+ * or git "mergetool" configuration is needed.
  */
 public class GitMergeTool extends BasicAction {
     @Override
@@ -52,18 +50,30 @@ public class GitMergeTool extends BasicAction {
             return;
 
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, affectedFiles);
+        final GitMergeProvider provider = vcs.getMergeProvider();
+        final List<VirtualFile> conflicts = new ArrayList<VirtualFile>();
+        final List<VcsException> loadErrors = new ArrayList<VcsException>();
 
-        for (VirtualFile root : roots.keySet()) {
-            GitCommand command = new GitCommand(project, vcs.getSettings(), root);
-            List<VirtualFile> files = roots.get(root);
-            if(files == null || files.size() == 0) continue;
-            String[] fileNames = new String[files.size()];
-            int i=0;
-            for (VirtualFile file : files) {
-                fileNames[i++] = command.getRelativeFilePath(file, root);
+        // read the versions of all conflicted files up front, off the event dispatch thread
+        ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+            public void run() {
+                for (Map.Entry<VirtualFile, List<VirtualFile>> entry : roots.entrySet()) {
+                    try {
+                        conflicts.addAll(provider.findConflicts(entry.getKey(), entry.getValue()));
+                    } catch (VcsException e) {
+                        loadErrors.add(e);
+                    }
+                }
             }
-            command.mergetool(fileNames);
+        }, "Loading merge conflicts...", false, project);
+        exceptions.addAll(loadErrors);
+
+        if (conflicts.isEmpty()) {
+            if (loadErrors.isEmpty())
+                Messages.showInfoMessage(project, "None of the selected files have merge conflicts", "Merge Conflicts");
+            return;
         }
+        AbstractVcsHelper.getInstance(project).showMergeDialog(conflicts, provider);
     }
 
     @Override
@@ -20,9 +20,9 @@ import git4idea.GitVcs;
 import git4idea.GitBranch;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitCommandRunnable;
+import git4idea.commands.GitRefUpdate;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
-import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
@@ -31,54 +31,43 @@ import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 
 import javax.swing.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Git "pull" action
  */
 public class GitPull extends BasicAction {
     @Override
-    protected void perform(@NotNull Project project, GitVcs vcs, @NotNull List<VcsException> exceptions,
+    protected void perform(@NotNull Project project, GitVcs vcs, @NotNull final List<VcsException> exceptions,
                            @NotNull VirtualFile[] affectedFiles) throws VcsException {
         saveAll();
 
-        final VirtualFile[] roots = ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(vcs);
-        for (VirtualFile root : roots) {
-            GitCommand command = new GitCommand(project, vcs.getSettings(), root);
-
-            String initialValue = null;
-            List<GitBranch> rbranches = command.branchList(true);
-            if (rbranches != null && rbranches.size() > 0) {
-                initialValue = command.remoteRepoURL(rbranches.get(0));
-            }
-            String repoURL = Messages.showInputDialog(project,
-                    "Enter remote repository URL to pull/merge (empty for default):",
-                    "Pull URL", Messages.getQuestionIcon(), initialValue, null);
-
-            GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
-            cmdr.setCommand(GitCommand.FETCH_CMD);
-            cmdr.setArgs(new String[] { repoURL });
-
-            ProgressManager manager = ProgressManager.getInstance();
-            manager.runProcessWithProgressSynchronously(cmdr, "Fetching from " + repoURL, false, project);
-
-            VcsException ex = cmdr.getException();
-            if(ex != null)  {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git fetch'");
-                return;
-            }
+        List<VcsException> fetchErrors = new ArrayList<VcsException>();
+        Map<VirtualFile, List<GitRefUpdate>> fetched = GitFetch.fetchAll(project, vcs, fetchErrors,
+                "Enter remote repository URL to pull/merge (empty for default):", "Pull URL");
+        if (!fetchErrors.isEmpty()) {   // don't merge anything on top of a partial fetch
+            exceptions.addAll(fetchErrors);
+            return;
+        }
 
-            cmdr.setArgs(new String[] { "--tags", repoURL });
-            manager.runProcessWithProgressSynchronously(cmdr, "Updating tags from " + repoURL, false, project);
-            ex = cmdr.getException();
-            if(ex != null)  {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git fetch --tags'");
-                return;
+        ProgressManager manager = ProgressManager.getInstance();
+        for (Map.Entry<VirtualFile, List<GitRefUpdate>> entry : fetched.entrySet()) {
+            VirtualFile root = entry.getKey();
+            GitCommand command = new GitCommand(project, vcs.getSettings(), root);
+            List<GitBranch> branches = new ArrayList<GitBranch>(command.branchList());
+            GitBranch selectedBranch = null;
+            for (GitRefUpdate update : entry.getValue()) {  // offer the tracking branches this fetch just moved
+                if (update.isTag() || !update.isChanged() || update.getType() == GitRefUpdate.Type.DELETED
+                        || update.getLocalRef().equals("FETCH_HEAD"))
+                    continue;
+                GitBranch b = new GitBranch(project, update.getLocalRef(), false, true);
+                branches.add(b);
+                if (selectedBranch == null)
+                    selectedBranch = b;
             }
-
-            List<GitBranch> branches = command.branchList();
             String[] branchesList = new String[branches.size()];
-            GitBranch selectedBranch = null;
             int i = 0;
             for (GitBranch b : branches) {
                  if (!b.isActive() && selectedBranch == null)
@@ -96,11 +85,15 @@ public class GitPull extends BasicAction {
             }
 
             selectedBranch = branches.get(branchNum);
+            if (!GitMerge.confirmMerge(project, vcs, root, selectedBranch.getName()))
+                return;
+            GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
             cmdr.setCommand(GitCommand.MERGE_CMD);
             cmdr.setArgs( new String[] { selectedBranch.getName() });
+            cmdr.setRefreshChanges(true);
             //TODO: make this async so the git command output can be seen in the version control window as it happens...
             manager.runProcessWithProgressSynchronously(cmdr, "Merging branch " + selectedBranch.getName(), false, project);
-            ex = cmdr.getException();
+            VcsException ex = cmdr.getException();
             if(ex != null)  {
                 Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git merge'");
             }
@@ -113,6 +106,17 @@ public class GitPull extends BasicAction {
         return "Pull";
     }
 
+    /* works on every root, not the selection; the tree snapshot refreshes whatever git changed */
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
+    @Override
+    protected boolean isRecursive() {
+        return false;
+    }
+
     @Override
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
         return true;
@@ -18,14 +18,13 @@ package git4idea.actions;
  */
 import git4idea.GitVcs;
 import git4idea.commands.GitCommand;
-import git4idea.commands.GitCommandRunnable;
+import git4idea.commands.GitMultiRootSync;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.progress.ProgressManager;
-import com.intellij.openapi.ui.Messages;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
@@ -35,28 +34,23 @@ import java.util.List;
  */
 public class GitPush extends BasicAction {
     @Override
-    protected void perform(@NotNull Project project, GitVcs vcs, @NotNull List<VcsException> exceptions,
+    protected void perform(@NotNull Project project, GitVcs vcs, @NotNull final List<VcsException> exceptions,
                            @NotNull VirtualFile[] affectedFiles) throws VcsException {
         saveAll();
         
         final VirtualFile[] roots = ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(vcs);
+        final GitMultiRootSync sync = new GitMultiRootSync(project, vcs.getSettings());
         for (VirtualFile root : roots) {
-            GitCommand command = new GitCommand(project, vcs.getSettings(), root);
-            command.push();
-
-            GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
-            cmdr.setCommand(GitCommand.PUSH_CMD);
-            cmdr.setArgs(new String[] { "--mirror" });
-
-            ProgressManager manager = ProgressManager.getInstance();
-            manager.runProcessWithProgressSynchronously(cmdr, "Pushing all commited changes, refs & tags to remote repos",
-                    false, project);
+            sync.addStep(root, GitCommand.PUSH_CMD);
+            sync.addStep(root, GitCommand.PUSH_CMD, "--tags");
+            sync.addStep(root, GitCommand.PUSH_CMD, "--mirror");
+        }
 
-            VcsException ex = cmdr.getException();
-            if(ex != null)  {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git push --mirror'");
+        ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+            public void run() {
+                exceptions.addAll(sync.run());
             }
-        }
+        }, "Pushing all commited changes, refs & tags to remote repos", true, project);
     }
 
     @Override
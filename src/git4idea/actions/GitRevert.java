@@ -16,6 +16,7 @@ package git4idea.actions;
  *
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
+import git4idea.GitRootState;
 import git4idea.GitUtil;
 import git4idea.GitVcs;
 import git4idea.GitVcsSettings;
@@ -25,10 +26,11 @@ import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusManager;
 import com.intellij.openapi.vcs.VcsException;
-import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -42,16 +44,22 @@ public class GitRevert extends BasicAction {
         saveAll();
 
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, affectedFiles);
+        List<File> reverted = new ArrayList<File>();
         for (VirtualFile root : roots.keySet()) {
             GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), root);
-            command.revert(roots.get(root));
+            reverted.addAll(command.revert(roots.get(root)));
         }
+        refreshTouched(project, reverted);
+    }
 
-        VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
-        for (VirtualFile file : affectedFiles) {
-            mgr.fileDirty(file);
-            file.refresh(true, true);
-        }
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
+    @Override
+    protected boolean runInBackground() {
+        return true;
     }
 
     @Override
@@ -63,7 +71,9 @@ public class GitRevert extends BasicAction {
     @Override
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
         for (VirtualFile file : vFiles) {
-            if (!vcs.getFileAdapter().isFileProcessable(file)) return false;
+            GitRootState state = vcs.getRootState(file);
+            if (state != null && state.isUntracked(file)) return false;
+            if (file.isDirectory()) continue;
             FileStatus status = FileStatusManager.getInstance(project).getStatus(file);
             if (status == FileStatus.UNKNOWN || status == FileStatus.NOT_CHANGED)
                 return false;
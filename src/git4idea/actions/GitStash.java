@@ -52,6 +52,7 @@ public class GitStash extends BasicAction {
             GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
             cmdr.setCommand(GitCommand.STASH_CMD);
             cmdr.setArgs(new String[]{ "save", stashName} );
+            cmdr.setRefreshChanges(true);
 
             ProgressManager manager = ProgressManager.getInstance();
             //TODO: make this async so the git command output can be seen in the version control window as it happens...
@@ -70,6 +71,12 @@ public class GitStash extends BasicAction {
         return "Stash";
     }
 
+    /* only the roots of the selection matter; the tree snapshot refreshes whatever git changed */
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs mksvcs, @NotNull VirtualFile... vFiles) {
         return true;
     }
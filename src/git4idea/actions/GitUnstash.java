@@ -20,6 +20,7 @@ import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.progress.ProgressManager;
+import git4idea.GitRootState;
 import git4idea.GitVcs;
 import git4idea.GitUtil;
 import git4idea.commands.GitCommand;
@@ -52,6 +53,7 @@ public class GitUnstash extends BasicAction {
             cmdr.setCommand(GitCommand.STASH_CMD);
             String stashName = stashList[stashIndex].split(":")[0];
             cmdr.setArgs(new String[]{"apply", stashName});
+            cmdr.setRefreshChanges(true);
 
             ProgressManager manager = ProgressManager.getInstance();
             //TODO: make this async so the git command output can be seen in the version control window as it happens...
@@ -70,22 +72,20 @@ public class GitUnstash extends BasicAction {
         return "UnStash";
     }
 
+    /* only the roots of the selection matter; the tree snapshot refreshes whatever git changed */
+    @Override
+    protected boolean acceptsDirectories() {
+        return true;
+    }
+
     protected boolean isEnabled(@NotNull Project project, @NotNull GitVcs vcs, @NotNull VirtualFile... vFiles) {
         if (!ProjectLevelVcsManager.getInstance(project).checkAllFilesAreUnder(GitVcs.getInstance(project), vFiles))
             return false;
 
-        final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, vFiles);
-
-        try {
-            for (VirtualFile root : roots.keySet()) {
-                GitCommand command = new GitCommand(project, vcs.getSettings(), root);
-                String[] slist = command.stashList();
-                if (slist != null && slist.length > 0) return true;
-            }
-        } catch (VcsException e) {
-            return false;
+        for (VirtualFile file : vFiles) {
+            GitRootState state = vcs.getRootState(file);
+            if (state == null || state.getStashCount() > 0) return true;  // not known yet: perform() will check
         }
-
         return false;
     }
 }
\ No newline at end of file
@@ -17,52 +17,71 @@ package git4idea.commands;
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
-import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
+import com.intellij.openapi.vcs.changes.LocalChangeList;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.EnvironmentUtil;
 import git4idea.GitBranch;
+import git4idea.GitCommitGraph;
+import git4idea.GitConfig;
 import git4idea.GitContentRevision;
 import git4idea.GitFileAnnotation;
 import git4idea.GitFileRevision;
+import git4idea.GitIndexReader;
+import git4idea.GitMergePreview;
+import git4idea.GitObjectDatabase;
+import git4idea.GitRefCache;
+import git4idea.GitRefreshBatch;
+import git4idea.GitRefSnapshot;
 import git4idea.GitRevisionNumber;
 import git4idea.GitUtil;
 import git4idea.GitVcs;
+import git4idea.GitStatusEntry;
 import git4idea.GitVcsSettings;
 import git4idea.GitVirtualFile;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Worker class for executing Git system commands.
@@ -90,15 +109,18 @@ public class GitCommand {
     public static final String MOVE_CMD = "mv";
     public static final String PULL_CMD = "pull";
     public static final String PUSH_CMD = "push";
-    private static final String REBASE_CMD = "rebase";
+    public static final String REBASE_CMD = "rebase";
     private static final String REVERT_CMD = "checkout";
     private static final String SHOW_CMD = "show";
     public static final String TAG_CMD = "tag";
     private static final String VERSION_CMD = "version";
     public static final String STASH_CMD = "stash";
-    public static final String MERGETOOL_CMD = "mergetool";
     public static final String STATUS_CMD = "ls-files";
     private static final String DIFF_TREE_CMD = "diff-tree";
+    private static final String UPDATE_INDEX_CMD = "update-index";
+    private static final String REV_PARSE_CMD = "rev-parse";
+    private static final String CAT_FILE_CMD = "cat-file";
+    private static final String MERGE_TREE_CMD = "merge-tree";
 
     private static String fileSep = System.getProperty("os.name").startsWith("Windows") ? "\\" : "/";
     private static String pathSep = System.getProperty("path.separator", ";");
@@ -107,6 +129,11 @@ public class GitCommand {
     /* Misc Git constants */
     private static final String HEAD = "HEAD";
     private static final Lock gitWriteLock = new ReentrantLock();
+    private static final Pattern VERSION_PATTERN = Pattern.compile("(\\d+)\\.(\\d+)");
+    private static final Map<String, Boolean> pathspecFromFileSupport = new ConcurrentHashMap<String, Boolean>();
+    private static final Set<String> READ_ONLY_CMDS = new HashSet<String>(Arrays.asList(
+            ANNOTATE_CMD, DIFF_CMD, DIFF_TREE_CMD, LOG_CMD, MERGE_TREE_CMD, REV_PARSE_CMD, SHOW_CMD, STATUS_CMD,
+            VERSION_CMD));
 
     /* Git command env stuff */
     private Project project;
@@ -170,13 +197,28 @@ public class GitCommand {
     }
 
     /**
-     * Returns a list of all the current branches.
+     * Returns a list of all the current branches. Branches come from the cached ref snapshot; 'git branch' is
+     * only run when the refs can't be read from disk.
      *
      * @param remoteOnly True if only remote branches should be included
      * @return A list of all the branches
      * @throws VcsException If an error occurs
      */
     public List<GitBranch> branchList(boolean remoteOnly) throws VcsException {
+        GitRefSnapshot refs = GitRefCache.getInstance().getSnapshot(vcsRoot);
+        if (refs != null) {
+            List<GitBranch> branches = new ArrayList<GitBranch>();
+            if (remoteOnly) {
+                for (String name : refs.getRemoteBranches())
+                    branches.add(new GitBranch(project, name, false, true));
+            } else {
+                String current = refs.getCurrentBranch();
+                for (String name : refs.getLocalBranches())
+                    branches.add(new GitBranch(project, name, name.equals(current), false));
+            }
+            return branches;
+        }
+
         ArrayList<String> args = new ArrayList<String>();
         if (remoteOnly)
             args.add("-r");
@@ -195,12 +237,11 @@ public class GitCommand {
                     active = true;
                 }
 
-                boolean remote = branchName.contains("/");
                 GitBranch branch = new GitBranch(
                         project,
                         branchName,
                         active,
-                        remote);
+                        remoteOnly);
                 branches.add(branch);
             }
         }
@@ -217,6 +258,10 @@ public class GitCommand {
      * @throws VcsException If an error occurs
      */
     public String currentBranch() throws VcsException {
+        GitRefSnapshot refs = GitRefCache.getInstance().getSnapshot(vcsRoot);
+        if (refs != null)
+            return refs.isDetached() ? "(no branch)" : refs.getCurrentBranch();
+
         String output = execute(BRANCH_CMD, true);
         StringTokenizer lines = new StringTokenizer(output, line_sep);
         while (lines.hasMoreTokens()) {
@@ -240,13 +285,102 @@ public class GitCommand {
         String bname = branch.getName();
         if (!branch.isRemote()) return null;
         String remoteAlias = bname.substring(0, bname.indexOf("/"));
+        return remoteUrl(remoteAlias);
+    }
+
+    /**
+     * Returns the URL of the remote the current branch tracks, falling back to "origin" and then to the first
+     * configured remote.
+     *
+     * @return The remote repository URL, or null if no remote is configured
+     * @throws VcsException If an error occurs
+     */
+    public String defaultRemoteURL() throws VcsException {
+        GitConfig config = GitConfig.forRoot(vcsRoot.getPath(), settings.GIT_EXECUTABLE);
+        if (config == null) {
+            List<GitBranch> rbranches = branchList(true);
+            return rbranches.isEmpty() ? null : remoteRepoURL(rbranches.get(0));
+        }
+        List<String> remotes = config.getRemoteNames();
+        String branch = currentBranch();
+        String remote = branch != null ? config.getBranchRemote(branch) : null;
+        if (remote == null || !remotes.contains(remote))
+            remote = remotes.contains("origin") ? "origin" : (remotes.isEmpty() ? null : remotes.get(0));
+        return remote == null ? null : config.getRemoteUrl(remote);
+    }
 
+    /**
+     * Builds the arguments for fetching both branches & tags in a single transfer. When the URL belongs to a
+     * configured remote, explicit refspecs update that remote's tracking branches (optionally pruning stale
+     * ones); tags come along via --tags, which keeps them exempt from pruning. Any other URL only has its
+     * HEAD fetched into FETCH_HEAD, along with its tags.
+     *
+     * @param repoURL The remote repository URL, empty for the default remote
+     * @param prune   True if remote-tracking branches deleted on the remote should be removed
+     * @return The 'git fetch' arguments
+     * @throws VcsException If an error occurs
+     */
+    public String[] fetchArgs(@NotNull String repoURL, boolean prune) throws VcsException {
+        repoURL = repoURL.trim();
+        String remote = findRemoteAlias(repoURL);
         List<String> args = new ArrayList<String>();
+        if (remote != null) {
+            if (prune)
+                args.add("--prune");
+            args.add("--tags");
+            args.add(remote);
+            args.add("+refs/heads/*:refs/remotes/" + remote + "/*");
+        } else {
+            args.add("--tags");
+            if (repoURL.length() > 0)
+                args.add(repoURL);
+        }
+        return args.toArray(new String[args.size()]);
+    }
 
+    /**
+     * Returns the alias of the remote with the specified URL, or of the default remote if the URL is empty.
+     *
+     * @param repoURL The URL to look for
+     * @return The remote alias, or null if no configured remote matches
+     * @throws VcsException If an error occurs
+     */
+    private String findRemoteAlias(@NotNull String repoURL) throws VcsException {
+        Set<String> aliases = new LinkedHashSet<String>();
+        GitConfig config = GitConfig.forRoot(vcsRoot.getPath(), settings.GIT_EXECUTABLE);
+        if (config != null)
+            aliases.addAll(config.getRemoteNames());
+        for (GitBranch branch : branchList(true)) {
+            String name = branch.getName();
+            int slash = name.indexOf('/');
+            if (slash > 0)
+                aliases.add(name.substring(0, slash));
+        }
+        if (repoURL.length() == 0) {
+            if (aliases.contains("origin")) return "origin";
+            return aliases.isEmpty() ? null : aliases.iterator().next();
+        }
+        if (aliases.contains(repoURL)) return repoURL;   // a remote name rather than a URL
+        for (String alias : aliases) {
+            if (repoURL.equals(remoteUrl(alias)))
+                return alias;
+        }
+        return null;
+    }
+
+    private String remoteUrl(@NotNull String remoteAlias) throws VcsException {
+        GitConfig config = GitConfig.forRoot(vcsRoot.getPath(), settings.GIT_EXECUTABLE);
+        if (config != null)
+            return config.getRemoteUrl(remoteAlias);
+
+        List<String> args = new ArrayList<String>();
         args.add("--get");
         args.add("remote." + remoteAlias + ".url");
-
-        return execute(CONFIG_CMD, args, true);
+        try {
+            return execute(CONFIG_CMD, args, true).trim();
+        } catch (VcsException e) {  // no url configured for this remote
+            return null;
+        }
     }
 
     /**
@@ -255,8 +389,9 @@ public class GitCommand {
      * @return The set of all changed files
      * @throws VcsException If an error occurs
      */
-    public Set<GitVirtualFile> gitCachedFiles() throws VcsException {
-        Set<GitVirtualFile> files = new HashSet<GitVirtualFile>();
+    public Set<GitStatusEntry> gitCachedFiles() throws VcsException {
+        Set<GitStatusEntry> files = new HashSet<GitStatusEntry>();
+        String root = GitStatusEntry.rootPath(getBasePath());
         String output;
         List<String> args = new ArrayList<String>();
         args.add("--cached");
@@ -265,20 +400,8 @@ public class GitCommand {
         args.add("--");
         output = execute(DIFF_CMD, args, true);
 
-        StringTokenizer tokenizer;
-        if (output != null && output.length() > 0) {
-            if (output.startsWith("null"))
-                output = output.substring(4);
-            tokenizer = new StringTokenizer(output, "\n");
-            while (tokenizer.hasMoreTokens()) {
-                final String s = tokenizer.nextToken();
-                String[] larr = s.split("\t");
-                if (larr.length == 2) {
-                    GitVirtualFile file = new GitVirtualFile(project, getBasePath() + "/" + larr[1], convertStatus(larr[0]));
-                    files.add(file);
-                }
-            }
-        }
+        for (GitOutputParser.NameStatus entry : GitOutputParser.parseNameStatus(output))
+            files.add(new GitStatusEntry(root, entry.path, convertStatus(entry.status)));
 
         return files;
     }
@@ -289,8 +412,9 @@ public class GitCommand {
      * @return The set of all changed files
      * @throws VcsException If an error occurs
      */
-    public Set<GitVirtualFile> gitUnCachedFiles() throws VcsException {
-        Set<GitVirtualFile> files = new HashSet<GitVirtualFile>();
+    public Set<GitStatusEntry> gitUnCachedFiles() throws VcsException {
+        Set<GitStatusEntry> files = new HashSet<GitStatusEntry>();
+        String root = GitStatusEntry.rootPath(getBasePath());
         String output;
         List<String> args = new ArrayList<String>();
         args.add("--name-status");
@@ -298,20 +422,36 @@ public class GitCommand {
         args.add("--");
         output = execute(DIFF_CMD, args, true);
 
-        StringTokenizer tokenizer;
-        if (output != null && output.length() > 0) {
-            if (output.startsWith("null"))
-                output = output.substring(4);
-            tokenizer = new StringTokenizer(output, "\n");
-            while (tokenizer.hasMoreTokens()) {
-                final String s = tokenizer.nextToken();
-                String[] larr = s.split("\t");
-                if (larr.length == 2) {
-                    GitVirtualFile file = new GitVirtualFile(project, getBasePath() + "/" + larr[1], convertStatus(larr[0]));
-                    files.add(file);
-                }
-            }
-        }
+        for (GitOutputParser.NameStatus entry : GitOutputParser.parseNameStatus(output))
+            files.add(new GitStatusEntry(root, entry.path, convertStatus(entry.status)));
+
+        return files;
+    }
+
+    /**
+     * Returns a set of all files under this VCS root whose working tree version differs from HEAD, staged or
+     * not. This is the status when {@link GitVcsSettings#LAZY_STAGING} leaves the index behind the working tree.
+     * Before the first commit, there's no HEAD to compare with and the staged files are returned.
+     *
+     * @return The set of all changed files
+     * @throws VcsException If an error occurs
+     */
+    public Set<GitStatusEntry> gitWorkTreeFiles() throws VcsException {
+        if (headRevision() == null)
+            return gitCachedFiles();
+
+        Set<GitStatusEntry> files = new HashSet<GitStatusEntry>();
+        String root = GitStatusEntry.rootPath(getBasePath());
+        String output;
+        List<String> args = new ArrayList<String>();
+        args.add("HEAD");
+        args.add("--name-status");
+        args.add("--diff-filter=ADMRUX");
+        args.add("--");
+        output = execute(DIFF_CMD, args, true);
+
+        for (GitOutputParser.NameStatus entry : GitOutputParser.parseNameStatus(output))
+            files.add(new GitStatusEntry(root, entry.path, convertStatus(entry.status)));
 
         return files;
     }
@@ -322,27 +462,23 @@ public class GitCommand {
      * @return The set of all changed files
      * @throws VcsException If an error occurs
      */
-    public Set<GitVirtualFile> gitOtherFiles() throws VcsException {
-        Set<GitVirtualFile> files = new HashSet<GitVirtualFile>();
+    public Set<GitStatusEntry> gitOtherFiles() throws VcsException {
+        Set<GitStatusEntry> files = new HashSet<GitStatusEntry>();
+        String root = GitStatusEntry.rootPath(getBasePath());
         String output;
         List<String> args = new ArrayList<String>();
         args.add("--others");
         args.add("--");
         output = execute(STATUS_CMD, args, true);
-        if (output != null && output.length() > 0) {
-            StringTokenizer tokenizer = new StringTokenizer(output, line_sep);
-            while (tokenizer.hasMoreTokens()) {
-                final String s = tokenizer.nextToken();
-                GitVirtualFile file = new GitVirtualFile(project, getBasePath() + "/" + s.trim(), GitVirtualFile.Status.UNVERSIONED);
-                files.add(file);
-            }
-        }
+        for (String path : GitOutputParser.parsePaths(output))
+            files.add(new GitStatusEntry(root, path, GitVirtualFile.Status.UNVERSIONED));
 
         return files;
     }
 
     /**
-     * Loads the specified revision of a file from Git.
+     * Loads the specified revision of a file from Git. Commits given by id (or HEAD) are read straight from the
+     * object database; anything else, or anything that can't be read that way, is left to "git show".
      *
      * @param path     The path to the file.
      * @param revision The revision to load. If the revision is null, then HEAD will be loaded.
@@ -355,12 +491,15 @@ public class GitCommand {
                 revCmd.append(revision.substring(revision.indexOf("[") + 1, 40));
             else
                 revCmd.append(revision);     // either 40 char revision-id or "HEAD", either way just use it
-            revCmd.append(":");
         } else {
-            revCmd.append(HEAD + ":");
+            revCmd.append(HEAD);
         }
 
-        String vcsPath = revCmd.append(getRelativeFilePath(path, vcsRoot)).toString();
+        String relativePath = getRelativeFilePath(path, vcsRoot);
+        byte[] content = readCommittedFile(revCmd.toString(), relativePath);
+        if (content != null)
+            return new String(content);     // decoded just like git's output
+        String vcsPath = revCmd.append(":").append(relativePath).toString();
         try {
             return execute(SHOW_CMD, Collections.singletonList(vcsPath), true);
         } catch (VcsException e) {
@@ -368,6 +507,18 @@ public class GitCommand {
         }
     }
 
+    @Nullable
+    private byte[] readCommittedFile(@NotNull String revision, @NotNull String relativePath) {
+        GitObjectDatabase db = GitObjectDatabase.forRoot(vcsRoot.getPath());
+        if (db == null) return null;
+        if (HEAD.equals(revision)) {
+            GitRefSnapshot refs = GitRefCache.getInstance().getSnapshot(vcsRoot);
+            revision = refs == null ? null : refs.getHeadRevision();
+            if (revision == null) return null;
+        }
+        return db.readFile(revision, relativePath);
+    }
+
     /**
      * Builds the revision history for the specifid file.
      *
@@ -380,7 +531,7 @@ public class GitCommand {
         String[] options = new String[]
                 {
                         "-n25",
-                        "--pretty=format:%H@@@%an <%ae>@@@%ct@@@%s",
+                        GitOutputParser.LOG_FORMAT,
                         "--"
                 };
 
@@ -391,34 +542,28 @@ public class GitCommand {
 
         String result = execute(LOG_CMD, options, args);
 
-        List<VcsFileRevision> revisions = new ArrayList<VcsFileRevision>();
-
-        // Pull the result apart...
-        BufferedReader in = new BufferedReader(new StringReader(result));
-        String line;
-        //SimpleDateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        try {
-            while ((line = in.readLine()) != null) {
-                if (line.length() == 0) continue;
-                String[] values = line.split("@@@");
-                Date commitDate = new Date(Long.valueOf(values[2]) * 1000);
-                //String revstr = df.format(commitDate) + " [" + values[0] + "]";
-                String revstr = values[0];
-                GitFileRevision revision = new GitFileRevision(
-                        project,
-                        filePath,
-                        new GitRevisionNumber(revstr, commitDate),// git revision id
-                        values[1],                // user realname & email
-                        values[3],                // commit description
-                        null);                    // TODO: find branch name for the commit & pass it here
-                revisions.add(revision);
-            }
-
+        Map<String, VcsFileRevision> revisions = new LinkedHashMap<String, VcsFileRevision>();
+        for (GitOutputParser.LogEntry entry : GitOutputParser.parseLog(result)) {
+            GitFileRevision revision = new GitFileRevision(
+                    project,
+                    filePath,
+                    new GitRevisionNumber(entry.revision, entry.date),// git revision id
+                    entry.author,             // user realname & email
+                    entry.subject,            // commit description
+                    null);                    // TODO: find branch name for the commit & pass it here
+            revisions.put(entry.revision, revision);
         }
-        catch (IOException e) {
-            throw new VcsException(e);
-        }
-        return revisions;
+
+        // children before their parents even where commit times are skewed: one sort of the whole list by the
+        // commit-graph's generation numbers, instead of an ancestry walk per comparison
+        GitCommitGraph graph = revisions.size() > 1 ? GitCommitGraph.forRoot(vcsRoot.getPath()) : null;
+        List<String> order = graph == null ? null : graph.sortTopologically(revisions.keySet());
+        if (order == null)
+            return new ArrayList<VcsFileRevision>(revisions.values());
+        List<VcsFileRevision> sorted = new ArrayList<VcsFileRevision>(order.size());
+        for (String id : order)
+            sorted.add(revisions.get(id));
+        return sorted;
     }
 
 
@@ -434,18 +579,8 @@ public class GitCommand {
 
         String output = execute(DIFF_CMD, args, true);
 
-        StringTokenizer tokenizer;
-        if (output != null && output.length() > 0) {
-            tokenizer = new StringTokenizer(output, line_sep);
-            while (tokenizer.hasMoreTokens()) {
-                final String s = tokenizer.nextToken();
-                String[] larr = s.split("\t");
-                if (larr.length == 2) {
-                    GitVirtualFile file = new GitVirtualFile(project, getBasePath() + File.separator + larr[1], convertStatus(larr[0]));
-                    files.add(file);
-                }
-            }
-        }
+        for (GitOutputParser.NameStatus entry : GitOutputParser.parseNameStatus(output))
+            files.add(new GitVirtualFile(project, getBasePath() + File.separator + entry.path, convertStatus(entry.status)));
 
         return files;
     }
@@ -455,42 +590,57 @@ public class GitCommand {
     //////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * Add the specified files to the repository
+     * Add the specified files to the repository. Directories are added recursively by git itself. If a current
+     * picture of the index is already cached, files whose content matches their index entry are skipped, and git
+     * isn't run at all if none are left; the index is never parsed here, under the write lock.
      *
      * @param files The files to add
+     * @return The files git reported adding
      * @throws VcsException If an error occurs
      */
-    public void add(VirtualFile[] files) throws VcsException {
+    public List<File> add(VirtualFile[] files) throws VcsException {
         gitWriteLock.lock();
         try {
-            String[] args = new String[files.length];
-            int count = 0;
+            GitIndexReader index = GitIndexReader.getCached(vcsRoot.getPath());
+            List<String> paths = new ArrayList<String>(files.length);
             for (VirtualFile file : files) {
                 if (file instanceof GitVirtualFile) {   // don't try to add already deleted files...
                     GitVirtualFile gvf = (GitVirtualFile) file;
                     if (gvf.getStatus() == GitVirtualFile.Status.DELETED)
                         continue;
                 }
-                if (file != null)
-                    args[count++] = getRelativeFilePath(file, vcsRoot);
+                if (file == null) continue;
+                String path = getRelativeFilePath(file, vcsRoot);
+                if (index != null && !file.isDirectory() && index.isUnchanged(path, new File(file.getPath())))
+                    continue;   // e.g. a save that didn't change anything
+                paths.add(path);
             }
+            if (paths.isEmpty())
+                return Collections.emptyList();
 
-            String result = execute(ADD_CMD, (String[]) null, args);
-            GitVcs.getInstance(project).showMessages(result);
+            StringBuilder rest = new StringBuilder();
+            List<File> added = touchedFiles(executeForPaths(ADD_CMD, Arrays.asList("-v"), paths), "add '", rest);
+            GitVcs.getInstance(project).showMessages(rest.toString());
+            return added;
         } finally {
             gitWriteLock.unlock();
         }
     }
 
     /**
-     * Commit the specified files to the repository
+     * Commit the specified files to the repository. The files are staged with a single index update and
+     * both the message and any pathspecs are passed on stdin, so neither temp files nor the command line
+     * length limit the size of a commit. Git before 2.26 can't read pathspecs from stdin; there a selection
+     * that doesn't fit on one command line is committed with the rest of the index.
      *
-     * @param files   The files to commit
-     * @param message The commit message description to use
+     * @param files        The files to commit
+     * @param message      The commit message description to use
+     * @param onlySelected True if the root has other changes that may be staged, so only the selection must be
+     *                     committed; false if the selection is all the root's changes and the index can be
+     *                     committed as it is
      * @throws VcsException If an error occurs
      */
-    @SuppressWarnings({"EmptyCatchBlock"})
-    public void commit(VirtualFile[] files, String message) throws VcsException {
+    public void commit(VirtualFile[] files, String message, boolean onlySelected) throws VcsException {
         gitWriteLock.lock();
         try {
             StringBuffer commitMessage = new StringBuffer();
@@ -502,60 +652,552 @@ public class GitCommand {
                 commitMessage.append(line).append("\n");
             }
 
-            String[] options = null;
-
-            try {
-                File temp = File.createTempFile("git-commit-msg", ".txt");
-                temp.deleteOnExit();
-                BufferedWriter out = new BufferedWriter(new FileWriter(temp));
-                out.write(commitMessage.toString());
-                out.close();
-                options = new String[]{"-F", temp.getAbsolutePath()};
-            } catch (IOException e) {
-            }
-
-            String[] args = new String[files.length];
-            int count = 0;
+            Set<String> paths = new LinkedHashSet<String>();
             for (VirtualFile file : files) {
                 if (file != null)
-                    args[count++] = getRelativeFilePath(file, vcsRoot);
+                    paths.add(getRelativeFilePath(file, vcsRoot));
             }
 
-            add(files); // add current snapshot to index first..
-            String result = execute(COMMIT_CMD, options, args);  // now commit the files
+            // stage the current snapshot of every selected file (new, modified or deleted) in one index update
+            if (!paths.isEmpty())
+                execute(UPDATE_INDEX_CMD, Arrays.asList("--add", "--remove", "-z", "--stdin"), true, nulSeparated(paths, ""));
+
+            String result;
+            if (paths.isEmpty() || !onlySelected) {
+                // the index holds exactly the selection, commit it as is with the message on stdin
+                result = execute(COMMIT_CMD, Arrays.asList("-F", "-"), false, toBytes(commitMessage.toString()));
+            } else if (!supportsPathspecFromFile()) {
+                // old git: name the selection on the command line if it fits on one; if it doesn't, commit the
+                // index as it is, which holds the selection as just staged but also whatever else was staged
+                List<String> options = Arrays.asList("--only", "-F", "-");
+                List<String> fixed = new ArrayList<String>();
+                fixed.add(settings.GIT_EXECUTABLE);
+                fixed.add(COMMIT_CMD);
+                fixed.addAll(options);
+                fixed.add("--");
+                List<List<String>> chunks = pathChunker(fixed).split(paths);
+                List<String> args = new ArrayList<String>();
+                if (chunks.size() == 1) {
+                    args.addAll(options);
+                    args.add("--");
+                    args.addAll(chunks.get(0));
+                } else {
+                    args.add("-F");
+                    args.add("-");
+                }
+                result = execute(COMMIT_CMD, args, false, toBytes(commitMessage.toString()));
+            } else {
+                // other changes are staged too; commit only the selection, pathspecs on stdin
+                List<String> args = new ArrayList<String>();
+                args.add("--only");
+                args.add("--pathspec-from-file=-");
+                args.add("--pathspec-file-nul");
+                args.add("-m");
+                args.add(commitMessage.toString());
+                result = execute(COMMIT_CMD, args, false, nulSeparated(paths, ":(literal)"));
+            }
             GitVcs.getInstance(project).showMessages(result);
 
-            VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
-            for (VirtualFile file : files) {
-                if (file != null) {
-                    mgr.fileDirty(file);
-                    file.refresh(true, true);
+            GitRefreshBatch refresh = new GitRefreshBatch(project);
+            refresh.addAll(files);
+            refresh.flush();
+        } finally {
+            gitWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Apply file renames, moves & deletes to the index in a single "update-index --index-info", without
+     * touching the working tree. Operations apply in order, so e.g. a file renamed and then moved again with
+     * its directory ends up at its final path. A directory operation applies to all the files below it.
+     *
+     * @param ops {old path, new path} for a move, {path, null} for a delete; paths relative to the VCS root
+     * @throws VcsException If an error occurs
+     */
+    public void updateIndex(@NotNull List<String[]> ops) throws VcsException {
+        if (ops.isEmpty()) return;
+        Set<String> sources = new LinkedHashSet<String>();
+        for (String[] op : ops)
+            sources.add(":(literal)" + op[0]);
+
+        gitWriteLock.lock();
+        try {
+            // the part of the index the operations can affect, before & after
+            Map<String, String> before = new HashMap<String, String>();
+            for (GitOutputParser.IndexEntry entry : GitOutputParser.parseIndexEntries(
+                    executeInChunks(STATUS_CMD, Arrays.asList("-s", "-z"), sources, true))) {
+                if (entry.stage == 0)
+                    before.put(entry.path, entry.mode + " " + entry.id);
+            }
+            TreeMap<String, String> after = new TreeMap<String, String>(before);
+            for (String[] op : ops) {
+                String prefix = op[0] + "/";
+                Map<String, String> moved = new HashMap<String, String>();
+                for (Iterator<Map.Entry<String, String>> it = after.tailMap(op[0]).entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<String, String> entry = it.next();
+                    String path = entry.getKey();
+                    boolean below = path.startsWith(prefix);
+                    if (!below && !path.equals(op[0])) {
+                        if (path.compareTo(prefix) > 0) break;
+                        continue;   // e.g. "a.txt" sorts between "a" and "a/"
+                    }
+                    it.remove();
+                    if (op[1] != null)
+                        moved.put(below ? op[1] + path.substring(op[0].length()) : op[1], entry.getValue());
                 }
+                after.putAll(moved);
+            }
+
+            StringBuilder info = new StringBuilder();
+            for (String path : before.keySet()) {
+                if (!after.containsKey(path))
+                    info.append("0 0000000000000000000000000000000000000000\t").append(path).append('\0');
             }
+            for (Map.Entry<String, String> entry : after.entrySet()) {
+                if (!entry.getValue().equals(before.get(entry.getKey())))
+                    info.append(entry.getValue()).append(" 0\t").append(entry.getKey()).append('\0');
+            }
+            if (info.length() > 0)
+                execute(UPDATE_INDEX_CMD, Arrays.asList("-z", "--index-info"), true, toBytes(info.toString()));
         } finally {
             gitWriteLock.unlock();
         }
     }
 
     /**
-     * Delete the specified files from the repostory
+     * Returns the commit HEAD points to.
      *
-     * @param files The files to delete
+     * @return The revision, or null if HEAD can't be resolved (e.g. there are no commits yet)
+     */
+    @Nullable
+    public String headRevision() {
+        try {
+            return execute(REV_PARSE_CMD, Arrays.asList("--verify", "-q", HEAD), true).trim();
+        } catch (VcsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the paths whose working tree or index content differs from HEAD, relative to the VCS root.
+     *
+     * @return The changed paths
      * @throws VcsException If an error occurs
      */
-    public void delete(VirtualFile[] files) throws VcsException {
-        gitWriteLock.lock();
+    @NotNull
+    public Set<String> dirtyPaths() throws VcsException {
+        return nulSplit(execute(DIFF_CMD, Arrays.asList(HEAD, "--name-only", "--no-renames", "-z", "--"), true));
+    }
+
+    /**
+     * Returns the paths that differ between two commits, relative to the VCS root.
+     *
+     * @param from The old revision
+     * @param to   The new revision
+     * @return The changed paths
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Set<String> changedPaths(@NotNull String from, @NotNull String to) throws VcsException {
+        return nulSplit(execute(DIFF_TREE_CMD, Arrays.asList("-r", "--name-only", "--no-renames", "-z", from, to, "--"),
+                true));
+    }
+
+    /**
+     * Returns the files that differ between two commits, relative to the VCS root, with how they changed.
+     *
+     * @param from The old revision
+     * @param to   The new revision
+     * @return The changed files, in path order
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, GitVirtualFile.Status> changedFiles(@NotNull String from, @NotNull String to)
+            throws VcsException {
+        return nameStatusMap(execute(DIFF_TREE_CMD,
+                Arrays.asList("-r", "--name-status", "--no-renames", "-z", from, to, "--"), true));
+    }
+
+    /**
+     * Returns the files whose index content differs from HEAD, relative to the VCS root, with how they changed.
+     *
+     * @return The staged files, in path order
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, GitVirtualFile.Status> stagedFiles() throws VcsException {
+        return nameStatusMap(execute(DIFF_CMD,
+                Arrays.asList("--cached", "--name-status", "--no-renames", "-z", HEAD, "--"), true));
+    }
+
+    /**
+     * Returns the paths with unresolved merge conflicts, relative to the VCS root.
+     *
+     * @return The unmerged paths
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Set<String> unmergedPaths() throws VcsException {
+        return GitOutputParser.parseUnmergedPaths(execute(STATUS_CMD, Arrays.asList("-u", "-z", "--"), true));
+    }
+
+    /**
+     * Predict the outcome of merging a branch or commit into HEAD with a tree-only merge, which leaves the
+     * working tree & index untouched. Results are cached per pair of commits.
+     *
+     * @param other The branch or commit to merge
+     * @return The prediction, or null if there is no HEAD yet or this version of git can't merge trees
+     * @throws VcsException If an error occurs
+     */
+    @Nullable
+    public GitMergePreview previewMerge(@NotNull String other) throws VcsException {
+        String head = headRevision();
+        if (head == null) return null;
+        String otherId = execute(REV_PARSE_CMD, Arrays.asList("--verify", other + "^{commit}"), true).trim();
+        GitMergePreview preview = GitMergePreview.getCached(getBasePath(), head, otherId);
+        if (preview != null) return preview;
+
+        GitCommitGraph graph = GitCommitGraph.forRoot(vcsRoot.getPath());
+        if (graph != null && Boolean.TRUE.equals(graph.isAncestor(otherId, head))) {   // already merged
+            preview = new GitMergePreview(head, otherId, Collections.<String>emptyList(),
+                    new HashMap<String, GitVirtualFile.Status>());
+            GitMergePreview.cache(getBasePath(), preview);
+            return preview;
+        }
+
+        GitOutputParser.MergeTree merged;
         try {
-            String[] args = new String[files.length];
-            String[] opts = {"-f"};
-            int count = 0;
-            for (VirtualFile file : files) {
-                if (file != null)
-                    args[count++] = getRelativeFilePath(file, vcsRoot);
+            merged = GitOutputParser.parseMergeTree(execute(MERGE_TREE_CMD,
+                    Arrays.asList("--write-tree", "--name-only", "-z", head, otherId), true));
+        } catch (VcsException e) {  // git before 2.38 has no --write-tree
+            if (e.getMessage() != null && (e.getMessage().contains("usage:") || e.getMessage().contains("unknown option")))
+                return null;
+            throw e;
+        }
+        Map<String, GitVirtualFile.Status> changes = changedFiles(head, merged.tree);
+        for (String path : merged.conflicts)
+            changes.put(path, GitVirtualFile.Status.UNMERGED);
+        preview = new GitMergePreview(head, otherId, merged.conflicts, changes);
+        GitMergePreview.cache(getBasePath(), preview);
+        return preview;
+    }
+
+    /**
+     * Returns the index entries of the paths with unresolved merge conflicts, relative to the VCS root.
+     *
+     * @return The object ids of stage 1 (base), 2 (ours) & 3 (theirs) by path, null where a stage is absent
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, String[]> unmergedEntries() throws VcsException {
+        return GitOutputParser.parseUnmergedEntries(execute(STATUS_CMD, Arrays.asList("-u", "-z", "--"), true));
+    }
+
+    /**
+     * Read the contents of many blobs through a single "git cat-file --batch" process.
+     *
+     * @param ids The blob object ids
+     * @return The contents by object id; ids that don't name an object are left out
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, byte[]> readBlobs(@NotNull Collection<String> ids) throws VcsException {
+        Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+        if (ids.isEmpty()) return blobs;
+        List<String> cmdLine = Arrays.asList(settings.GIT_EXECUTABLE, CAT_FILE_CMD, "--batch");
+        StringBuilder request = new StringBuilder();
+        for (String id : ids)
+            request.append(id).append('\n');
+        final byte[] input = toBytes(request.toString());
+
+        GitExecutor.checkThread(CAT_FILE_CMD);
+        long start = System.nanoTime();
+        long read = 0;
+        int exitCode = -1;
+        Process proc = null;
+        boolean finished = false;
+        try {
+            proc = processBuilder(cmdLine, VfsUtil.virtualToIoFile(vcsRoot)).start();
+            final Process process = proc;
+            Thread feeder = new Thread(new Runnable() {
+                @SuppressWarnings({"EmptyCatchBlock"})
+                public void run() {
+                    OutputStream stdin = process.getOutputStream();
+                    try {
+                        stdin.write(input);
+                    } catch (IOException e) {  // git exited early
+                    } finally {
+                        try {
+                            stdin.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+            }, "GitCommand stdin");
+            feeder.setDaemon(true);
+            feeder.start();
+
+            // stdout carries the blobs, so stderr can't be merged into it; drain it so git never blocks on it
+            final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            Thread drainer = new Thread(new Runnable() {
+                @SuppressWarnings({"EmptyCatchBlock"})
+                public void run() {
+                    InputStream stderr = process.getErrorStream();
+                    byte[] buf = new byte[1024];
+                    try {
+                        for (int n; (n = stderr.read(buf)) != -1;)
+                            errors.write(buf, 0, n);
+                    } catch (IOException e) {  // git was destroyed
+                    } finally {
+                        try {
+                            stderr.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+            }, "GitCommand stderr");
+            drainer.setDaemon(true);
+            drainer.start();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(proc.getInputStream(), BUF_SIZE));
+            try {
+                for (String id : ids) {
+                    String header = readLine(in);   // "<id> <type> <size>" or "<id> missing"
+                    if (header == null)
+                        throw new VcsException("git cat-file stopped before " + id + ": " + errors.toString().trim());
+                    read += header.length() + 1;
+                    String[] fields = header.split(" ");
+                    if (fields.length != 3) continue;
+                    int size = Integer.parseInt(fields[2]);
+                    if (size > MAX_BUF_ALLOWED)
+                        throw new VcsException("Git command output limit exceeded, cannot process!");
+                    byte[] contents = new byte[size];
+                    in.readFully(contents);
+                    in.readByte();  // the newline after the contents
+                    read += size + 1;
+                    blobs.put(id, contents);
+                }
+            } finally {
+                in.close();
             }
+            exitCode = proc.waitFor();
+            finished = true;
+            return blobs;
+        } catch (NumberFormatException e) {
+            throw new VcsException(e);
+        } catch (IOException e) {
+            throw new VcsException(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VcsException("Interrupted");
+        } finally {
+            if (!finished && proc != null)
+                proc.destroy();     // stopped reading early; don't leave git blocked on a full pipe
+            recordStats(project, settings, CAT_FILE_CMD, cmdLine, System.nanoTime() - start, read, exitCode);
+        }
+    }
+
+    @Nullable
+    private static String readLine(@NotNull InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1)
+                return line.size() == 0 ? null : line.toString("UTF-8");
+            line.write(b);
+        }
+        return line.toString("UTF-8");
+    }
 
-            String result = execute(DELETE_CMD, opts, args);
+    @NotNull
+    private Map<String, GitVirtualFile.Status> nameStatusMap(@NotNull String output) throws VcsException {
+        Map<String, GitVirtualFile.Status> files = new LinkedHashMap<String, GitVirtualFile.Status>();
+        for (GitOutputParser.NameStatus entry : GitOutputParser.parseNameStatusZ(output))
+            files.put(entry.path, convertStatus(entry.status));
+        return files;
+    }
+
+    @NotNull
+    private static Set<String> nulSplit(@NotNull String output) {
+        Set<String> paths = new HashSet<String>();
+        for (String path : output.split("\0")) {
+            if (path.length() > 0)
+                paths.add(path);
+        }
+        return paths;
+    }
+
+    private List<String> relativePaths(@NotNull VirtualFile[] files) {
+        List<String> paths = new ArrayList<String>(files.length);
+        for (VirtualFile file : files) {
+            if (file != null)
+                paths.add(getRelativeFilePath(file, vcsRoot));
+        }
+        return paths;
+    }
+
+    /**
+     * Picks the paths out of the per-file lines git prints for add -v & rm ("add 'path'", "rm 'path'").
+     *
+     * @param output The command output
+     * @param prefix The start of a per-file line, up to the opening quote
+     * @param rest   Receives all other output lines, if not null
+     * @return The files under the VCS root
+     */
+    private List<File> touchedFiles(@NotNull String output, @NotNull String prefix, @Nullable StringBuilder rest) {
+        List<File> touched = new ArrayList<File>();
+        for (String line : output.split("\n")) {
+            if (line.startsWith(prefix) && line.endsWith("'")) {
+                touched.add(new File(vcsRoot.getPath(), line.substring(prefix.length(), line.length() - 1)));
+            } else if (rest != null && line.length() > 0) {
+                rest.append(line).append(line_sep);
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Returns the files among the specified ones that a checkout from HEAD can rewrite. Plain files are taken as
+     * they are; for directories, the change lists' picture of what changed below them is used rather than asking
+     * git again.
+     *
+     * @param files The files & directories
+     * @return The files that may differ from HEAD
+     */
+    private List<File> dirtyAmong(@NotNull VirtualFile[] files) {
+        List<File> dirty = new ArrayList<File>();
+        List<String> dirs = new ArrayList<String>();
+        for (VirtualFile file : files) {
+            if (file.isDirectory())
+                dirs.add(file.getPath() + "/");
+            else
+                dirty.add(new File(file.getPath()));
+        }
+        if (dirs.isEmpty()) return dirty;
+
+        for (LocalChangeList list : ChangeListManager.getInstance(project).getChangeLists()) {
+            for (Change change : list.getChanges()) {
+                for (ContentRevision rev : new ContentRevision[]{change.getBeforeRevision(), change.getAfterRevision()}) {
+                    if (rev == null) continue;
+                    String path = rev.getFile().getPath();
+                    for (String dir : dirs) {
+                        if (path.startsWith(dir)) {
+                            dirty.add(new File(path));
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Run a command over any number of paths. Git 2.26 and later read the paths as literal pathspecs from
+     * stdin in a single run; older versions get as few command lines as the OS argument limit allows. The
+     * chunks run one after another since they all update the same index.
+     *
+     * @param cmd     The git command
+     * @param options The options to precede the paths
+     * @param paths   The paths, relative to the VCS root
+     * @return The combined output
+     * @throws VcsException If an error occurs
+     */
+    private String executeForPaths(@NotNull String cmd, @NotNull List<String> options, @NotNull Collection<String> paths)
+            throws VcsException {
+        if (paths.isEmpty()) return EMPTY_STRING;
+        if (supportsPathspecFromFile()) {
+            List<String> args = new ArrayList<String>(options);
+            args.add("--pathspec-from-file=-");
+            args.add("--pathspec-file-nul");
+            return execute(cmd, args, false, nulSeparated(paths, ":(literal)"));
+        }
+        return executeInChunks(cmd, options, paths, false);
+    }
+
+    /**
+     * Run a command over any number of paths, in as few command lines as the OS argument limit allows.
+     */
+    private String executeInChunks(@NotNull String cmd, @NotNull List<String> options,
+                                   @NotNull Collection<String> paths, boolean silent) throws VcsException {
+        List<String> fixed = new ArrayList<String>();
+        fixed.add(settings.GIT_EXECUTABLE);
+        fixed.add(cmd);
+        fixed.addAll(options);
+        fixed.add("--");
+        StringBuilder output = new StringBuilder();
+        for (List<String> chunk : pathChunker(fixed).split(paths)) {
+            List<String> args = new ArrayList<String>(options);
+            args.add("--");
+            args.addAll(chunk);
+            output.append(execute(cmd, args, silent));
+        }
+        return output.toString();
+    }
+
+    /**
+     * @param fixed The executable, command & options every command line starts with
+     * @return A chunker for command lines started with the environment git gets
+     */
+    @NotNull
+    private static GitPathChunker pathChunker(@NotNull List<String> fixed) {
+        Map<String, String> env = new HashMap<String, String>(System.getenv());
+        env.putAll(EnvironmentUtil.getEnviromentProperties());
+        return new GitPathChunker(fixed, env);
+    }
+
+    /**
+     * Returns true if the configured git understands --pathspec-from-file for add, rm, checkout and commit (2.26+).
+     * The answer is cached per git executable.
+     */
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private boolean supportsPathspecFromFile() {
+        String exe = settings.GIT_EXECUTABLE;
+        Boolean supported = pathspecFromFileSupport.get(exe);
+        if (supported == null) {
+            supported = Boolean.FALSE;
+            try {
+                Matcher m = VERSION_PATTERN.matcher(execute(VERSION_CMD, true));
+                if (m.find()) {
+                    int major = Integer.parseInt(m.group(1));
+                    int minor = Integer.parseInt(m.group(2));
+                    supported = major > 2 || (major == 2 && minor >= 26);
+                }
+            } catch (VcsException e) {  // treat an unknown version as old
+            }
+            pathspecFromFileSupport.put(exe, supported);
+        }
+        return supported;
+    }
+
+    private static byte[] nulSeparated(@NotNull Collection<String> paths, @NotNull String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (String path : paths)
+            sb.append(prefix).append(path).append('\0');
+        return toBytes(sb.toString());
+    }
+
+    private static byte[] toBytes(@NotNull String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return s.getBytes();
+        }
+    }
+
+    /**
+     * Delete the specified files from the repostory. Directories are deleted recursively.
+     *
+     * @param files The files to delete
+     * @return The files git reported removing
+     * @throws VcsException If an error occurs
+     */
+    public List<File> delete(VirtualFile[] files) throws VcsException {
+        gitWriteLock.lock();
+        try {
+            String result = executeForPaths(DELETE_CMD, Arrays.asList("-r", "-f"), relativePaths(files));
             GitVcs.getInstance(project).showMessages(result);
+            return touchedFiles(result, "rm '", null);
         } finally {
             gitWriteLock.unlock();
         }
@@ -693,15 +1335,11 @@ public class GitCommand {
     public void pull(String repoURL, boolean merge) throws VcsException {
         gitWriteLock.lock();
         try {
-            String cmd;
-            if (merge)
-                cmd = PULL_CMD;
+            String result;
+            if (merge)  // tags reachable from the merged branch are auto-followed
+                result = execute(PULL_CMD, repoURL);
             else
-                cmd = FETCH_CMD;
-
-            String result = execute(cmd, repoURL);
-            GitVcs.getInstance(project).showMessages(result);
-            result = execute(cmd, "--tags", repoURL);
+                result = execute(FETCH_CMD, Arrays.asList(fetchArgs(repoURL == null ? "" : repoURL, settings.FETCH_PRUNE)));
             GitVcs.getInstance(project).showMessages(result);
         } finally {
             gitWriteLock.unlock();
@@ -721,24 +1359,20 @@ public class GitCommand {
     }
 
     /**
-     * Reverts the list of files we are passed.
+     * Reverts the list of files we are passed. Directories are reverted recursively.
      *
      * @param files The array of files to revert.
+     * @return The files the revert may have rewritten
      * @throws VcsException Id it breaks.
      */
-    public void revert(VirtualFile[] files) throws VcsException {
+    public List<File> revert(VirtualFile[] files) throws VcsException {
         gitWriteLock.lock();
         try {
-            String[] args = new String[files.length];
-            String[] options = new String[]{HEAD, "--"};
-            int count = 0;
-            for (VirtualFile file : files) {
-                if (file != null)
-                    args[count++] = getRelativeFilePath(file, vcsRoot);
-            }
-
-            String result = execute(REVERT_CMD, options, args);
+            List<String> paths = relativePaths(files);
+            List<File> reverted = dirtyAmong(files);
+            String result = executeForPaths(REVERT_CMD, Arrays.asList(HEAD), paths);
             GitVcs.getInstance(project).showMessages(result);
+            return reverted;
         } finally {
             gitWriteLock.unlock();
         }
@@ -748,10 +1382,11 @@ public class GitCommand {
      * Reverts the list of files we are passed.
      *
      * @param files The list of files to revert.
+     * @return The files the revert rewrote
      * @throws VcsException Id it breaks.
      */
-    public void revert(List<VirtualFile> files) throws VcsException {
-        revert(files.toArray(new VirtualFile[files.size()]));
+    public List<File> revert(List<VirtualFile> files) throws VcsException {
+        return revert(files.toArray(new VirtualFile[files.size()]));
     }
 
     /**
@@ -833,21 +1468,6 @@ public class GitCommand {
         return !(output == null || output.length() == 0) && output.contains(path);
     }
 
-    /**
-     * Exec the git merge tool
-     *
-     * @param files The files to merge
-     * @throws VcsException If an error occurs
-     */
-    public void mergetool(String[] files) throws VcsException {
-        String result;
-        if (files == null || files.length == 0)
-            result = execute(MERGETOOL_CMD);
-        else
-            result = execute(MERGETOOL_CMD, (String[]) null, files);
-        GitVcs.getInstance(project).showMessages(result);
-    }
-
     /**
      * Use gitk to show revision graph for specified file.
      *
@@ -927,41 +1547,9 @@ public class GitCommand {
         String cmdOutput = execute(ANNOTATE_CMD, options, args);
         if (cmdOutput == null || cmdOutput.length() == 0) return annotation;
 
-        BufferedReader in = new BufferedReader(new StringReader(cmdOutput));
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
-        String Line;
-        try {
-            while ((Line = in.readLine()) != null) {
-                String annValues[] = Line.split("\t", 4);
-                if (annValues.length != 4) {
-                    throw new VcsException("Framing error: unexpected number of values");
-                }
-
-                String revision = annValues[0];
-                String user = annValues[1];
-                String dateStr = annValues[2];
-                String numberedLine = annValues[3];
-
-                if (revision.length() != 40) {
-                    throw new VcsException("Framing error: Illegal revision number: " + revision);
-                }
-
-                int idx = numberedLine.indexOf(')');
-                if (!user.startsWith("(") || idx <= 0) {
-                    continue;
-                }
-                user = user.substring(1).trim(); // Ditch the (
-                Long lineNumber = Long.valueOf(numberedLine.substring(0, idx));
-                String lineContents = numberedLine.substring(idx + 1);
-
-                Date date = dateFormat.parse(dateStr);
-                annotation.appendLineInfo(date, new GitRevisionNumber(revision, date), user, lineContents, lineNumber);
-            }
-
-        } catch (IOException e) {
-            throw new VcsException("Failed to load annotations", e);
-        } catch (ParseException e) {
-            throw new VcsException("Failed to load annotations", e);
+        for (GitOutputParser.AnnotatedLine line : GitOutputParser.parseAnnotate(cmdOutput)) {
+            annotation.appendLineInfo(line.date, new GitRevisionNumber(line.revision, line.date), line.author,
+                    line.contents, line.lineNumber);
         }
         return annotation;
     }
@@ -980,14 +1568,9 @@ public class GitCommand {
         String[] args = new String[]{commitId};
 
         String cmdOutput = execute(DIFF_TREE_CMD, options, args);
-        final String[] changes = cmdOutput.split("\n");
-
-        if (changes.length == 0) {
-            return result;
-        }
-
+        List<GitOutputParser.TreeChange> changes = new ArrayList<GitOutputParser.TreeChange>();
         GitRevisionNumber parentCommit = null;
-        String parentCommitId = changes[0];
+        String parentCommitId = GitOutputParser.parseDiffTree(cmdOutput, changes);
         // First line in the output should be id of parent commit. In case if this line is empty it means that commit is initial and has no any parent commit.
 
         // If so - then given commit could only add files, no change/move/delete allowed. Later we check that such commit has only ADDED file statuses.
@@ -995,20 +1578,10 @@ public class GitCommand {
             parentCommit = new GitRevisionNumber(parentCommitId);
         }
 
-        for (int i = 1; i < changes.length; i++) {
-            String gitChnage = changes[i];
-            if (gitChnage.length() == 0)
-                continue;
-
-            // format for gitChange is following
-            // :000000 100644 0000000000000000000000000000000000000000 984ca539b1c469fb2bbd6d6e26fe5fcd25ab76f1 A	src/git4idea/GitRefactoringListenerProvider.java
-            final String[] tokens = gitChnage.split("[ \t]");
-            assert tokens.length > 5;
-            final String blogIdBefore = tokens[2];
-            final String blobIdAfter = tokens[3];
-            final GitVirtualFile.Status status = convertStatus(tokens[4].substring(0, 1));
-            final String pathArg1 = vcsRoot.getPath() + "/" + tokens[5];
-            final String pathArg2 = tokens.length > 6 ? (vcsRoot.getPath() + "/" + tokens[6]) : null;
+        for (GitOutputParser.TreeChange change : changes) {
+            final GitVirtualFile.Status status = convertStatus(change.status);
+            final String pathArg1 = vcsRoot.getPath() + "/" + change.path;
+            final String pathArg2 = change.newPath != null ? (vcsRoot.getPath() + "/" + change.newPath) : null;
 
             ContentRevision before = null;
             ContentRevision after = null;
@@ -1124,6 +1697,15 @@ public class GitCommand {
     }
 
     private String execute(@NotNull String cmd, List<String> cmdArgs, boolean silent) throws VcsException {
+        return execute(cmd, cmdArgs, silent, null);
+    }
+
+    /**
+     * Run a git command, optionally feeding it data on stdin. The input is written from a separate thread so
+     * a command that produces output while it is still reading can't deadlock against us.
+     */
+    private String execute(@NotNull final String cmd, List<String> cmdArgs, boolean silent, @Nullable byte[] input)
+            throws VcsException {
         int bufsize = BUF_SIZE;
         List<String> cmdLine = new ArrayList<String>();
         cmdLine.add(settings.GIT_EXECUTABLE);
@@ -1140,7 +1722,7 @@ public class GitCommand {
             bufsize = BUF_SIZE * 8; // start with bigger buffer when getting contents of files
         }
 
-        File directory = VfsUtil.virtualToIoFile(vcsRoot);
+        final File directory = VfsUtil.virtualToIoFile(vcsRoot);
 
         String cmdStr=null;
         if (DEBUG) {
@@ -1149,22 +1731,74 @@ public class GitCommand {
                     " exec: [" + cmdStr + "]");
         }
 
-        if (!silent && !DEBUG) { // dont' print twice in DEBUG mode
+        if (!silent && !DEBUG && ApplicationManager.getApplication() != null) { // dont' print twice in DEBUG mode
             if (cmdStr == null)
                 cmdStr = StringUtil.join(cmdLine, " ");
             GitVcs.getInstance(project).showMessages("git" + cmdStr.substring(settings.GIT_EXECUTABLE.length()));
         }
 
+        GitSingleFlight singleFlight = GitSingleFlight.getInstance();
+        if (input == null && isReadOnly(cmd, cmdArgs)) {
+            final List<String> query = cmdLine;
+            final int querySize = bufsize;
+            return singleFlight.run(vcsRoot.getPath(), StringUtil.join(cmdLine, "\0"), settings.QUERY_CACHE_MILLIS,
+                    new GitSingleFlight.Query() {
+                        public String run() throws VcsException {
+                            return spawn(cmd, query, directory, querySize, null);
+                        }
+                    });
+        }
         try {
-            ProcessBuilder pb = new ProcessBuilder(cmdLine);
-            // copy IDEA configured env into process exec env
-            Map<String, String> pbenv = pb.environment();
-            pbenv.putAll(EnvironmentUtil.getEnviromentProperties());
-            if(pbenv.get("GIT_DIR") == null)
-                pbenv.put("GIT_DIR", directory.getAbsolutePath() + fileSep + ".git");
-            pb.directory(directory);
+            return spawn(cmd, cmdLine, directory, bufsize, input);
+        } finally {
+            singleFlight.invalidate(vcsRoot.getPath());
+        }
+    }
+
+    /**
+     * Read-only commands may share their output with identical concurrent or recent queries.
+     */
+    private static boolean isReadOnly(@NotNull String cmd, @Nullable List<String> cmdArgs) {
+        if (READ_ONLY_CMDS.contains(cmd))
+            return true;
+        if (cmd.equals(STASH_CMD))  // only "stash list"
+            return cmdArgs != null && !cmdArgs.isEmpty() && cmdArgs.get(0).equals("list");
+        if (cmd.equals(BRANCH_CMD))  // only the listings
+            return cmdArgs == null || cmdArgs.isEmpty() || cmdArgs.equals(Collections.singletonList("-r"));
+        if (cmd.equals(CONFIG_CMD))
+            return cmdArgs != null && !cmdArgs.isEmpty() && cmdArgs.get(0).startsWith("--get");
+        return false;
+    }
+
+    private String spawn(@NotNull String cmd, @NotNull List<String> cmdLine, @NotNull File directory, int bufsize,
+                         @Nullable final byte[] input) throws VcsException {
+        GitExecutor.checkThread(cmd);
+        long start = System.nanoTime();
+        int wpos = 0; // total count of all bytes read (also write position in retBuf)
+        int exitCode = -1;
+        try {
+            ProcessBuilder pb = processBuilder(cmdLine, directory);
             pb.redirectErrorStream(true);
             Process proc = pb.start();
+            if (input != null) {
+                final OutputStream stdin = proc.getOutputStream();
+                Thread feeder = new Thread(new Runnable() {
+                    @SuppressWarnings({"EmptyCatchBlock"})
+                    public void run() {
+                        try {
+                            stdin.write(input);
+                        } catch (IOException e) {  // git exited early, its output says why
+                        } finally {
+                            try {
+                                stdin.close();
+                            } catch (IOException e) {
+                            }
+                        }
+                    }
+                }, "GitCommand stdin");
+                feeder.setDaemon(true);
+                feeder.start();
+            }
 
             // Get the output from the process.
             BufferedInputStream in = new BufferedInputStream(proc.getInputStream());
@@ -1172,7 +1806,6 @@ public class GitCommand {
             byte[] workBuf = new byte[bufsize];
             byte[] retBuf = new byte[bufsize];
             int rlen = in.read(workBuf);   // length of current read
-            int wpos = 0; // total count of all bytes read (also write position in retBuf)
             while (rlen != -1) {
                 if ((wpos + rlen) > retBuf.length) {  // handle *big* output....
                     if ((retBuf.length * 2) >= MAX_BUF_ALLOWED)
@@ -1187,7 +1820,7 @@ public class GitCommand {
             }
 
             try {
-                proc.waitFor();
+                exitCode = proc.waitFor();
             } catch (InterruptedException ie) {
                 return EMPTY_STRING;
             }
@@ -1200,7 +1833,8 @@ public class GitCommand {
             if (cmd.equals(DIFF_CMD) && output.contains("No HEAD commit to compare with"))
                 return EMPTY_STRING;
 
-            if (proc.exitValue() != 0)
+            // merge-tree exits with 1 when the merge has conflicts, and still reports the merged tree
+            if (exitCode != 0 && !(cmd.equals(MERGE_TREE_CMD) && exitCode == 1))
                 throw new VcsException(output);
 
             return output;
@@ -1208,10 +1842,44 @@ public class GitCommand {
         catch (IOException e) {
             throw new VcsException(e.getMessage());
         }
+        finally {
+            recordStats(project, settings, cmd, cmdLine, System.nanoTime() - start, wpos, exitCode);
+        }
+    }
+
+    @NotNull
+    private static ProcessBuilder processBuilder(@NotNull List<String> cmdLine, @NotNull File directory) {
+        ProcessBuilder pb = new ProcessBuilder(cmdLine);
+        // copy IDEA configured env into process exec env
+        Map<String, String> pbenv = pb.environment();
+        pbenv.putAll(EnvironmentUtil.getEnviromentProperties());
+        if(pbenv.get("GIT_DIR") == null)
+            pbenv.put("GIT_DIR", directory.getAbsolutePath() + fileSep + ".git");
+        pb.directory(directory);
+        return pb;
+    }
+
+    /**
+     * Add a finished git process to the {@link GitCommandStats}, and report it on the console if it took longer
+     * than the configured slow command threshold.
+     */
+    static void recordStats(@NotNull Project project, @NotNull GitVcsSettings settings, @NotNull String cmd,
+                            @NotNull List<String> cmdLine, long nanos, long outputBytes, int exitCode) {
+        GitCommandStats.getInstance().record(cmd, nanos, outputBytes, exitCode);
+        long millis = nanos / 1000000L;
+        if (settings.SLOW_COMMAND_MILLIS > 0 && millis >= settings.SLOW_COMMAND_MILLIS
+                && ApplicationManager.getApplication() != null) {
+            String cmdStr = StringUtil.join(cmdLine, " ");
+            GitVcs vcs = GitVcs.getInstance(project);
+            if (vcs != null)
+                vcs.showMessages("Slow git command (" + millis + " ms): git"
+                        + cmdStr.substring(settings.GIT_EXECUTABLE.length()));
+        }
     }
 
     public InputStream execAsync() throws VcsException {
         if (cmd == null) throw new VcsException("No command specified!");
+        GitExecutor.checkThread(cmd);
 
         List<String> cmdLine = new ArrayList<String>();
         cmdLine.add(settings.GIT_EXECUTABLE);
@@ -14,6 +14,7 @@ package git4idea.commands;
  *
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -31,6 +32,7 @@ import java.util.Arrays;
 import java.nio.charset.Charset;
 
 import org.jetbrains.annotations.NotNull;
+import git4idea.GitTreeSnapshot;
 import git4idea.GitVcsSettings;
 import git4idea.GitVcs;
 
@@ -40,16 +42,21 @@ import git4idea.GitVcs;
 @SuppressWarnings({"JavaDoc"})
 public class GitCommandRunnable implements Runnable {
     private static final int BUF_SIZE = 4096;
+    private static final long POLL_MILLIS = 50;
     private String cmd = null;
     private Project project = null;
     private GitVcsSettings settings = null;
     private String[] opts = null;
     private String[] args = null;
     private VirtualFile vcsRoot = null;
-    private VcsException vcsEx = null;
+    private volatile VcsException vcsEx = null;
     private boolean keepit = false;
     private boolean silent = false;
+    private boolean refreshChanges = false;
+    private boolean invalidateCaches = true;
     private ByteArrayOutputStream baos = null;
+    private volatile Process process = null;
+    private volatile boolean cancelled = false;
 
     public GitCommandRunnable(@NotNull final Project project, @NotNull GitVcsSettings settings, @NotNull VirtualFile vcsRoot) {
         this.project = project;
@@ -72,7 +79,13 @@ public class GitCommandRunnable implements Runnable {
     public void run() {
         if (cmd == null) throw new IllegalStateException("No command set!");
         vcsEx = null;
-        GitVcs vcs = GitVcs.getInstance(project);
+        if (cancelled) {
+            vcsEx = new VcsException("git " + cmd + " cancelled");
+            return;
+        }
+        boolean inIde = ApplicationManager.getApplication() != null;
+        GitVcs vcs = inIde ? GitVcs.getInstance(project) : null;
+        GitTreeSnapshot before = refreshChanges ? GitTreeSnapshot.take(project, settings, vcsRoot) : null;
 
         List<String> cmdLine = new ArrayList<String>();
         cmdLine.add(settings.GIT_EXECUTABLE);
@@ -82,13 +95,15 @@ public class GitCommandRunnable implements Runnable {
         if (args != null && args.length > 0)
             cmdLine.addAll(Arrays.asList(args));
 
-        ProgressManager manager = ProgressManager.getInstance();
-        ProgressIndicator indicator = manager.getProgressIndicator();
-        indicator.setText("Git " + cmd + "...");
-        indicator.setIndeterminate(true);
+        ProgressIndicator indicator = inIde ? ProgressManager.getInstance().getProgressIndicator() : null;
+        if (indicator != null) { // no indicator when run from a GitMultiRootSync worker thread
+            indicator.setText("Git " + cmd + "...");
+            indicator.setIndeterminate(true);
+        }
 
         String cmdStr = StringUtil.join(cmdLine, " ");
-        vcs.showMessages("git" +  cmdStr.substring(settings.GIT_EXECUTABLE.length()) );
+        if (vcs != null)
+            vcs.showMessages("git" +  cmdStr.substring(settings.GIT_EXECUTABLE.length()) );
 
         ProcessBuilder pb = new ProcessBuilder(cmdLine);
         // copy IDEA configured env into process exec env
@@ -99,7 +114,7 @@ public class GitCommandRunnable implements Runnable {
         pb.directory(directory);
         pb.redirectErrorStream(true);
 
-        Process proc;
+        Process proc = null;
         BufferedInputStream in = null;
         int exitValue = -1;
 
@@ -107,31 +122,64 @@ public class GitCommandRunnable implements Runnable {
         if (keepit)
             baos = new ByteArrayOutputStream(buf.length);
 
+        GitExecutor.checkThread(cmd);
+        long start = System.nanoTime();
+        long end = 0;
+        long outputBytes = 0;
         try {
             proc = pb.start();
-            Thread.sleep(250);
+            process = proc;
+            if (cancelled)      // cancel() ran before the process existed
+                proc.destroy();
             in = new BufferedInputStream(proc.getInputStream());
 
+            // A transport git starts (ssh, upload-pack) shares the output pipe and outlives a killed git, so a
+            // blocking read could wait for it long after a cancel: only block once there is output or git is done.
+            // The pause between polls starts short and doubles, so a quick command isn't held up (or timed) by it.
             int l;
-            while ((l = in.read(buf)) != -1) {
+            long pause = 1;
+            while (!cancelled) {
+                if (in.available() == 0 && isRunning(proc)) {
+                    Thread.sleep(pause);
+                    pause = Math.min(pause * 2, POLL_MILLIS);
+                    continue;
+                }
+                pause = 1;
+                if ((l = in.read(buf)) == -1)
+                    break;
+                outputBytes += l;
                 if (keepit)
                     baos.write(buf, 0, l);
-                if (!silent)
+                if (!silent && vcs != null)
                     vcs.showMessages(new String(buf, 0, l, Charset.defaultCharset()));
             }
             exitValue = proc.waitFor();
+            end = System.nanoTime();
         } catch (InterruptedException ie) {
+            if (proc != null) proc.destroy();
+            Thread.currentThread().interrupt();
+            cancelled = true;
         } catch (Exception e) {
-            vcsEx = new VcsException(e);
+            if (!cancelled)     // reading from a destroyed process fails
+                vcsEx = new VcsException(e);
         } finally {
+            process = null;
             try {
                 if (in != null)
                     in.close();
             } catch (IOException e) {
             }
         }
+        if (end == 0) end = System.nanoTime();
+        GitCommand.recordStats(project, settings, cmd, cmdLine, end - start, outputBytes, exitValue);
+        if (invalidateCaches)
+            GitSingleFlight.getInstance().invalidate(vcsRoot.getPath());
+        if (refreshChanges)     // even if it failed: e.g. a merge with conflicts still rewrites files
+            GitTreeSnapshot.refreshChanges(project, settings, vcsRoot, before);
 
-        if (exitValue != 0 || vcsEx != null) {
+        if (cancelled) {
+            vcsEx = new VcsException("git " + cmd + " cancelled");
+        } else if (exitValue != 0 || vcsEx != null) {
             String msg;
             if (vcsEx != null)
                 msg = vcsEx.getMessage();
@@ -145,6 +193,26 @@ public class GitCommandRunnable implements Runnable {
         }
     }
 
+    /**
+     * Stop the command: kill its git process if it is running, or keep it from starting if it isn't yet. The
+     * command then ends with a "cancelled" exception. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        Process proc = process;
+        if (proc != null)
+            proc.destroy();
+    }
+
+    private static boolean isRunning(@NotNull Process proc) {
+        try {
+            proc.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
     /**
      * Returns the exception thrown by the command runnable
      *
@@ -190,6 +258,22 @@ public class GitCommandRunnable implements Runnable {
         silent = isSilent;
     }
 
+    /**
+     * Set to true if the command rewrites the working tree (checkout, stash, merge...): the files it changed are
+     * then refreshed and marked dirty once it finishes. (Default is false)
+     */
+    public void setRefreshChanges(boolean refreshChanges) {
+        this.refreshChanges = refreshChanges;
+    }
+
+    /**
+     * Set to false if the caller drops the root's cached git state itself once it knows what the command changed,
+     * e.g. a fetch that may have moved no refs at all. (Default is true)
+     */
+    public void setInvalidateCaches(boolean invalidateCaches) {
+        this.invalidateCaches = invalidateCaches;
+    }
+
     /**
      * Retrieve the output (error & stdout are mingled) from the git command. This is only useful after the command has finished running...
      */
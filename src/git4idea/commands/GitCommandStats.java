@@ -0,0 +1,333 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts every git process started by the plugin, per git command: invocations, wall time, output size & exit
+ * codes, with a latency histogram for percentiles. Recording is lock-free, so it is cheap enough to leave on.
+ * The numbers are shown in the "Git Commands" tool window and exported over JMX as
+ * {@value #OBJECT_NAME}.
+ */
+public class GitCommandStats implements GitCommandStatsMBean {
+    public static final String OBJECT_NAME = "git4idea:type=GitCommandStats";
+    private static final GitCommandStats INSTANCE = new GitCommandStats();
+
+    private final ConcurrentMap<String, Command> commands = new ConcurrentHashMap<String, Command>();
+    private volatile boolean registered = false;
+
+    private GitCommandStats() {
+    }
+
+    @NotNull
+    public static GitCommandStats getInstance() {
+        INSTANCE.register();
+        return INSTANCE;
+    }
+
+    /**
+     * Record one finished git process.
+     *
+     * @param cmd         The git command, e.g. "diff"
+     * @param nanos       Wall time from process start until its output was read
+     * @param outputBytes Number of bytes it wrote to stdout/stderr
+     * @param exitCode    Its exit code, or -1 if it couldn't be started or was interrupted
+     */
+    public void record(@NotNull String cmd, long nanos, long outputBytes, int exitCode) {
+        command(cmd).record(nanos, outputBytes, exitCode);
+    }
+
+    /**
+     * Count a git process started on the event dispatch thread.
+     *
+     * @param cmd The git command
+     */
+    public void recordDispatchThreadCall(@NotNull String cmd) {
+        command(cmd).dispatchThreadCalls.incrementAndGet();
+    }
+
+    @NotNull
+    private Command command(@NotNull String cmd) {
+        Command stats = commands.get(cmd);
+        if (stats == null) {
+            Command newStats = new Command(cmd);
+            stats = commands.putIfAbsent(cmd, newStats);
+            if (stats == null) stats = newStats;
+        }
+        return stats;
+    }
+
+    /**
+     * @return The statistics of every command run so far, most time consuming first
+     */
+    @NotNull
+    public List<Command> getCommands() {
+        List<Command> list = new ArrayList<Command>(commands.values());
+        Collections.sort(list, new Comparator<Command>() {
+            public int compare(Command o1, Command o2) {
+                long t1 = o1.getTotalNanos();
+                long t2 = o2.getTotalNanos();
+                return t1 < t2 ? 1 : (t1 == t2 ? o1.getName().compareTo(o2.getName()) : -1);
+            }
+        });
+        return list;
+    }
+
+    @Nullable
+    public Command getCommand(@NotNull String cmd) {
+        return commands.get(cmd);
+    }
+
+    public void reset() {
+        commands.clear();
+    }
+
+    /* GitCommandStatsMBean */
+
+    public String[] getCommandNames() {
+        List<Command> list = getCommands();
+        String[] names = new String[list.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = list.get(i).getName();
+        return names;
+    }
+
+    public long getTotalCount() {
+        long count = 0;
+        for (Command stats : commands.values())
+            count += stats.getCount();
+        return count;
+    }
+
+    public long getTotalFailures() {
+        long count = 0;
+        for (Command stats : commands.values())
+            count += stats.getFailures();
+        return count;
+    }
+
+    public long getTotalDispatchThreadCalls() {
+        long count = 0;
+        for (Command stats : commands.values())
+            count += stats.getDispatchThreadCalls();
+        return count;
+    }
+
+    public long getTotalTimeMillis() {
+        long nanos = 0;
+        for (Command stats : commands.values())
+            nanos += stats.getTotalNanos();
+        return nanos / 1000000L;
+    }
+
+    public String[] getSummary() {
+        List<Command> list = getCommands();
+        String[] lines = new String[list.size()];
+        for (int i = 0; i < lines.length; i++)
+            lines[i] = list.get(i).toString();
+        return lines;
+    }
+
+    public long getCount(String cmd) {
+        Command stats = commands.get(cmd);
+        return stats == null ? 0 : stats.getCount();
+    }
+
+    public double getPercentileMillis(String cmd, double percentile) {
+        Command stats = commands.get(cmd);
+        return stats == null ? 0 : stats.getPercentileNanos(percentile) / 1000000.0;
+    }
+
+    private void register() {
+        if (registered) return;
+        synchronized (this) {
+            if (registered) return;
+            registered = true;
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name))  // already there if the plugin was reloaded
+                    server.registerMBean(this, name);
+            } catch (Exception e) {  // JMX is a nice-to-have, the tool window still works
+            }
+        }
+    }
+
+    /**
+     * The statistics of a single git command.
+     */
+    public static class Command {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong outputBytes = new AtomicLong();
+        private final AtomicLong dispatchThreadCalls = new AtomicLong();
+        private final AtomicLongArray exitCodes = new AtomicLongArray(256);
+        private final Histogram latency = new Histogram();
+
+        Command(@NotNull String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, long bytes, int exitCode) {
+            count.incrementAndGet();
+            if (exitCode != 0)
+                failures.incrementAndGet();
+            if (exitCode >= 0)
+                exitCodes.incrementAndGet(exitCode & 0xff);
+            totalNanos.addAndGet(nanos);
+            outputBytes.addAndGet(bytes);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+                max = maxNanos.get();
+            latency.record(nanos);
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getMeanNanos() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / n;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes.get();
+        }
+
+        /**
+         * @return How many times the command was started on the event dispatch thread
+         */
+        public long getDispatchThreadCalls() {
+            return dispatchThreadCalls.get();
+        }
+
+        /**
+         * @param percentile e.g. 99.0
+         * @return The latency below which the given percentage of invocations finished, to within 1/16th
+         */
+        public long getPercentileNanos(double percentile) {
+            return Math.min(latency.percentile(percentile), maxNanos.get());
+        }
+
+        /**
+         * @return The exit codes seen, e.g. "0:120 1:3"
+         */
+        @NotNull
+        public String getExitCodes() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < exitCodes.length(); i++) {
+                long n = exitCodes.get(i);
+                if (n == 0) continue;
+                if (sb.length() > 0) sb.append(' ');
+                sb.append(i).append(':').append(n);
+            }
+            return sb.toString();
+        }
+
+        public String toString() {
+            return name + " count=" + getCount() + " failures=" + getFailures()
+                    + " totalMs=" + getTotalNanos() / 1000000L + " meanMs=" + millis(getMeanNanos())
+                    + " p50Ms=" + millis(getPercentileNanos(50)) + " p90Ms=" + millis(getPercentileNanos(90))
+                    + " p99Ms=" + millis(getPercentileNanos(99)) + " maxMs=" + millis(getMaxNanos())
+                    + " outputBytes=" + getOutputBytes() + " exitCodes=[" + getExitCodes() + "]"
+                    + " edtCalls=" + getDispatchThreadCalls();
+        }
+
+        private static String millis(long nanos) {
+            return String.valueOf(Math.round(nanos / 100000.0) / 10.0);
+        }
+    }
+
+    /**
+     * A log-linear histogram in the style of HdrHistogram: values are split into power-of-two ranges, each
+     * divided into 16 equal buckets, so every recorded value is kept to within 1/16th (6%) of its size.
+     * Values are microseconds, up to about 2^40us (12 days); larger ones land in the last bucket.
+     */
+    static class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int MAX_EXPONENT = 40;
+        private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(index(Math.max(0, nanos / 1000L)));
+        }
+
+        /**
+         * @return The upper bound, in nanoseconds, of the bucket holding the given percentile
+         */
+        long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++)
+                total += buckets.get(i);
+            if (total == 0) return 0;
+            long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= wanted)
+                    return upperBound(i) * 1000L;
+            }
+            return upperBound(buckets.length() - 1) * 1000L;
+        }
+
+        static int index(long micros) {
+            if (micros < SUB_BUCKETS) return (int) micros;
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+            int sub = (int) ((micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
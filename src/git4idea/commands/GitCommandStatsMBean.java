@@ -0,0 +1,46 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+
+/**
+ * JMX view of {@link GitCommandStats}.
+ */
+public interface GitCommandStatsMBean {
+    /**
+     * @return The git commands run so far, most time consuming first
+     */
+    String[] getCommandNames();
+
+    long getTotalCount();
+
+    long getTotalFailures();
+
+    /**
+     * @return How many git processes were started on the event dispatch thread
+     */
+    long getTotalDispatchThreadCalls();
+
+    long getTotalTimeMillis();
+
+    /**
+     * @return One line of statistics per git command
+     */
+    String[] getSummary();
+
+    long getCount(String cmd);
+
+    double getPercentileMillis(String cmd, double percentile);
+
+    void reset();
+}
@@ -0,0 +1,210 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The plugin's git worker pool. Work that would otherwise run git on the event dispatch thread (VFS & refactoring
+ * listeners, background state refreshes) is queued here instead, on a small fixed number of daemon threads.
+ * <p/>
+ * Queued work is ordered by {@link Priority}, then first come first served. Work for the same key (usually a VCS
+ * root) always runs in submission order, one task at a time, so e.g. a "git rm" queued before a "git add" of the
+ * same path can't overtake it.
+ * <p/>
+ * {@link #checkThread(String)} is called before every git process is started and reports those started on the
+ * event dispatch thread, once per calling site, to the IDEA log and to {@link GitCommandStats}.
+ */
+public class GitExecutor {
+    private static final Logger LOG = Logger.getInstance("#git4idea.commands.GitExecutor");
+    private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final GitExecutor INSTANCE = new GitExecutor();
+
+    public enum Priority {
+        /**
+         * Work a user is waiting for
+         */
+        INTERACTIVE,
+        /**
+         * Refreshes nobody is waiting for
+         */
+        BACKGROUND
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<String, SerialQueue> queues = new ConcurrentHashMap<String, SerialQueue>();
+    private final Set<String> reportedSites = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private GitExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "GitExecutor-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @NotNull
+    public static GitExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue work on the pool.
+     *
+     * @param priority The priority
+     * @param task     The work
+     */
+    public void execute(@NotNull Priority priority, @NotNull Runnable task) {
+        pool.execute(new Task(priority, sequence.incrementAndGet(), task));
+    }
+
+    /**
+     * Queue work that must run after all work previously queued under the same key.
+     *
+     * @param priority The priority
+     * @param key      Serializes the work, e.g. the path of a VCS root
+     * @param task     The work
+     */
+    public void execute(@NotNull Priority priority, @NotNull String key, @NotNull Runnable task) {
+        SerialQueue queue = queues.get(key);
+        if (queue == null) {
+            SerialQueue newQueue = new SerialQueue(key);
+            queue = queues.putIfAbsent(key, newQueue);
+            if (queue == null) queue = newQueue;
+        }
+        queue.add(priority, task);
+    }
+
+    /**
+     * Report a git process about to be started on the event dispatch thread.
+     *
+     * @param cmd The git command
+     */
+    public static void checkThread(@NotNull String cmd) {
+        Application application = ApplicationManager.getApplication();
+        if (application == null || !application.isDispatchThread())
+            return;
+        GitCommandStats.getInstance().recordDispatchThreadCall(cmd);
+        Throwable trace = new Throwable("git " + cmd + " run on the event dispatch thread");
+        String site = cmd + " " + callingSite(trace);
+        if (INSTANCE.reportedSites.add(site))
+            LOG.warn(trace);
+    }
+
+    /**
+     * @return The first stack frame outside of the command classes, i.e. the code that asked for git to run
+     */
+    @NotNull
+    private static String callingSite(@NotNull Throwable trace) {
+        for (StackTraceElement frame : trace.getStackTrace()) {
+            if (!frame.getClassName().startsWith(GitExecutor.class.getPackage().getName() + "."))
+                return frame.toString();
+        }
+        return "";
+    }
+
+    private static class Task implements Runnable, Comparable<Task> {
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable work;
+
+        Task(@NotNull Priority priority, long sequence, @NotNull Runnable work) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+        }
+
+        public void run() {
+            work.run();
+        }
+
+        public int compareTo(Task o) {
+            if (priority != o.priority)
+                return priority.compareTo(o.priority);
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * The work queued under one key. At most one task of a queue is on the pool at any time; when it finishes
+     * it hands the next one to the pool.
+     */
+    private class SerialQueue {
+        private final String key;
+        private final LinkedList<Task> tasks = new LinkedList<Task>();
+        private boolean running = false;
+
+        SerialQueue(@NotNull String key) {
+            this.key = key;
+        }
+
+        void add(@NotNull Priority priority, @NotNull Runnable work) {
+            Task task = new Task(priority, sequence.incrementAndGet(), work);
+            synchronized (this) {
+                tasks.add(task);
+                if (running) return;
+                running = true;
+            }
+            submitNext();
+        }
+
+        private void submitNext() {
+            final Task next;
+            Priority priority;
+            synchronized (this) {
+                next = tasks.poll();
+                if (next == null) {
+                    running = false;
+                    return;
+                }
+                // the queue's work runs at the priority of its most urgent waiting task
+                priority = next.priority;
+                for (Task waiting : tasks) {
+                    if (waiting.priority.compareTo(priority) < 0)
+                        priority = waiting.priority;
+                }
+            }
+            pool.execute(new Task(priority, next.sequence, new Runnable() {
+                public void run() {
+                    try {
+                        next.run();
+                    } catch (RuntimeException e) {
+                        LOG.error("Error running git work for " + key, e);
+                    } finally {
+                        submitNext();
+                    }
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ *
+ * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
+ */
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs git network operations (fetch, pull, push) against several VCS roots at once. All parameters must be
+ * gathered up front by the caller; each root then runs its commands in order on a worker thread, with at most
+ * {@link GitVcsSettings#SYNC_PARALLELISM} roots in flight. Progress & errors for all roots are aggregated
+ * into the calling thread's progress indicator and a single error list.
+ */
+public class GitMultiRootSync {
+    private static final long POLL_MILLIS = 200;
+    private final Project project;
+    private final GitVcsSettings settings;
+    private final Map<VirtualFile, List<GitCommandRunnable>> steps = new LinkedHashMap<VirtualFile, List<GitCommandRunnable>>();
+
+    public GitMultiRootSync(@NotNull Project project, @NotNull GitVcsSettings settings) {
+        this.project = project;
+        this.settings = settings;
+    }
+
+    /**
+     * Queue a git command for the specified root. Commands queued for the same root run sequentially, in the
+     * order they were added, and stop at the first failure.
+     *
+     * @param root The VCS root to run the command in
+     * @param cmd  The git command
+     * @param args The command arguments
+     * @return The runnable for the step, e.g. to request its output be saved
+     */
+    public GitCommandRunnable addStep(@NotNull VirtualFile root, @NotNull String cmd, String... args) {
+        List<GitCommandRunnable> rootSteps = steps.get(root);
+        if (rootSteps == null) {
+            rootSteps = new ArrayList<GitCommandRunnable>();
+            steps.put(root, rootSteps);
+        }
+        GitCommandRunnable cmdr = new GitCommandRunnable(project, settings, root);
+        cmdr.setCommand(cmd);
+        cmdr.setArgs(args);
+        rootSteps.add(cmdr);
+        return cmdr;
+    }
+
+    /**
+     * Returns true if no commands have been queued.
+     *
+     * @return true if there is nothing to run
+     */
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * Run all queued commands. Meant to be called from inside a progress task (e.g.
+     * ProgressManager.runProcessWithProgressSynchronously()); the task's indicator reports overall progress.
+     *
+     * @return The errors from all roots, empty if every root succeeded
+     */
+    @NotNull
+    public List<VcsException> run() {
+        return run(ApplicationManager.getApplication() != null ? ProgressManager.getInstance().getProgressIndicator() : null);
+    }
+
+    /**
+     * Run all queued commands, reporting to the given indicator. Cancelling the indicator kills the git processes
+     * still running and skips the steps not yet started.
+     *
+     * @param indicator The indicator to report progress to & poll for cancellation, or null for none
+     * @return The errors from all roots, empty if every root succeeded
+     */
+    @NotNull
+    public List<VcsException> run(@Nullable ProgressIndicator indicator) {
+        final List<VcsException> exceptions = new ArrayList<VcsException>();
+        if (steps.isEmpty()) return exceptions;
+
+        final int total = steps.size();
+        int parallelism = Math.max(1, Math.min(settings.SYNC_PARALLELISM, total));
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GitMultiRootSync");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        CompletionService<VcsException> completion = new ExecutorCompletionService<VcsException>(pool);
+        for (final Map.Entry<VirtualFile, List<GitCommandRunnable>> entry : steps.entrySet()) {
+            completion.submit(new Callable<VcsException>() {
+                public VcsException call() throws Exception {
+                    return runRoot(entry.getKey(), entry.getValue());
+                }
+            });
+        }
+        pool.shutdown();
+
+        if (indicator != null) {
+            indicator.setIndeterminate(false);
+            indicator.setFraction(0);
+        }
+        int done = 0;
+        try {
+            while (done < total) {
+                if (indicator != null && indicator.isCanceled()) {
+                    cancel(pool);
+                    exceptions.add(new VcsException("Cancelled with " + (total - done) + " of " + total + " roots unfinished"));
+                    break;
+                }
+                Future<VcsException> f = completion.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (f == null) continue;
+                done++;
+                try {
+                    VcsException ex = f.get();
+                    if (ex != null) exceptions.add(ex);
+                } catch (ExecutionException e) {
+                    exceptions.add(new VcsException(e.getCause()));
+                }
+                if (indicator != null) {
+                    indicator.setFraction((double) done / total);
+                    indicator.setText2(done + " of " + total + " roots finished");
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(pool);
+            Thread.currentThread().interrupt();
+        }
+        return exceptions;
+    }
+
+    /* the workers block reading git's output, so interrupting them isn't enough: the processes must be killed */
+    private void cancel(@NotNull ExecutorService pool) {
+        for (List<GitCommandRunnable> rootSteps : steps.values()) {
+            for (GitCommandRunnable cmdr : rootSteps)
+                cmdr.cancel();
+        }
+        pool.shutdownNow();
+    }
+
+    private VcsException runRoot(@NotNull VirtualFile root, @NotNull List<GitCommandRunnable> rootSteps) {
+        for (GitCommandRunnable cmdr : rootSteps) {
+            cmdr.run();
+            VcsException ex = cmdr.getException();
+            if (ex != null)
+                return new VcsException(root.getPath() + ": " + ex.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,380 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import com.intellij.openapi.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Parses the text output of the git commands run by {@link GitCommand}. Kept free of IDEA objects, so the
+ * parsing cost can be measured on its own against captured output.
+ */
+final class GitOutputParser {
+    static final String LOG_FORMAT = "--pretty=format:%H@@@%an <%ae>@@@%ct@@@%s";
+    private static final String LOG_SEPARATOR = "@@@";
+
+    private GitOutputParser() {
+    }
+
+    /**
+     * A "git diff --name-status" entry.
+     */
+    static final class NameStatus {
+        final String status;
+        final String path;
+
+        NameStatus(@NotNull String status, @NotNull String path) {
+            this.status = status;
+            this.path = path;
+        }
+    }
+
+    /**
+     * A "git log" entry in {@link #LOG_FORMAT}.
+     */
+    static final class LogEntry {
+        final String revision;
+        final String author;
+        final Date date;
+        final String subject;
+
+        LogEntry(@NotNull String revision, @NotNull String author, @NotNull Date date, @NotNull String subject) {
+            this.revision = revision;
+            this.author = author;
+            this.date = date;
+            this.subject = subject;
+        }
+    }
+
+    /**
+     * A "git annotate -l" line.
+     */
+    static final class AnnotatedLine {
+        final String revision;
+        final String author;
+        final Date date;
+        final long lineNumber;
+        final String contents;
+
+        AnnotatedLine(@NotNull String revision, @NotNull String author, @NotNull Date date, long lineNumber,
+                      @NotNull String contents) {
+            this.revision = revision;
+            this.author = author;
+            this.date = date;
+            this.lineNumber = lineNumber;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * A raw "git diff-tree -r" entry.
+     */
+    static final class TreeChange {
+        final String oldBlob;
+        final String newBlob;
+        final String status;
+        final String path;
+        final String newPath;
+
+        TreeChange(@NotNull String oldBlob, @NotNull String newBlob, @NotNull String status, @NotNull String path,
+                   @Nullable String newPath) {
+            this.oldBlob = oldBlob;
+            this.newBlob = newBlob;
+            this.status = status;
+            this.path = path;
+            this.newPath = newPath;
+        }
+    }
+
+    /**
+     * A "git ls-files -s" entry.
+     */
+    static final class IndexEntry {
+        final String mode;
+        final String id;
+        final int stage;
+        final String path;
+
+        IndexEntry(@NotNull String mode, @NotNull String id, int stage, @NotNull String path) {
+            this.mode = mode;
+            this.id = id;
+            this.stage = stage;
+            this.path = path;
+        }
+    }
+
+    /**
+     * The result of a "git merge-tree --write-tree --name-only -z".
+     */
+    static final class MergeTree {
+        final String tree;
+        final List<String> conflicts;
+
+        MergeTree(@NotNull String tree, @NotNull List<String> conflicts) {
+            this.tree = tree;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /**
+     * Parse "git merge-tree --write-tree --name-only -z" output: the merged tree, then the conflicted paths
+     * (if any), an empty field, and informational messages.
+     *
+     * @param output The command output
+     * @return The merge result
+     * @throws VcsException If the output can't be read
+     */
+    @NotNull
+    static MergeTree parseMergeTree(@NotNull String output) throws VcsException {
+        int end = output.indexOf('\0');
+        if (end <= 0)
+            throw new VcsException("Unexpected merge-tree output: " + output);
+        String tree = output.substring(0, end);
+        List<String> conflicts = new ArrayList<String>();
+        for (int start = end + 1; start < output.length(); start = end + 1) {
+            end = output.indexOf('\0', start);
+            if (end < 0 || end == start) break;
+            String path = output.substring(start, end);
+            if (!conflicts.contains(path))
+                conflicts.add(path);
+        }
+        return new MergeTree(tree, conflicts);
+    }
+
+    /**
+     * Parse "git diff --name-status" output.
+     *
+     * @param output The command output
+     * @return The entries, in output order
+     */
+    @NotNull
+    static List<NameStatus> parseNameStatus(@Nullable String output) {
+        List<NameStatus> entries = new ArrayList<NameStatus>();
+        if (output == null || output.length() == 0) return entries;
+        if (output.startsWith("null"))
+            output = output.substring(4);
+        StringTokenizer tokenizer = new StringTokenizer(output, "\n");
+        while (tokenizer.hasMoreTokens()) {
+            String[] larr = tokenizer.nextToken().split("\t");
+            if (larr.length == 2)
+                entries.add(new NameStatus(larr[0], larr[1]));
+        }
+        return entries;
+    }
+
+    /**
+     * Parse "--name-status -z" output, as written by "git diff" & "git diff-tree": a status field and a path
+     * field per entry, each terminated by NUL. Renames & copies must have been turned off.
+     *
+     * @param output The command output
+     * @return The entries, in output order
+     */
+    @NotNull
+    static List<NameStatus> parseNameStatusZ(@Nullable String output) {
+        List<NameStatus> entries = new ArrayList<NameStatus>();
+        if (output == null || output.length() == 0) return entries;
+        String[] fields = output.split("\0");
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            if (fields[i].length() > 0)
+                entries.add(new NameStatus(fields[i].substring(0, 1), fields[i + 1]));
+        }
+        return entries;
+    }
+
+    /**
+     * Parse "git ls-files -u -z" output: one "mode object stage&lt;TAB&gt;path" entry per stage of each unmerged path.
+     *
+     * @param output The command output
+     * @return The unmerged paths, each once, in output order
+     */
+    @NotNull
+    static Set<String> parseUnmergedPaths(@Nullable String output) {
+        return parseUnmergedEntries(output).keySet();
+    }
+
+    /**
+     * Parse "git ls-files -s -z" (or -u -z) output: one "mode object stage&lt;TAB&gt;path" entry per index entry.
+     *
+     * @param output The command output
+     * @return The entries, in output order
+     */
+    @NotNull
+    static List<IndexEntry> parseIndexEntries(@Nullable String output) {
+        List<IndexEntry> entries = new ArrayList<IndexEntry>();
+        if (output == null || output.length() == 0) return entries;
+        for (String entry : output.split("\0")) {
+            int tab = entry.indexOf('\t');
+            if (tab < 0) continue;
+            String[] fields = entry.substring(0, tab).split(" ");
+            if (fields.length != 3 || fields[2].length() != 1) continue;
+            entries.add(new IndexEntry(fields[0], fields[1], fields[2].charAt(0) - '0', entry.substring(tab + 1)));
+        }
+        return entries;
+    }
+
+    /**
+     * Parse "git ls-files -u -z" output into the object ids of each unmerged path's stages.
+     *
+     * @param output The command output
+     * @return The object ids of stage 1 (base), 2 (ours) & 3 (theirs) by path, null where a stage is absent
+     */
+    @NotNull
+    static Map<String, String[]> parseUnmergedEntries(@Nullable String output) {
+        Map<String, String[]> entries = new LinkedHashMap<String, String[]>();
+        for (IndexEntry entry : parseIndexEntries(output)) {
+            if (entry.stage < 1 || entry.stage > 3) continue;
+            String[] ids = entries.get(entry.path);
+            if (ids == null) {
+                ids = new String[3];
+                entries.put(entry.path, ids);
+            }
+            ids[entry.stage - 1] = entry.id;
+        }
+        return entries;
+    }
+
+    /**
+     * Parse one-path-per-line output, e.g. "git ls-files --others".
+     *
+     * @param output The command output
+     * @return The trimmed paths
+     */
+    @NotNull
+    static List<String> parsePaths(@Nullable String output) {
+        List<String> paths = new ArrayList<String>();
+        if (output == null || output.length() == 0) return paths;
+        StringTokenizer tokenizer = new StringTokenizer(output, "\n");
+        while (tokenizer.hasMoreTokens())
+            paths.add(tokenizer.nextToken().trim());
+        return paths;
+    }
+
+    /**
+     * Parse "git log" output in {@link #LOG_FORMAT}.
+     *
+     * @param output The command output
+     * @return The entries, newest first
+     * @throws VcsException If the output can't be read
+     */
+    @NotNull
+    static List<LogEntry> parseLog(@NotNull String output) throws VcsException {
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        BufferedReader in = new BufferedReader(new StringReader(output));
+        String line;
+        try {
+            while ((line = in.readLine()) != null) {
+                if (line.length() == 0) continue;
+                String[] values = line.split(LOG_SEPARATOR, 4);
+                if (values.length < 3)
+                    throw new VcsException("Framing error: unexpected log line: " + line);
+                Date commitDate = new Date(Long.valueOf(values[2]) * 1000);
+                entries.add(new LogEntry(values[0], values[1], commitDate, values.length > 3 ? values[3] : ""));
+            }
+        } catch (IOException e) {
+            throw new VcsException(e);
+        } catch (NumberFormatException e) {
+            throw new VcsException(e);
+        }
+        return entries;
+    }
+
+    /**
+     * Parse "git annotate -l" output.
+     *
+     * @param output The command output
+     * @return The lines, in file order
+     * @throws VcsException If the output is malformed
+     */
+    @NotNull
+    static List<AnnotatedLine> parseAnnotate(@NotNull String output) throws VcsException {
+        List<AnnotatedLine> lines = new ArrayList<AnnotatedLine>();
+        BufferedReader in = new BufferedReader(new StringReader(output));
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+        String line;
+        try {
+            while ((line = in.readLine()) != null) {
+                String annValues[] = line.split("\t", 4);
+                if (annValues.length != 4) {
+                    throw new VcsException("Framing error: unexpected number of values");
+                }
+
+                String revision = annValues[0];
+                String user = annValues[1];
+                String dateStr = annValues[2];
+                String numberedLine = annValues[3];
+
+                if (revision.length() != 40) {
+                    throw new VcsException("Framing error: Illegal revision number: " + revision);
+                }
+
+                int idx = numberedLine.indexOf(')');
+                if (!user.startsWith("(") || idx <= 0) {
+                    continue;
+                }
+                user = user.substring(1).trim(); // Ditch the (
+                long lineNumber = Long.parseLong(numberedLine.substring(0, idx));
+                String lineContents = numberedLine.substring(idx + 1);
+
+                Date date = dateFormat.parse(dateStr);
+                lines.add(new AnnotatedLine(revision, user, date, lineNumber, lineContents));
+            }
+        } catch (IOException e) {
+            throw new VcsException("Failed to load annotations", e);
+        } catch (ParseException e) {
+            throw new VcsException("Failed to load annotations", e);
+        }
+        return lines;
+    }
+
+    /**
+     * Parse "git diff-tree -r --root --pretty=format:%P &lt;commit&gt;" output: the parent commit line, followed
+     * by one raw entry per changed file, e.g.
+     * <pre>
+     * :000000 100644 0000000000000000000000000000000000000000 984ca539b1c469fb2bbd6d6e26fe5fcd25ab76f1 A	path
+     * </pre>
+     *
+     * @param output  The command output
+     * @param changes Receives the changed files
+     * @return The parent commit id, empty for a root commit
+     */
+    @NotNull
+    static String parseDiffTree(@NotNull String output, @NotNull List<TreeChange> changes) {
+        final String[] lines = output.split("\n");
+        if (lines.length == 0) return "";
+
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.length() == 0)
+                continue;
+            final String[] tokens = line.split("[ \t]");
+            assert tokens.length > 5;
+            changes.add(new TreeChange(tokens[2], tokens[3], tokens[4].substring(0, 1), tokens[5],
+                    tokens.length > 6 ? tokens[6] : null));
+        }
+        return lines[0];
+    }
+}
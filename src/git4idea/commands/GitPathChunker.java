@@ -0,0 +1,113 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import org.jetbrains.annotations.NotNull;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a long list of paths into as few command lines as possible without exceeding the operating system's
+ * argument length limit. Used when git is too old to read pathspecs from stdin.
+ */
+public class GitPathChunker {
+    private static final boolean WINDOWS = System.getProperty("os.name").startsWith("Windows");
+    /* CreateProcess() limits the whole command line to 32767 chars */
+    private static final int WINDOWS_LIMIT = 32767;
+    /* most Unixes allow ARG_MAX = 256KB or more for argv + environment; stay well below it */
+    private static final int UNIX_LIMIT = 256 * 1024;
+    /* per-argument overhead: argv pointer + terminating NUL (Unix) or separating space & quotes (Windows) */
+    private static final int UNIX_ARG_OVERHEAD = 8 + 1;
+    private static final int WINDOWS_ARG_OVERHEAD = 3;
+    private static final int MIN_BUDGET = 4096;
+
+    private final int budget;
+    private final int overhead;
+
+    /**
+     * Create a chunker for command lines sharing the specified fixed arguments.
+     *
+     * @param fixedArgs The executable, command & options repeated on every command line
+     * @param env       The environment the command is started with (it shares the Unix ARG_MAX space)
+     */
+    public GitPathChunker(@NotNull List<String> fixedArgs, @NotNull Map<String, String> env) {
+        this(fixedArgs, env, WINDOWS ? WINDOWS_LIMIT : UNIX_LIMIT, WINDOWS);
+    }
+
+    GitPathChunker(@NotNull List<String> fixedArgs, @NotNull Map<String, String> env, int limit, boolean windows) {
+        overhead = windows ? WINDOWS_ARG_OVERHEAD : UNIX_ARG_OVERHEAD;
+        int used = 0;
+        for (String arg : fixedArgs)
+            used += size(arg);
+        if (!windows) {
+            for (Map.Entry<String, String> e : env.entrySet())
+                used += byteLength(e.getKey()) + byteLength(e.getValue()) + 2 + 8;
+        }
+        budget = Math.max(MIN_BUDGET, limit - used);
+    }
+
+    /**
+     * @return The number of bytes available for paths on each command line
+     */
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Split the paths into consecutive chunks, each filled as far as the budget allows. A path too long to
+     * share a command line with others gets a chunk of its own.
+     *
+     * @param paths The paths, in order
+     * @return The chunks; empty if there are no paths
+     */
+    @NotNull
+    public List<List<String>> split(@NotNull Collection<String> paths) {
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunk = new ArrayList<String>();
+        int used = 0;
+        for (String path : paths) {
+            int size = size(path);
+            if (!chunk.isEmpty() && used + size > budget) {
+                chunks.add(chunk);
+                chunk = new ArrayList<String>();
+                used = 0;
+            }
+            chunk.add(path);
+            used += size;
+        }
+        if (!chunk.isEmpty())
+            chunks.add(chunk);
+        return chunks;
+    }
+
+    private int size(@NotNull String arg) {
+        return byteLength(arg) + overhead;
+    }
+
+    private static int byteLength(@NotNull String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                try {
+                    return s.getBytes("UTF-8").length;
+                } catch (UnsupportedEncodingException e) {
+                    return s.length() * 3;
+                }
+            }
+        }
+        return s.length();
+    }
+}
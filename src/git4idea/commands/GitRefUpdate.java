@@ -0,0 +1,185 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import git4idea.GitRefSnapshot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single ref updated by 'git fetch', as reported in its ref summary output, e.g.
+ * <pre>
+ *  * [new branch]      topic      -> origin/topic
+ *    1a2b3c4..5d6e7f8  master     -> origin/master
+ *  + 1a2b3c4...9f8e7d6 pu         -> origin/pu  (forced update)
+ *  * [new tag]         v1.0       -> v1.0
+ *  - [deleted]         (none)     -> origin/gone
+ * </pre>
+ */
+public class GitRefUpdate {
+    private static final Pattern SUMMARY_LINE =
+            Pattern.compile("^ (.) (\\[[^\\]]+\\]|\\S+)\\s+(\\S+)\\s+-> (\\S+)(?:\\s+\\((.*)\\))?\\s*$");
+
+    public enum Type {
+        FAST_FORWARD,
+        FORCED,
+        NEW,
+        DELETED,
+        TAG_UPDATE,
+        REJECTED,
+        UP_TO_DATE
+    }
+
+    private final Type type;
+    private final String summary;
+    private final String remoteRef;
+    private final String localRef;
+    private final String reason;
+
+    public GitRefUpdate(@NotNull Type type, @NotNull String summary, @NotNull String remoteRef,
+                        @NotNull String localRef, @Nullable String reason) {
+        this.type = type;
+        this.summary = summary;
+        this.remoteRef = remoteRef;
+        this.localRef = localRef;
+        this.reason = reason;
+    }
+
+    /**
+     * Parse the ref summary lines out of 'git fetch' output. Any other output (progress, "From ..." headers,
+     * errors) is skipped.
+     *
+     * @param output The combined stdout/stderr of 'git fetch'
+     * @return The updated refs, in output order
+     */
+    @NotNull
+    @SuppressWarnings({"EmptyCatchBlock"})
+    public static List<GitRefUpdate> parseFetchOutput(@Nullable String output) {
+        List<GitRefUpdate> updates = new ArrayList<GitRefUpdate>();
+        if (output == null || output.length() == 0) return updates;
+
+        BufferedReader in = new BufferedReader(new StringReader(output));
+        String line;
+        try {
+            while ((line = in.readLine()) != null) {
+                int cr = line.lastIndexOf('\r');   // progress meters overwrite the line with CRs
+                if (cr >= 0) line = line.substring(cr + 1);
+                Matcher m = SUMMARY_LINE.matcher(line);
+                if (!m.matches()) continue;
+                Type type = convertFlag(m.group(1).charAt(0));
+                if (type == null) continue;
+                String remote = m.group(3);
+                String local = m.group(4);
+                if (local.indexOf('*') >= 0)  // fetch.output=compact abbreviates the shared part as '*'
+                    local = local.replace("*", remote);
+                updates.add(new GitRefUpdate(type, m.group(2), remote, local, m.group(5)));
+            }
+        } catch (IOException e) { // not possible reading a String
+        }
+        return updates;
+    }
+
+    @Nullable
+    private static Type convertFlag(char flag) {
+        switch (flag) {
+            case ' ':
+                return Type.FAST_FORWARD;
+            case '+':
+                return Type.FORCED;
+            case '*':
+                return Type.NEW;
+            case '-':
+                return Type.DELETED;
+            case 't':
+                return Type.TAG_UPDATE;
+            case '!':
+                return Type.REJECTED;
+            case '=':
+                return Type.UP_TO_DATE;
+            default:
+                return null;
+        }
+    }
+
+    @NotNull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The old..new range, or a bracketed description such as "[new branch]"
+     */
+    @NotNull
+    public String getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return The ref name on the remote side, "(none)" for pruned refs
+     */
+    @NotNull
+    public String getRemoteRef() {
+        return remoteRef;
+    }
+
+    /**
+     * @return The local ref that was updated, in the short form git prints (e.g. "origin/master" or "v1.0")
+     */
+    @NotNull
+    public String getLocalRef() {
+        return localRef;
+    }
+
+    /**
+     * @return The full names the local ref may stand for under git's ref shortening rules, e.g.
+     *         "refs/remotes/origin/master" for "origin/master". Git only shortens a name that's unambiguous, so at
+     *         most one of them is the ref that was updated.
+     */
+    @NotNull
+    public List<String> getFullLocalRefs() {
+        if (localRef.startsWith("refs/"))
+            return Collections.singletonList(localRef);
+        return Arrays.asList("refs/" + localRef, GitRefSnapshot.TAGS_PREFIX + localRef,
+                GitRefSnapshot.HEADS_PREFIX + localRef, GitRefSnapshot.REMOTES_PREFIX + localRef);
+    }
+
+    @Nullable
+    public String getReason() {
+        return reason;
+    }
+
+    public boolean isTag() {
+        return type == Type.TAG_UPDATE || summary.contains("tag");
+    }
+
+    /**
+     * @return true if the local ref now points somewhere new (or is gone)
+     */
+    public boolean isChanged() {
+        return type != Type.REJECTED && type != Type.UP_TO_DATE;
+    }
+
+    public String toString() {
+        return summary + " " + remoteRef + " -> " + localRef + (reason != null ? " (" + reason + ")" : "");
+    }
+}
@@ -0,0 +1,210 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ * Author: Mark Scott
+ */
+import com.intellij.openapi.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares read-only git queries between callers. A caller asking for a query (root, command line) that is
+ * already running waits for that process instead of starting its own, and a finished result is handed out
+ * again for a short while afterwards.
+ * <p/>
+ * Every root has a generation, bumped by {@link #invalidate} whenever git writes to the repository or a file
+ * under it changes. Only queries started in the current generation are shared, so nobody gets an answer that
+ * predates a change they could have seen.
+ */
+public class GitSingleFlight {
+    private static final GitSingleFlight INSTANCE = new GitSingleFlight();
+    private static final int PRUNE_THRESHOLD = 256;  // finished results kept before expired ones are dropped
+
+    private final ConcurrentMap<String, Call> calls = new ConcurrentHashMap<String, Call>();
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * A read-only git query.
+     */
+    public interface Query {
+        String run() throws VcsException;
+    }
+
+    /**
+     * Told whenever a root's repository changes: git wrote to it, or a file under its .git directory changed.
+     * Edits to the working tree alone invalidate cached queries but aren't reported.
+     */
+    public interface Listener {
+        void invalidated(@NotNull String root);
+    }
+
+    private GitSingleFlight() {
+    }
+
+    @NotNull
+    public static GitSingleFlight getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Run a query, or join/reuse an identical one.
+     *
+     * @param root       The repository root the query reads
+     * @param key        Identifies the query within the root, e.g. its command line
+     * @param memoMillis How long a finished result may be reused; 0 to only share running queries
+     * @param query      Runs the query
+     * @return The query output
+     * @throws VcsException If the (shared) query failed
+     */
+    public String run(@NotNull String root, @NotNull String key, long memoMillis, @NotNull Query query)
+            throws VcsException {
+        String callKey = root + '\0' + key;
+        long generation = generation(root).get();
+        while (true) {
+            Call call = calls.get(callKey);
+            if (call != null && call.generation == generation && !call.isExpired(memoMillis))
+                return call.await();
+
+            Call mine = new Call(generation);
+            boolean won = call == null ? calls.putIfAbsent(callKey, mine) == null : calls.replace(callKey, call, mine);
+            if (!won) continue;  // someone else started it meanwhile: join theirs
+
+            try {
+                mine.succeeded(query.run());
+            } catch (VcsException e) {
+                mine.failed(e);
+            } catch (RuntimeException e) {
+                mine.failed(new VcsException(e));
+                throw e;
+            } catch (Error e) {
+                mine.failed(new VcsException(e));
+                throw e;
+            } finally {
+                if (memoMillis <= 0 || mine.exception != null)
+                    calls.remove(callKey, mine);
+                else if (calls.size() > PRUNE_THRESHOLD)
+                    prune(memoMillis);
+            }
+            return mine.await();
+        }
+    }
+
+    private void prune(long memoMillis) {
+        for (Map.Entry<String, Call> entry : calls.entrySet()) {
+            if (entry.getValue().isExpired(memoMillis))
+                calls.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Forget all results for a root. Queries already running finish for their existing callers only.
+     */
+    public void invalidate(@NotNull String root) {
+        invalidate(root, true);
+    }
+
+    private void invalidate(@NotNull String root, boolean notify) {
+        generation(root).incrementAndGet();
+        String prefix = root + '\0';
+        for (Map.Entry<String, Call> entry : calls.entrySet()) {
+            if (entry.getKey().startsWith(prefix) && entry.getValue().isDone())
+                calls.remove(entry.getKey(), entry.getValue());
+        }
+        if (!notify) return;
+        for (Listener listener : listeners)
+            listener.invalidated(root);
+    }
+
+    public void addListener(@NotNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NotNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * A file has changed: invalidate the root(s) it lives under.
+     */
+    public void fileChanged(@NotNull String path) {
+        boolean repository = path.contains("/.git/") || path.endsWith("/.git");
+        for (String root : generations.keySet()) {
+            if (path.equals(root) || path.startsWith(root.endsWith("/") ? root : root + "/"))
+                invalidate(root, repository);
+        }
+    }
+
+    @NotNull
+    private AtomicLong generation(@NotNull String root) {
+        AtomicLong generation = generations.get(root);
+        if (generation == null) {
+            AtomicLong newGeneration = new AtomicLong();
+            generation = generations.putIfAbsent(root, newGeneration);
+            if (generation == null) generation = newGeneration;
+        }
+        return generation;
+    }
+
+    private static class Call {
+        final long generation;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long finishedAt;
+        private String result;
+        private VcsException exception;
+
+        Call(long generation) {
+            this.generation = generation;
+        }
+
+        void succeeded(String output) {
+            result = output;
+            finish();
+        }
+
+        void failed(@NotNull VcsException e) {
+            exception = e;
+            finish();
+        }
+
+        private void finish() {
+            finishedAt = System.currentTimeMillis();
+            done.countDown();
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        boolean isExpired(long memoMillis) {
+            return isDone() && System.currentTimeMillis() - finishedAt > memoMillis;
+        }
+
+        String await() throws VcsException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new VcsException("Interrupted");
+            }
+            if (exception != null)
+                throw exception;
+            return result;
+        }
+    }
+}